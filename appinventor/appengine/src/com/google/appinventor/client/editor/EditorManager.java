@@ -18,7 +18,10 @@ import com.google.appinventor.client.output.OdeLog;
 import com.google.appinventor.client.settings.project.ProjectSettings;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FilePatch;
+import com.google.appinventor.shared.rpc.project.FilePatchException;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
+import com.google.appinventor.shared.youngandroid.YoungAndroidSourceAnalyzer;
 import com.google.common.collect.Maps;
 import com.google.gwt.user.client.Command;
 import com.google.gwt.user.client.Timer;
@@ -58,6 +61,11 @@ public final class EditorManager {
   private boolean autoSaveIsScheduled;
   private long autoSaveRequestTime;
 
+  // Map of project IDs to the last content the server acknowledged saving
+  // for each of the project's blocks and form files, keyed by file ID.
+  // Later saves of these files send a patch against this content.
+  private final Map<Long, Map<String, String>> savedContents;
+
   private class DateHolder {
     long date;
     long projectId;
@@ -71,6 +79,7 @@ public final class EditorManager {
 
     dirtyProjectSettings = new HashSet<ProjectSettings>();
     dirtyFileEditors = new HashSet<FileEditor>();
+    savedContents = Maps.newHashMap();
 
     autoSaveTimer = new Timer() {
       @Override
@@ -148,6 +157,7 @@ public final class EditorManager {
         if (fileEditor != null) {
           dirtyFileEditors.remove(fileEditor);
         }
+        setSavedContent(projectId, fileId, null);
       }
       projectEditor.closeFileEditors(fileIds);
     }
@@ -167,6 +177,7 @@ public final class EditorManager {
     ProjectSettings projectSettings = project.getSettings();
     dirtyProjectSettings.remove(projectSettings);
     openProjectEditors.remove(projectId);
+    savedContents.remove(projectId);
   }
 
   /**
@@ -386,8 +397,7 @@ public final class EditorManager {
         final long projectId = fileDescriptor.getProjectId();
         final String fileId = fileDescriptor.getFileId();
         final String content = fileDescriptor.getContent();
-        Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
-          projectId, fileId, false, content, new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
+        OdeAsyncCallback<Long> callback = new OdeAsyncCallback<Long>(MESSAGES.saveErrorMultipleFiles()) {
             @Override
             public void onSuccess(Long date) {
               if (dateHolder.date != 0) {
@@ -400,6 +410,7 @@ public final class EditorManager {
                 dateHolder.date = date;
                 dateHolder.projectId = projectId;
               }
+              setSavedContent(projectId, fileId, content);
               if (afterSavingFiles != null) {
                 afterSavingFiles.execute();
               }
@@ -409,12 +420,66 @@ public final class EditorManager {
               // Here is where we handle BlocksTruncatedException
               if (caught instanceof BlocksTruncatedException) {
                 Ode.getInstance().blocksTruncatedDialog(projectId, fileId, content, this);
+              } else if (caught instanceof FilePatchException) {
+                // The server's copy isn't the one the patch was made from, so send it all
+                setSavedContent(projectId, fileId, null);
+                Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+                    projectId, fileId, false, content, this);
               } else {
                 super.onFailure(caught);
               }
             }
-          });
+          };
+        FilePatch patch = createPatch(projectId, fileId, content);
+        if (patch != null) {
+          Ode.getInstance().getProjectService().savePatch(Ode.getInstance().getSessionId(),
+              projectId, fileId, patch, callback);
+        } else {
+          Ode.getInstance().getProjectService().save2(Ode.getInstance().getSessionId(),
+              projectId, fileId, false, content, callback);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a patch from the content last saved for a blocks or form file to
+   * the given content, or null if the whole content should be sent instead.
+   */
+  private FilePatch createPatch(long projectId, String fileId, String content) {
+    Map<String, String> contents = savedContents.get(projectId);
+    String base = (contents == null) ? null : contents.get(fileId);
+    if (base == null) {
+      return null;
+    }
+    try {
+      FilePatch patch = FilePatch.create(base, content);
+      // Not worth it if most of the file changed
+      return (patch.getTextLength() * 2 < content.length()) ? patch : null;
+    } catch (FilePatchException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Records the content the server saved for a file, or forgets it if
+   * content is null. Only blocks and form files are saved as patches, so
+   * only their content is kept.
+   */
+  private void setSavedContent(long projectId, String fileId, String content) {
+    if (content == null) {
+      Map<String, String> contents = savedContents.get(projectId);
+      if (contents != null) {
+        contents.remove(fileId);
+      }
+    } else if (fileId.endsWith(YoungAndroidSourceAnalyzer.BLOCKLY_SOURCE_EXTENSION)
+        || fileId.endsWith(YoungAndroidSourceAnalyzer.FORM_PROPERTIES_EXTENSION)) {
+      Map<String, String> contents = savedContents.get(projectId);
+      if (contents == null) {
+        contents = Maps.newHashMap();
+        savedContents.put(projectId, contents);
       }
+      contents.put(fileId, content);
     }
   }
 }
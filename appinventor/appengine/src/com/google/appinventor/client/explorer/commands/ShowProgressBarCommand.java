@@ -37,7 +37,11 @@ public class ShowProgressBarCommand extends ChainableCommand {
   private String target;
   private ChainableCommand nextCommand;
   private final String buildRequestTime;
-  private static final int WAIT_INTERVAL_MILLIS = 5000;
+  // The server holds each request until the build progresses, so only a short
+  // pause is needed between requests.
+  private static final int WAIT_INTERVAL_MILLIS = 500;
+  // The progress from the last result, which the server waits to change
+  private int lastProgress = -1;
   private ProjectNode projectNode;
   private ProgressBarDialogBox minPB;
   private String serviceName;
@@ -85,12 +89,16 @@ public class ShowProgressBarCommand extends ChainableCommand {
             minPB.hide();
         } else if (progressBarShow != 2 ) {
           // Build isn't done yet
+          try {
+            lastProgress = Integer.parseInt(result.getOutput());
+          } catch (NumberFormatException e) {
+            lastProgress = -1;
+          }
           Timer timer = new Timer() {
               @Override
                 public void run() {
                 execute(node); }
             };
-          // TODO(user): Maybe do an exponential backoff here.
           timer.schedule(WAIT_INTERVAL_MILLIS);
         }
       }
@@ -99,7 +107,8 @@ public class ShowProgressBarCommand extends ChainableCommand {
         super.onFailure(caught);
         executionFailedOrCanceled();}
     };
-    ode.getProjectService().getBuildResult(node.getProjectId(), target, callback);
+    ode.getProjectService().waitForBuildResult(node.getProjectId(), target, lastProgress,
+        callback);
   }
 
   public void addMessages(String projectName, RpcResult result) {
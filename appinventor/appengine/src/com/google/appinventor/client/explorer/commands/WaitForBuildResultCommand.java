@@ -37,7 +37,11 @@ import static com.google.appinventor.client.Ode.MESSAGES;
 public class WaitForBuildResultCommand extends ChainableCommand {
   // The build target
   private final String target;
-  private static final int WAIT_INTERVAL_MILLIS = 10000;
+  // The server holds each request until the build progresses, so only a short
+  // pause is needed between requests.
+  private static final int WAIT_INTERVAL_MILLIS = 500;
+  // The progress from the last result, which the server waits to change
+  private int lastProgress = -1;
   private final MessagesOutput messagesOutput;
   private final String buildRequestTime;
 
@@ -113,13 +117,17 @@ public class WaitForBuildResultCommand extends ChainableCommand {
           executionFailedOrCanceled();
         } else {
           // Build isn't done yet
+          try {
+            lastProgress = Integer.parseInt(result.getOutput());
+          } catch (NumberFormatException e) {
+            lastProgress = -1;
+          }
           Timer timer = new Timer() {
             @Override
             public void run() {
               execute(node);
             }
           };
-          // TODO(user): Maybe do an exponential backoff here.
           timer.schedule(WAIT_INTERVAL_MILLIS);
         }
       }
@@ -131,7 +139,8 @@ public class WaitForBuildResultCommand extends ChainableCommand {
       }
     };
 
-    ode.getProjectService().getBuildResult(node.getProjectId(), target, callback);
+    ode.getProjectService().waitForBuildResult(node.getProjectId(), target, lastProgress,
+        callback);
   }
 
   private static YoungAndroidBlocksNode findBlocksNode(YoungAndroidProjectNode projectRootNode,
@@ -0,0 +1,88 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.StorageIo;
+import com.google.appinventor.server.storage.StorageIoInstanceHolder;
+
+/**
+ * Registry of the progress of running builds, so that clients can wait for
+ * the next change rather than poll for it.
+ *
+ * <p>The progress is kept in memcache through {@link StorageIo}, since the
+ * build server's callbacks and the waiting client may be served by different
+ * instances. Waiters on the instance that receives an update are woken at
+ * once; waiters on other instances notice it at their next memcache check.
+ *
+ */
+public final class BuildStatusRegistry {
+
+  /**
+   * Progress recorded once the build server has sent all of the build
+   * output, including build.out with the result. The build server reports
+   * progress from 0 to 100, and clients that haven't seen any progress send
+   * -1, so neither can be mistaken for it.
+   */
+  public static final int BUILD_FINISHED = -2;
+
+  // How long a waiter first waits before checking memcache for updates
+  // received by other instances. The wait doubles after each check, up to
+  // MAX_CHECK_INTERVAL_MILLIS, as a build that hasn't moved for a while is
+  // unlikely to move in the next second.
+  private static final long FIRST_CHECK_INTERVAL_MILLIS = 1000;
+  private static final long MAX_CHECK_INTERVAL_MILLIS = 8000;
+
+  private static final Object monitor = new Object();
+
+  private BuildStatusRegistry() {
+  }
+
+  /**
+   * Records the progress of a build and wakes the waiters on this instance.
+   */
+  public static void update(String userId, long projectId, int progress) {
+    getStorageIo().storeBuildStatus(userId, projectId, progress);
+    synchronized (monitor) {
+      monitor.notifyAll();
+    }
+  }
+
+  /**
+   * Waits until the progress of the build differs from the given one, or
+   * until the timeout passes, and returns the progress.
+   *
+   * @param lastProgress  the progress the caller already knows about
+   * @param timeoutMillis  the longest time to wait
+   */
+  public static int awaitChange(String userId, long projectId, int lastProgress,
+      long timeoutMillis) {
+    StorageIo storageIo = getStorageIo();
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    long checkInterval = FIRST_CHECK_INTERVAL_MILLIS;
+    int progress = storageIo.getBuildStatus(userId, projectId);
+    while (progress == lastProgress) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        break;
+      }
+      synchronized (monitor) {
+        try {
+          monitor.wait(Math.min(remaining, checkInterval));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      checkInterval = Math.min(checkInterval * 2, MAX_CHECK_INTERVAL_MILLIS);
+      progress = storageIo.getBuildStatus(userId, projectId);
+    }
+    return progress;
+  }
+
+  private static StorageIo getStorageIo() {
+    return StorageIoInstanceHolder.getInstance();
+  }
+}
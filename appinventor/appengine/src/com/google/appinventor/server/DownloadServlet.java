@@ -194,14 +194,13 @@ public class DownloadServlet extends OdeServlet {
         for (String projectId : projectIdStrings) {
           projectIds.add(Long.valueOf(projectId));
         }
-        ProjectSourceZip zipFile = fileExporter.exportSelectedProjectsSourceZip(
-          userId, "selected-projects.zip", projectIds);
-        downloadableFile = zipFile.getRawFile();
+        streamProjectsSourceZip(resp, userId, "selected-projects.zip", projectIds);
+        return;
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
-        ProjectSourceZip zipFile = fileExporter.exportAllProjectsSourceZip(
-            userId, "all-projects.zip");
-        downloadableFile = zipFile.getRawFile();
+        streamProjectsSourceZip(resp, userId, "all-projects.zip",
+            StorageIoInstanceHolder.getInstance().getProjects(userId));
+        return;
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_FILE)) {
         // Download a specific file.
@@ -253,4 +252,21 @@ public class DownloadServlet extends OdeServlet {
     out.write(content);
     out.close();
   }
+
+  /*
+   * Writes a zip of zips of the given projects straight to the response.
+   * The length of the zip is not known in advance, so no content length is set.
+   */
+  private void streamProjectsSourceZip(HttpServletResponse resp, String userId, String zipName,
+      List<Long> projectIds) throws IOException {
+    if (projectIds.size() == 0) {
+      throw new IllegalArgumentException("No projects to download");
+    }
+    resp.setStatus(HttpServletResponse.SC_OK);
+    resp.setHeader("content-disposition", "attachment; filename=\"" + zipName + "\"");
+    resp.setContentType(StorageUtil.getContentTypeForFilePath(zipName));
+    ServletOutputStream out = resp.getOutputStream();
+    fileExporter.exportProjectsSourceZip(userId, projectIds, out);
+    out.close();
+  }
 }
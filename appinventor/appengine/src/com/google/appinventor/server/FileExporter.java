@@ -10,6 +10,7 @@ import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -58,6 +59,31 @@ public interface FileExporter {
     boolean includeScreenShots,
     boolean fatalError, boolean forGallery) throws IOException;
 
+  /**
+   * Exports the project source files as a zip written to the given stream.
+   * Files are copied to the stream as they are read, so memory use does not
+   * depend on the size of the project. The stream is not closed.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param fatalError set to true to cause missing GCS file to throw exception
+   * @param destination the stream the zip is written to
+   * @return the number of zipped files
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files)
+   * @throws IOException if files cannot be written
+   */
+  int exportProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean fatalError, boolean forGallery,
+    OutputStream destination) throws IOException;
+
   /**
    * Exports projects selected by the user as a zip of zips.
    *
@@ -83,6 +109,23 @@ public interface FileExporter {
    */
   ProjectSourceZip exportAllProjectsSourceZip(String userId, String zipName) throws IOException;
 
+  /**
+   * Exports the given projects' source files as a zip of zips written to the
+   * given stream. Several projects are exported at once and each project's zip
+   * is written as soon as it and the ones before it are ready, so memory use
+   * does not depend on the number of projects. The stream is not closed.
+   *
+   * @param userId the userId
+   * @param projectIds the ids of the projects to export
+   * @param destination the stream the zip is written to
+   * @return the number of files in the zip
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no projects)
+   * @throws IOException if files cannot be written
+   */
+  int exportProjectsSourceZip(String userId, List<Long> projectIds, OutputStream destination)
+      throws IOException;
+
   /**
    * Exports a specific project file.
    *
@@ -6,7 +6,10 @@
 
 package com.google.appinventor.server;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.server.storage.ObjectifyStorageIo;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
@@ -17,8 +20,20 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -30,6 +45,16 @@ import javax.annotation.Nullable;
  */
 public final class FileExporterImpl implements FileExporter {
 
+  // The number of projects exported at once by the multi-project exports.
+  // Each of them also reads up to export.fetch.concurrency files at once.
+  private static final Flag<Integer> exportProjectConcurrency =
+      Flag.createFlag("export.project.concurrency", 4);
+
+  // Progress of a multi-project export is logged every this many projects.
+  private static final int PROGRESS_INTERVAL = 25;
+
+  private static final Logger LOG = Logger.getLogger(FileExporterImpl.class.getName());
+
   private final StorageIo storageIo = StorageIoInstanceHolder.getInstance();
 
   @Override
@@ -77,118 +102,148 @@ public final class FileExporterImpl implements FileExporter {
   }
 
   @Override
-  public ProjectSourceZip exportSelectedProjectsSourceZip(String userId,
-      String zipName, List<Long> projectIds) throws IOException {
-      // Create a zip file for each project's sources.
-    if (projectIds.size() == 0) {
-      throw new IllegalArgumentException("No projects to download");
+  public int exportProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean fatalError,
+    boolean forGallery,
+    OutputStream destination) throws IOException {
+    // Stream project source files as a zip.
+    if (storageIo instanceof ObjectifyStorageIo) {
+      return ((ObjectifyStorageIo)storageIo).exportProjectSourceZip(userId, projectId,
+        includeProjectHistory, includeAndroidKeystore, includeYail, includeScreenShots,
+        forGallery, fatalError, destination);
+    } else {
+      throw new IllegalArgumentException("Objectify only");
     }
+  }
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    ZipOutputStream out = new ZipOutputStream(zipFile);
-    int count = 0;
-    String metadata = "";
-    for (Long projectId : projectIds) {
-      try {
-        ProjectSourceZip projectSourceZip =
-            exportProjectSourceZip(userId, projectId, false, false, null, false, false, false, false);
-        byte[] data = projectSourceZip.getContent();
-        String name = projectSourceZip.getFileName();
-
-        // If necessary, renae duplicate projects
-        while (true) {
-          try {
-            out.putNextEntry(new ZipEntry(name));
-            break;
-          } catch (IOException e) {
-            name = "duplicate-" + name;
-          }
-        }
-        metadata += projectSourceZip.getMetadata() + "\n";
-
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        count++;
-      } catch (IllegalArgumentException e) {
-        System.err.println("No files found for userid: " + userId +
-            " for projectid: " + projectId);
-      } catch (IOException e) {
-        System.err.println("IOException while reading files found for userid: " +
-            userId + " for projectid: " + projectId);
-        continue;
-      }
-    }
-    if (count == 0) {
-      throw new IllegalArgumentException("No files to download");
-    }
+  @Override
+  public ProjectSourceZip exportSelectedProjectsSourceZip(String userId,
+      String zipName, List<Long> projectIds) throws IOException {
+    return exportProjectsSourceZip(userId, zipName, projectIds);
+  }
 
-    List<String> userFiles = storageIo.getUserFiles(userId);
-    if (userFiles.contains(StorageUtil.ANDROID_KEYSTORE_FILENAME)) {
-      byte[] androidKeystoreBytes =
-          storageIo.downloadRawUserFile(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
-      if (androidKeystoreBytes.length > 0) {
-        out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-        out.write(androidKeystoreBytes, 0, androidKeystoreBytes.length);
-        out.closeEntry();
-        count++;
-      }
-    }
+  @Override
+  public ProjectSourceZip exportAllProjectsSourceZip(String userId,
+      String zipName) throws IOException {
+    return exportProjectsSourceZip(userId, zipName, storageIo.getProjects(userId));
+  }
 
-    out.close();
+  /*
+   * Builds the zip of zips in memory, for callers that need it as a
+   * ProjectSourceZip.
+   */
+  private ProjectSourceZip exportProjectsSourceZip(String userId, String zipName,
+      List<Long> projectIds) throws IOException {
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    StringBuilder metadata = new StringBuilder();
+    int count = writeProjectsSourceZip(userId, projectIds, zipFile, metadata);
 
     // Package the big zip file up as a ProjectSourceZip and return it.
     byte[] content = zipFile.toByteArray();
     ProjectSourceZip projectSourceZip = new ProjectSourceZip(zipName, content, count);
-    projectSourceZip.setMetadata(metadata);
+    projectSourceZip.setMetadata(metadata.toString());
     return projectSourceZip;
   }
 
   @Override
-  public ProjectSourceZip exportAllProjectsSourceZip(String userId,
-      String zipName) throws IOException {
-    // Create a zip file for each project's sources.
-    List<Long> projectIds = storageIo.getProjects(userId);
+  public int exportProjectsSourceZip(String userId, List<Long> projectIds,
+      OutputStream destination) throws IOException {
+    return writeProjectsSourceZip(userId, projectIds, destination, null);
+  }
+
+  /*
+   * Writes a zip containing a zip of each project's sources, followed by the
+   * user's keystore, to the destination. Up to exportProjectConcurrency
+   * projects are exported at once, while the finished ones are written in
+   * order, so at most that many project zips are held in memory.
+   */
+  private int writeProjectsSourceZip(final String userId, List<Long> projectIds,
+      OutputStream destination, @Nullable StringBuilder metadata) throws IOException {
     if (projectIds.size() == 0) {
       throw new IllegalArgumentException("No projects to download");
     }
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    ZipOutputStream out = new ZipOutputStream(zipFile);
+    int concurrency = Math.max(1, exportProjectConcurrency.get());
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+        ThreadManager.currentRequestThreadFactory());
+    ZipOutputStream out = new ZipOutputStream(destination);
+    Set<String> names = new HashSet<String>();
     int count = 0;
-    String metadata = "";
-    for (Long projectId : projectIds) {
-      try {
-        // Note: We never include Yail files when exporting all source projects
-        // even for Admins. If you are an admin and want to debug a project, download
-        // it explicitly.
-        ProjectSourceZip projectSourceZip =
-          exportProjectSourceZip(userId, projectId, false, false, null, false, false, false, false);
-        byte[] data = projectSourceZip.getContent();
-        String name = projectSourceZip.getFileName();
+    int done = 0;
+    long start = System.currentTimeMillis();
+    try {
+      ArrayDeque<Future<ProjectSourceZip>> pending = new ArrayDeque<Future<ProjectSourceZip>>();
+      Iterator<Long> toExport = projectIds.iterator();
+      for (Long projectId : projectIds) {
+        // Keep the export window full.
+        while (pending.size() < concurrency && toExport.hasNext()) {
+          final long next = toExport.next();
+          pending.add(executor.submit(new Callable<ProjectSourceZip>() {
+            @Override
+            public ProjectSourceZip call() throws IOException {
+              // Note: We never include Yail files when exporting several projects
+              // even for Admins. If you are an admin and want to debug a project,
+              // download it explicitly.
+              return exportProjectSourceZip(userId, next, false, false, null, false, false,
+                  false, false);
+            }
+          }));
+        }
+        ProjectSourceZip projectSourceZip;
+        try {
+          projectSourceZip = pending.remove().get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while exporting projects for userid: " + userId);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IllegalArgumentException) {
+            System.err.println("No files found for userid: " + userId +
+                " for projectid: " + projectId);
+            continue;
+          } else if (e.getCause() instanceof IOException) {
+            System.err.println("IOException while reading files found for userid: " +
+                userId + " for projectid: " + projectId);
+            continue;
+          }
+          Throwables.propagateIfPossible(e.getCause());
+          throw new RuntimeException(e.getCause());
+        } finally {
+          done++;
+          if (done % PROGRESS_INTERVAL == 0) {
+            LOG.info("Exported " + done + " of " + projectIds.size() + " projects for userid: "
+                + userId + " in " + (System.currentTimeMillis() - start) + " ms");
+          }
+        }
 
         // If necessary, rename duplicate projects
-        while (true) {
-          try {
-            out.putNextEntry(new ZipEntry(name));
-            break;
-          } catch (IOException e) {
-            name = "duplicate-" + name;
-          }
+        String name = projectSourceZip.getFileName();
+        while (!names.add(name)) {
+          name = "duplicate-" + name;
+        }
+        if (metadata != null) {
+          metadata.append(projectSourceZip.getMetadata()).append('\n');
         }
-        metadata += projectSourceZip.getMetadata() + "\n";
 
+        // The project zips are compressed already, so store them as they are.
+        byte[] data = projectSourceZip.getContent();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
         out.write(data, 0, data.length);
         out.closeEntry();
         count++;
-      } catch (IllegalArgumentException e) {
-        System.err.println("No files found for userid: " + userId +
-            " for projectid: " + projectId);
-        continue;
-      } catch (IOException e) {
-        System.err.println("IOException while reading files found for userid: " +
-            userId + " for projectid: " + projectId);
-        continue;
       }
+    } finally {
+      executor.shutdownNow();
     }
     if (count == 0) {
       throw new IllegalArgumentException("No files to download");
@@ -206,13 +261,11 @@ public final class FileExporterImpl implements FileExporter {
       }
     }
 
-    out.close();
-
-    // Package the big zip file up as a ProjectSourceZip and return it.
-    byte[] content = zipFile.toByteArray();
-    ProjectSourceZip projectSourceZip = new ProjectSourceZip(zipName, content, count);
-    projectSourceZip.setMetadata(metadata);
-    return projectSourceZip;
+    // Finish rather than close the zip so the caller's stream stays open.
+    out.finish();
+    LOG.info("Exported " + count + " files from " + projectIds.size() + " projects for userid: "
+        + userId + " in " + (System.currentTimeMillis() - start) + " ms");
+    return count;
   }
 
   @Override
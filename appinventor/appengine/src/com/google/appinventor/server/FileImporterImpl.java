@@ -23,13 +23,17 @@ import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -47,7 +51,12 @@ import javax.annotation.Nullable;
 public final class FileImporterImpl implements FileImporter {
 
   // Maximum size of an uploaded asset, in megabytes.
-  private static final Flag<Float> maxAssetSizeMegs = Flag.createFlag("max.asset.size.megs", 9f);
+  static final Flag<Float> maxAssetSizeMegs = Flag.createFlag("max.asset.size.megs", 9f);
+
+  // Entries in this folder, and other entries larger than
+  // STREAMING_THRESHOLD_BYTES, are streamed to storage during an import.
+  private static final String ASSETS_FOLDER = "assets/";
+  private static final int STREAMING_THRESHOLD_BYTES = 64 * 1024;
 
   private static final Logger LOG = Logger.getLogger(FileImporterImpl.class.getName());
 
@@ -77,6 +86,11 @@ public final class FileImporterImpl implements FileImporter {
         storageIo.getUser(userId).getUserEmail(), projectName);
     String srcDirectory = YoungAndroidProjectService.getSourceDirectory(qualifiedFormName);
 
+    int maxAssetSizeBytes = (int) (maxAssetSizeMegs.get() * 1024 * 1024);
+
+    // Content of large entries is streamed into temporary files rather than
+    // held in memory. They are moved into the project once it has been created.
+    Map<String, String> tempFiles = new LinkedHashMap<String, String>();
     ZipInputStream zin = new ZipInputStream(uploadedFileStream);
     boolean isProjectArchive = false;  // have we found at least one project properties file?
     try {
@@ -128,32 +142,83 @@ public final class FileImporterImpl implements FileImporter {
               fileName = srcDirectory + '/' + StorageUtil.basename(fileName);
             }
 
-            // Get the file content from the ZipEntry.
-            ByteArrayOutputStream contentStream = new ByteArrayOutputStream();
-            ByteStreams.copy(zin, contentStream);
-
-            project.addRawFile(new RawFile(fileName, contentStream.toByteArray()));
+            if (entry.getSize() > maxAssetSizeBytes) {
+              throw new FileImporterException(UploadResponse.Status.FILE_TOO_LARGE);
+            }
+            // Read at most one byte more than allowed, so that we can tell when an entry
+            // without a declared size is too large without reading all of it.
+            InputStream limited = ByteStreams.limit(zin, maxAssetSizeBytes + 1L);
+            if (fileName.startsWith(ASSETS_FOLDER) || entry.getSize() > STREAMING_THRESHOLD_BYTES) {
+              CountingInputStream counted = new CountingInputStream(limited);
+              tempFiles.put(fileName, storageIo.uploadTempFile(counted));
+              if (counted.getCount() > maxAssetSizeBytes) {
+                throw new FileImporterException(UploadResponse.Status.FILE_TOO_LARGE);
+              }
+            } else {
+              project.addRawFile(new RawFile(fileName, readEntry(limited, entry.getSize(),
+                  maxAssetSizeBytes)));
+            }
           }
         }
       }
+
+      if (!isProjectArchive) {
+        // The uploaded file seems to be a valid zip file, but it doesn't contain the project
+        // properties file.
+        throw new FileImporterException(UploadResponse.Status.NOT_PROJECT_ARCHIVE);
+      }
+
+      // Set project history if provided
+      if (projectHistory != null) {
+        project.setProjectHistory(projectHistory);
+      }
+      String settings = YoungAndroidProjectService.getProjectSettings(null, null, null, null, null,
+          null, null, null, null, null, null, null, null, null);
+      long projectId = storageIo.createProject(userId, project, settings);
+      try {
+        Iterator<Map.Entry<String, String>> it = tempFiles.entrySet().iterator();
+        while (it.hasNext()) {
+          Map.Entry<String, String> tempFile = it.next();
+          storageIo.moveTempFileToProject(userId, projectId, tempFile.getKey(),
+              tempFile.getValue());
+          it.remove();
+        }
+      } catch (IOException | RuntimeException e) {
+        // Don't leave a project that is missing some of its assets behind
+        storageIo.deleteProject(userId, projectId);
+        throw e;
+      }
+      return storageIo.getUserProject(userId, projectId);
     } finally {
       zin.close();
+      for (String tempFileName : tempFiles.values()) {
+        try {
+          storageIo.deleteTempFile(tempFileName);
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Unable to delete " + tempFileName + " after failed import", e);
+        }
+      }
     }
+  }
 
-    if (!isProjectArchive) {
-      // The uploaded file seems to be a valid zip file, but it doesn't contain the project
-      // properties file.
-      throw new FileImporterException(UploadResponse.Status.NOT_PROJECT_ARCHIVE);
+  /**
+   * Reads the content of a zip entry that is small enough to keep in memory.
+   * When the zip entry declares its size the content is read straight into
+   * an array of that size, avoiding the copies made by a growing buffer.
+   */
+  private static byte[] readEntry(InputStream in, long size, int maxSizeBytes)
+      throws FileImporterException, IOException {
+    byte[] content;
+    if (size >= 0) {
+      content = new byte[(int) size];
+      ByteStreams.readFully(in, content);
+    } else {
+      content = ByteStreams.toByteArray(in);
     }
-
-    // Set project history if provided
-    if (projectHistory != null) {
-      project.setProjectHistory(projectHistory);
+    if (content.length > maxSizeBytes) {
+      throw new FileImporterException(UploadResponse.Status.FILE_TOO_LARGE);
     }
-    String settings = YoungAndroidProjectService.getProjectSettings(null, null, null, null, null,
-        null, null, null, null, null, null, null, null, null);
-    long projectId = storageIo.createProject(userId, project, settings);
-    return storageIo.getUserProject(userId, projectId);
+    return content;
   }
 
   @VisibleForTesting
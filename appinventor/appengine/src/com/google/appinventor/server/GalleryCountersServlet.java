@@ -0,0 +1,51 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * GalleryCountersServlet -- Maintain the gallery counters
+ *
+ * The gallery keeps running totals, such as the number of active
+ * apps, instead of counting entities on every listing page, and
+ * collects downloads and likes in separate counters instead of
+ * writing the app on every download. This Servlet is called
+ * periodically by the cron service (see cron.xml): with job=fold it
+ * adds the collected downloads and likes to the apps, otherwise it
+ * recounts the totals to correct any drift. It is restricted to admin
+ * users only; the cron service operates with admin privileges, so it
+ * can always call it.
+ *
+ */
+public class GalleryCountersServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(GalleryCountersServlet.class.getName());
+  private final transient GalleryStorageIo galleryStorageIo =
+      GalleryStorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    int result;
+    if ("fold".equals(req.getParameter("job"))) {
+      result = galleryStorageIo.foldGalleryAppCounters();
+      LOG.info("Folded download and like counters of " + result + " gallery apps");
+    } else {
+      result = galleryStorageIo.reconcileGalleryCounters();
+      LOG.info("Reconciled gallery counters, active apps: " + result);
+    }
+    resp.setContentType("text/plain; charset=utf-8");
+    resp.getWriter().println(result);
+  }
+}
@@ -0,0 +1,41 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
+
+/**
+ * A search index over gallery apps, used by {@link GallerySearchIndex}.
+ *
+ */
+interface GallerySearchBackend {
+
+  /**
+   * Adds the app to the index, replacing any earlier entry for it.
+   *
+   * @param app gallery app
+   */
+  void indexApp(GalleryApp app);
+
+  /**
+   * Removes the app from the index.
+   *
+   * @param galleryId gallery id
+   */
+  void unIndexApp(long galleryId);
+
+  /**
+   * Returns a page of the apps matching the search words, and the total
+   * number of matches.
+   *
+   * @param searchWords search words
+   * @param start start index
+   * @param count count number
+   * @return GalleryAppListResult gallery applist result
+   */
+  GalleryAppListResult find(String searchWords, int start, int count);
+}
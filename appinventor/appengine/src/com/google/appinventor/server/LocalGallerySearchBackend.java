@@ -0,0 +1,324 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link GallerySearchBackend} holding an inverted index of the gallery apps
+ * in memory. Along with the terms, the index keeps the {@link GalleryApp} each
+ * entry was built from, so a page of results needs no datastore reads.
+ *
+ * <p>The index is built from the datastore when it is first used and rebuilt
+ * every refresh interval. A build reads the apps a page at a time, and each
+ * search reads pages for at most the build slice before it is answered, so
+ * no single request pays for the whole build. Searches use the previous
+ * index until the new one is complete; before the first build completes
+ * they see the apps read so far.
+ *
+ * <p>In between builds the index is kept current by {@link #indexApp} and
+ * {@link #unIndexApp}, which only reach the instance that handles the
+ * change; other instances pick it up at their next rebuild. Changes made
+ * while a build is under way are applied again to the new index when it
+ * replaces the old one, so the build's older copy of an app doesn't undo
+ * them.
+ *
+ * <p>A query matches the apps that contain all of its words, in the title,
+ * developer name or description, the fields the App Engine backend indexes.
+ * Matches are ranked by the fields the words were found in and then by the
+ * date the app was last updated. Counts such as likes and downloads are
+ * those at the time the app was indexed.
+ *
+ */
+final class LocalGallerySearchBackend implements GallerySearchBackend {
+
+  private static final Logger LOG = Logger.getLogger(LocalGallerySearchBackend.class.getName());
+
+  // Weights of the fields an app is indexed by
+  private static final int TITLE_WEIGHT = 4;
+  private static final int DEVELOPER_WEIGHT = 2;
+  private static final int DESCRIPTION_WEIGHT = 1;
+
+  // Number of apps read from the datastore at once while building the index
+  private static final int BUILD_PAGE_SIZE = 500;
+
+  private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  /*
+   * The index itself. Replaced as a whole when the index is rebuilt.
+   */
+  private static class Index {
+    // term -> gallery id -> score of the term in that app
+    final Map<String, Map<Long, Integer>> postings = new HashMap<String, Map<Long, Integer>>();
+    // gallery id -> the app as it was indexed
+    final Map<Long, GalleryApp> apps = new HashMap<Long, GalleryApp>();
+    // gallery id -> terms of that app, so that it can be removed
+    final Map<Long, Set<String>> terms = new HashMap<Long, Set<String>>();
+
+    void add(GalleryApp app) {
+      remove(app.getGalleryAppId());
+      Map<String, Integer> scores = new HashMap<String, Integer>();
+      addTerms(scores, app.getTitle(), TITLE_WEIGHT);
+      addTerms(scores, app.getDeveloperName(), DEVELOPER_WEIGHT);
+      addTerms(scores, app.getDescription(), DESCRIPTION_WEIGHT);
+      long galleryId = app.getGalleryAppId();
+      for (Map.Entry<String, Integer> score : scores.entrySet()) {
+        Map<Long, Integer> posting = postings.get(score.getKey());
+        if (posting == null) {
+          posting = new HashMap<Long, Integer>();
+          postings.put(score.getKey(), posting);
+        }
+        posting.put(galleryId, score.getValue());
+      }
+      apps.put(galleryId, app);
+      terms.put(galleryId, scores.keySet());
+    }
+
+    void remove(long galleryId) {
+      Set<String> appTerms = terms.remove(galleryId);
+      if (appTerms == null) {
+        return;
+      }
+      for (String term : appTerms) {
+        Map<Long, Integer> posting = postings.get(term);
+        posting.remove(galleryId);
+        if (posting.isEmpty()) {
+          postings.remove(term);
+        }
+      }
+      apps.remove(galleryId);
+    }
+  }
+
+  @Nullable private final GalleryStorageIo galleryStorageIo;
+  private final long refreshMillis;
+  private final long buildSliceMillis;
+
+  // Guarded by this
+  private Index index = new Index();
+  private long builtAt = 0;
+  // The index being built, and the cursor of its next page, or null
+  private Index building = null;
+  private String buildCursor = null;
+  // Whether a search is reading pages for the build
+  private boolean reading = false;
+  // Apps indexed (or, if null, unindexed) while the build is under way
+  private final Map<Long, GalleryApp> changedWhileBuilding = new HashMap<Long, GalleryApp>();
+
+  /**
+   * Creates an index that is built from the gallery apps in storage.
+   *
+   * @param galleryStorageIo the storage the index is built from, or null to
+   *     start empty and only hold the apps that are indexed explicitly
+   * @param refreshMillis how often the index is rebuilt, or 0 to never
+   *     rebuild it after it has been built once
+   * @param buildSliceMillis how long a search reads pages for the build
+   *     before it is answered; at least one page is read
+   */
+  @VisibleForTesting
+  LocalGallerySearchBackend(@Nullable GalleryStorageIo galleryStorageIo, long refreshMillis,
+      long buildSliceMillis) {
+    this.galleryStorageIo = galleryStorageIo;
+    this.refreshMillis = refreshMillis;
+    this.buildSliceMillis = buildSliceMillis;
+  }
+
+  @Override
+  public void indexApp(GalleryApp app) {
+    synchronized (this) {
+      index.add(app);
+      if (building != null) {
+        building.add(app);
+        changedWhileBuilding.put(app.getGalleryAppId(), app);
+      }
+    }
+  }
+
+  @Override
+  public void unIndexApp(long galleryId) {
+    synchronized (this) {
+      index.remove(galleryId);
+      if (building != null) {
+        building.remove(galleryId);
+        changedWhileBuilding.put(galleryId, null);
+      }
+    }
+  }
+
+  @Override
+  public GalleryAppListResult find(String searchWords, int start, int count) {
+    continueBuild();
+    Set<String> words = tokenize(searchWords);
+    List<GalleryApp> page = new ArrayList<GalleryApp>();
+    if (words.isEmpty()) {
+      return new GalleryAppListResult(page, 0, searchWords);
+    }
+
+    final Map<Long, Integer> scores = new HashMap<Long, Integer>();
+    final Map<Long, GalleryApp> matches = new HashMap<Long, GalleryApp>();
+    synchronized (this) {
+      Index searched = builtAt == 0 && building != null ? building : index;
+      // Start from the rarest word, so the candidate set is as small as possible
+      List<Map<Long, Integer>> postings = new ArrayList<Map<Long, Integer>>();
+      for (String word : words) {
+        Map<Long, Integer> posting = searched.postings.get(word);
+        if (posting == null) {
+          return new GalleryAppListResult(page, 0, searchWords);
+        }
+        postings.add(posting);
+      }
+      Collections.sort(postings, new Comparator<Map<Long, Integer>>() {
+        @Override
+        public int compare(Map<Long, Integer> a, Map<Long, Integer> b) {
+          return Integer.compare(a.size(), b.size());
+        }
+      });
+      candidates:
+      for (Map.Entry<Long, Integer> candidate : postings.get(0).entrySet()) {
+        int score = candidate.getValue();
+        for (int i = 1; i < postings.size(); i++) {
+          Integer termScore = postings.get(i).get(candidate.getKey());
+          if (termScore == null) {
+            continue candidates;
+          }
+          score += termScore;
+        }
+        scores.put(candidate.getKey(), score);
+        matches.put(candidate.getKey(), searched.apps.get(candidate.getKey()));
+      }
+    }
+
+    List<GalleryApp> ranked = new ArrayList<GalleryApp>(matches.values());
+    Collections.sort(ranked, new Comparator<GalleryApp>() {
+      @Override
+      public int compare(GalleryApp a, GalleryApp b) {
+        int byScore = Integer.compare(scores.get(b.getGalleryAppId()),
+            scores.get(a.getGalleryAppId()));
+        if (byScore != 0) {
+          return byScore;
+        }
+        int byDate = Long.compare(b.getUpdateDate(), a.getUpdateDate());
+        if (byDate != 0) {
+          return byDate;
+        }
+        return Long.compare(b.getGalleryAppId(), a.getGalleryAppId());
+      }
+    });
+    int end = Math.min(ranked.size(), start + count);
+    if (start < end) {
+      page.addAll(ranked.subList(start, end));
+    }
+    return new GalleryAppListResult(page, ranked.size(), searchWords);
+  }
+
+  /*
+   * Starts a build if the index has not been built yet or is older than the
+   * refresh interval, and reads pages for the build under way for up to the
+   * build slice. Only one search reads pages at a time; the others go on
+   * without waiting. When the last page has been read, the changes made
+   * during the build are applied to the new index and it replaces the old
+   * one. If reading a page fails, the next search carries on from it.
+   */
+  private void continueBuild() {
+    if (galleryStorageIo == null) {
+      return;
+    }
+    String cursor;
+    synchronized (this) {
+      if (reading) {
+        return;
+      }
+      if (building == null) {
+        long now = System.currentTimeMillis();
+        boolean stale = builtAt == 0 || (refreshMillis > 0 && now - builtAt > refreshMillis);
+        if (!stale) {
+          return;
+        }
+        building = new Index();
+        buildCursor = null;
+        changedWhileBuilding.clear();
+      }
+      reading = true;
+      cursor = buildCursor;
+    }
+
+    long deadline = System.currentTimeMillis() + buildSliceMillis;
+    boolean done = false;
+    try {
+      do {
+        List<GalleryApp> apps = new ArrayList<GalleryApp>(BUILD_PAGE_SIZE);
+        cursor = galleryStorageIo.getActiveGalleryApps(cursor, BUILD_PAGE_SIZE, apps);
+        synchronized (this) {
+          for (GalleryApp app : apps) {
+            building.add(app);
+          }
+          buildCursor = cursor;
+        }
+        done = cursor == null;
+      } while (!done && System.currentTimeMillis() < deadline);
+    } finally {
+      synchronized (this) {
+        reading = false;
+        if (done) {
+          for (Map.Entry<Long, GalleryApp> change : changedWhileBuilding.entrySet()) {
+            if (change.getValue() == null) {
+              building.remove(change.getKey());
+            } else {
+              building.add(change.getValue());
+            }
+          }
+          changedWhileBuilding.clear();
+          index = building;
+          building = null;
+          builtAt = System.currentTimeMillis();
+          LOG.info("Indexed " + index.apps.size() + " gallery apps with "
+              + index.postings.size() + " terms");
+        }
+      }
+    }
+  }
+
+  private static void addTerms(Map<String, Integer> scores, String text, int weight) {
+    for (String term : tokenize(text)) {
+      Integer score = scores.get(term);
+      scores.put(term, score == null ? weight : score + weight);
+    }
+  }
+
+  /*
+   * Splits text into lower case words.
+   */
+  @VisibleForTesting
+  static Set<String> tokenize(String text) {
+    Set<String> words = new LinkedHashSet<String>();
+    if (text == null) {
+      return words;
+    }
+    for (String word : NON_WORD.split(text.toLowerCase(Locale.ENGLISH))) {
+      if (!word.isEmpty()) {
+        words.add(word);
+      }
+    }
+    return words;
+  }
+}
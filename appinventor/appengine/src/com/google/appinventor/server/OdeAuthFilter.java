@@ -18,10 +18,16 @@ import com.google.appinventor.shared.rpc.ServerLayout;
 import com.google.appinventor.shared.rpc.user.User;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -70,6 +76,44 @@ public class OdeAuthFilter implements Filter {
   private final LocalUser localUser = LocalUser.getInstance();
   private static final boolean DEBUG = Flag.createFlag("appinventor.debugging", false).get();
 
+  // The time source of the caches below. Tests replace it to expire entries.
+  @VisibleForTesting
+  static volatile Ticker cacheTicker = Ticker.systemTicker();
+
+  private static final Ticker CACHE_TICKER = new Ticker() {
+    @Override
+    public long read() {
+      return cacheTicker.read();
+    }
+  };
+
+  // Decrypted authentication cookies, keyed by the raw cookie value, so that
+  // the RPCs of an editor session don't each decrypt the same cookie. The
+  // cookie's timestamp is still checked on every request. A cookie's
+  // contents never change, and the session key is only replaced by a
+  // deploy, which starts new instances with empty caches.
+  private static final Cache<String, CookieAuth.cookie> cookieCache = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .expireAfterWrite(Flag.createFlag("session.cache.seconds", 300).get(), TimeUnit.SECONDS)
+      .ticker(CACHE_TICKER)
+      .recordStats()
+      .build();
+
+  // Whitelist decisions, keyed by lowercased email address. The whitelist
+  // is edited directly in the datastore, outside of App Inventor, so an
+  // address added to or removed from it takes effect on each instance after
+  // at most whitelist.cache.seconds.
+  private static final Cache<String, Boolean> whitelistCache = CacheBuilder.newBuilder()
+      .maximumSize(10000)
+      .expireAfterWrite(Flag.createFlag("whitelist.cache.seconds", 60).get(), TimeUnit.SECONDS)
+      .ticker(CACHE_TICKER)
+      .recordStats()
+      .build();
+
+  // Cache hit rates are logged every this many cookie lookups.
+  private static final int CACHE_STATS_INTERVAL = 10000;
+  private static final AtomicLong cookieLookups = new AtomicLong();
+
   /**
    * Filters using Google Accounts
    */
@@ -194,7 +238,28 @@ public class OdeAuthFilter implements Filter {
   @VisibleForTesting
   boolean isUserWhitelisted() {
     //return whitelist.isInWhitelist(localUser);
-    return storageIo.checkWhiteList(localUser.getUserEmail());
+    return isWhitelisted(localUser.getUserEmail());
+  }
+
+  @VisibleForTesting
+  boolean isWhitelisted(String userEmail) {
+    String email = userEmail.toLowerCase();
+    Boolean whitelisted = whitelistCache.getIfPresent(email);
+    if (whitelisted == null) {
+      whitelisted = storageIo.checkWhiteList(email);
+      whitelistCache.put(email, whitelisted);
+    }
+    return whitelisted;
+  }
+
+  private static void logCacheStats() {
+    if (cookieLookups.incrementAndGet() % CACHE_STATS_INTERVAL == 0) {
+      CacheStats cookieStats = cookieCache.stats();
+      CacheStats whitelistStats = whitelistCache.stats();
+      LOG.info("Auth cache hit rates: cookies " + cookieStats.hitRate()
+          + " (" + cookieStats.requestCount() + " requests), whitelist "
+          + whitelistStats.hitRate() + " (" + whitelistStats.requestCount() + " requests)");
+    }
   }
 
   @VisibleForTesting
@@ -349,9 +414,14 @@ public class OdeAuthFilter implements Filter {
             if (DEBUG) {
               LOG.info("getUserInfo: rawCookie = " + rawData);
             }
-            Crypter crypter = getCrypter();
-            CookieAuth.cookie cookieToken = CookieAuth.cookie.parseFrom(
-              crypter.decrypt(Base64Coder.decode(rawData)));
+            CookieAuth.cookie cookieToken = cookieCache.getIfPresent(rawData);
+            if (cookieToken == null) {
+              Crypter crypter = getCrypter();
+              cookieToken = CookieAuth.cookie.parseFrom(
+                crypter.decrypt(Base64Coder.decode(rawData)));
+              cookieCache.put(rawData, cookieToken);
+            }
+            logCacheStats();
             UserInfo uInfo = new UserInfo();
             uInfo.userId = cookieToken.getUuid();
             uInfo.ts = cookieToken.getTs();
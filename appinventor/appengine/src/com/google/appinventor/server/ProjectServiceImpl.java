@@ -23,6 +23,8 @@ import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
+import com.google.appinventor.shared.rpc.project.FilePatch;
+import com.google.appinventor.shared.rpc.project.FilePatchException;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.ProjectService;
@@ -31,6 +33,7 @@ import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 import com.google.appinventor.shared.util.Base64Util;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -42,7 +45,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -441,12 +446,26 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   public List<FileDescriptorWithContent> load(List<FileDescriptor> files) {
     List<FileDescriptorWithContent> result = Lists.newArrayList();
     final String userId = userInfoProvider.getUserId();
+    // Load the files of each project with one batch
+    Map<Long, List<String>> fileIdsByProject = Maps.newLinkedHashMap();
+    for (FileDescriptor file : files) {
+      List<String> fileIds = fileIdsByProject.get(file.getProjectId());
+      if (fileIds == null) {
+        fileIds = Lists.newArrayList();
+        fileIdsByProject.put(file.getProjectId(), fileIds);
+      }
+      fileIds.add(file.getFileId());
+    }
+    Map<Long, Iterator<String>> contentsByProject = Maps.newHashMap();
+    for (Map.Entry<Long, List<String>> entry : fileIdsByProject.entrySet()) {
+      long projectId = entry.getKey();
+      contentsByProject.put(projectId, getProjectRpcImpl(userId, projectId)
+          .load(userId, projectId, entry.getValue()).iterator());
+    }
     for (FileDescriptor file : files) {
       long projectId = file.getProjectId();
-      String fileId = file.getFileId();
-      result.add(new FileDescriptorWithContent(
-          projectId, fileId,
-          getProjectRpcImpl(userId, projectId).load(userId, projectId, fileId)));
+      result.add(new FileDescriptorWithContent(projectId, file.getFileId(),
+          contentsByProject.get(projectId).next()));
     }
     return result;
   }
@@ -495,6 +514,23 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
         content);
   }
 
+  /**
+   * Saves a change to the file associated with a node in the project tree.
+   *
+   * @param sessionId session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param patch  change from the file's saved content
+   * @return modification date for project
+   */
+  @Override
+  public long savePatch(String sessionId, long projectId, String fileId, FilePatch patch)
+      throws InvalidSessionException, BlocksTruncatedException, FilePatchException {
+    validateSessionId(sessionId);
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).savePatch(userId, projectId, fileId, patch);
+  }
+
   /**
    * Saves the contents of multiple files.
    *
@@ -508,11 +544,26 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
       BlocksTruncatedException {
     validateSessionId(sessionId);
     final String userId = userInfoProvider.getUserId();
-    long date = 0;
+    // Save the files of each project with one batch
+    Map<Long, Map<String, String>> contentsByProject = Maps.newLinkedHashMap();
     for (FileDescriptorWithContent fileAndContent : filesAndContent) {
-     long projectId = fileAndContent.getProjectId();
-     date = getProjectRpcImpl(userId, projectId).
-         save(userId, projectId, fileAndContent.getFileId(), fileAndContent.getContent());
+      Map<String, String> contents = contentsByProject.get(fileAndContent.getProjectId());
+      if (contents == null) {
+        contents = Maps.newLinkedHashMap();
+        contentsByProject.put(fileAndContent.getProjectId(), contents);
+      }
+      contents.put(fileAndContent.getFileId(), fileAndContent.getContent());
+    }
+    long date = 0;
+    long lastProjectId = filesAndContent.isEmpty() ? 0
+        : filesAndContent.get(filesAndContent.size() - 1).getProjectId();
+    for (Map.Entry<Long, Map<String, String>> entry : contentsByProject.entrySet()) {
+      long projectId = entry.getKey();
+      long projectDate = getProjectRpcImpl(userId, projectId).
+          save(userId, projectId, entry.getValue());
+      if (projectId == lastProjectId) {
+        date = projectDate;
+      }
     }
     return date;
   }
@@ -561,6 +612,23 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
       userInfoProvider.getUser(), projectId, target);
   }
 
+  /**
+   * Waits for the build of the project to make progress and returns its result.
+   *
+   * @param projectId  project ID
+   * @param target  build target (optional, implementation dependent)
+   * @param lastProgress  the progress last received, or -1 to return at once
+   *
+   * @return  results of build, as for {@link #getBuildResult}
+   */
+  @Override
+  public RpcResult waitForBuildResult(long projectId, String target, int lastProgress) {
+    // Dispatch
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).waitForBuildResult(
+      userInfoProvider.getUser(), projectId, target, lastProgress);
+  }
+
   /*
    * Write the serialized response out to stdout. This is a very unusual thing
    * to do, but it allows us to create a static file version of the response
@@ -704,6 +772,13 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
     if (sessionId.equals("force")) { // If we are forcing our way -- no check
       return;
     }
+    if (!storedSessionId.equals(sessionId)) {
+      // This server may have cached the user before a more recent login
+      // through another server, so check again with a fresh copy
+      String userId = userInfoProvider.getUserId();
+      storageIo.flushUserCache(userId);
+      storedSessionId = storageIo.getUser(userId).getSessionId();
+    }
     if (!storedSessionId.equals(sessionId))
       if (AppInventorFeatures.requireOneLogin()) {
         throw new InvalidSessionException("A more recent login has occurred since we started. No further changes will be saved.");
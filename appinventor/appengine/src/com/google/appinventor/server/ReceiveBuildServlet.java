@@ -60,6 +60,9 @@ public class ReceiveBuildServlet extends OdeServlet {
 
     // Set the user in the OdeFilter, which is used everywhere as the UserInfoProvider.
     odeFilter.setUserFromUserId(userId, false, false);
+    // Write the project's modification date once for all the output files
+    storageIo.beginModDateBatch();
+    boolean receivedOutput = false;
     try {
       String buildFileDirPath = uriComponents[4];
       ZipInputStream zipInputStream = new ZipInputStream(req.getInputStream());
@@ -77,17 +80,22 @@ public class ReceiveBuildServlet extends OdeServlet {
         } else if (fileName.equals("build.status")) {
           int progress = Integer.parseInt((new String(fileBytes)).trim());
           LOG.info("Received a build.status file contents = " + progress);
-          storageIo.storeBuildStatus(userId, projectId, progress);
+          BuildStatusRegistry.update(userId, projectId, progress);
         } else {
           String filePath = buildFileDirPath + "/" + fileName;
           LOG.info("Saving build output files: " + filePath);
           storageIo.addOutputFilesToProject(userId, projectId, filePath);
           storageIo.uploadRawFileForce(projectId, filePath, userId, fileBytes);
-          storageIo.storeBuildStatus(userId, projectId, 0); // Reset for the next build
+          receivedOutput = true;
         }
       }
     } finally {
+      storageIo.endModDateBatch();
       odeFilter.removeUser();
     }
+    if (receivedOutput) {
+      // Tell clients waiting for the build that its result is stored
+      BuildStatusRegistry.update(userId, projectId, BuildStatusRegistry.BUILD_FINISHED);
+    }
   }
 }
@@ -11,6 +11,8 @@ import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.RpcResult;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
+import com.google.appinventor.shared.rpc.project.FilePatch;
+import com.google.appinventor.shared.rpc.project.FilePatchException;
 import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.TextFile;
@@ -24,6 +26,7 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The base class for classes that provide project services for a specific
@@ -183,6 +186,19 @@ public abstract class CommonProjectService {
     return storageIo.downloadFile(userId, projectId, fileId, StorageUtil.DEFAULT_CHARSET);
   }
 
+  /**
+   * Loads the contents of several files of a project at once.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  the file contents, in the order of fileIds
+   */
+  public List<String> load(String userId, long projectId, List<String> fileIds) {
+    return storageIo.downloadFiles(userId, projectId, fileIds, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Loads the file information associated with a node in the project tree. The
    * actual return value depends on the file kind. Source (text) files should
@@ -244,6 +260,18 @@ public abstract class CommonProjectService {
     return Base64Util.encodeLines(filedata);
   }
 
+  /**
+   * Saves the contents of several files of a project at once.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param contents  contents to be saved, keyed by project node
+   * @return modification date for project
+   */
+  public long save(String userId, long projectId, Map<String, String> contents) {
+    return storageIo.uploadFilesForce(projectId, userId, contents, StorageUtil.DEFAULT_CHARSET);
+  }
+
   /**
    * Saves the content of the file associated with a node in the project tree.
    * This is a backwards compatible version that always sets force to true
@@ -293,6 +321,25 @@ public abstract class CommonProjectService {
     }
   }
 
+  /**
+   * Saves a change to the file associated with a node in the project tree.
+   * The patch is applied to the saved content, which is usually in memcache
+   * since it was just written, and the result is saved as with save2.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileId  project node whose source should be saved
+   * @param patch  change from the file's saved content
+   * @return modification date for project
+   *
+   * @see com.google.appinventor.shared.rpc.project.ProjectService#savePatch(String, long, String, FilePatch)
+   */
+  public long savePatch(String userId, long projectId, String fileId, FilePatch patch)
+      throws BlocksTruncatedException, FilePatchException {
+    String base = storageIo.downloadFile(userId, projectId, fileId, StorageUtil.DEFAULT_CHARSET);
+    return save2(userId, projectId, fileId, false, patch.apply(base));
+  }
+
   /**
    * Saves a screenshot of a current blocks editor. This is called from the client side
    * whenever the user leaves a blocks editor. The data is shipped to us in base64 encoding
@@ -341,6 +388,22 @@ public abstract class CommonProjectService {
    */
   public abstract RpcResult getBuildResult(User user, long projectId, String target);
 
+  /**
+   * Waits for the build of the project to progress beyond what the client
+   * already knows about and returns the result as {@link #getBuildResult}
+   * does. This implementation does not wait.
+   *
+   * @param user the User that owns the {@code projectId}.
+   * @param projectId  project id being built
+   * @param target  build target (optional, implementation dependent)
+   * @param lastProgress  the progress the client last received, or -1
+   * @return  build results, as for {@link #getBuildResult}
+   */
+  public RpcResult waitForBuildResult(User user, long projectId, String target,
+      int lastProgress) {
+    return getBuildResult(user, projectId, target);
+  }
+
   public TextFile importMedia(String userId, long projectId, String urlString, boolean save) throws IOException {
     InputStream is = null;
     try {
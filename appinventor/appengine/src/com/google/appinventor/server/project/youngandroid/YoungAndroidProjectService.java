@@ -11,6 +11,7 @@ import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
 import com.google.appinventor.common.version.GitBuildId;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.server.BuildStatusRegistry;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.FileExporter;
 import com.google.appinventor.server.FileExporterImpl;
@@ -28,7 +29,6 @@ import com.google.appinventor.shared.rpc.project.NewProjectParameters;
 import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.youngandroid.NewYoungAndroidProjectParameters;
@@ -58,9 +58,11 @@ import org.json.JSONObject;
 
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
@@ -88,6 +90,16 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   private static final Flag<Boolean> sendGitVersion =
     Flag.createFlag("build.send.git.version", true);
 
+  // The longest time, in seconds, a client's request for the build result is
+  // held open waiting for the build to make progress.
+  private static final Flag<Integer> buildWaitSeconds =
+      Flag.createFlag("build.wait.seconds", 20);
+
+  // Whether builds requested by admins are started ahead of other builds
+  // waiting in the build server's queue.
+  private static final Flag<Boolean> adminBuildPriority =
+      Flag.createFlag("build.admin.priority", true);
+
   private static final Flag<Integer> MAX_PROJECT_SIZE =
       Flag.createFlag("project.maxsize", 30);
   private static final String ERROR_LARGE_PROJECT =
@@ -599,20 +611,26 @@ public final class YoungAndroidProjectService extends CommonProjectService {
           !sourceFiles.contains(blocklyFileName) &&
           !sourceFiles.contains(yailFileName)) {
 
-        String formFileContents = getInitialFormPropertiesFileContents(qualifiedFormName);
-        storageIo.addSourceFilesToProject(userId, projectId, false, formFileName);
-        storageIo.uploadFileForce(projectId, formFileName, userId, formFileContents,
-            StorageUtil.DEFAULT_CHARSET);
-
-        String blocklyFileContents = getInitialBlocklySourceFileContents(qualifiedFormName);
-        storageIo.addSourceFilesToProject(userId, projectId, false, blocklyFileName);
-        storageIo.uploadFileForce(projectId, blocklyFileName, userId, blocklyFileContents,
-            StorageUtil.DEFAULT_CHARSET);
-
-        String yailFileContents = "";  // start empty
-        storageIo.addSourceFilesToProject(userId, projectId, false, yailFileName);
-        return storageIo.uploadFileForce(projectId, yailFileName, userId, yailFileContents,
-            StorageUtil.DEFAULT_CHARSET);
+        // Write the project's modification date once for the three files
+        storageIo.beginModDateBatch();
+        try {
+          String formFileContents = getInitialFormPropertiesFileContents(qualifiedFormName);
+          storageIo.addSourceFilesToProject(userId, projectId, false, formFileName);
+          storageIo.uploadFileForce(projectId, formFileName, userId, formFileContents,
+              StorageUtil.DEFAULT_CHARSET);
+
+          String blocklyFileContents = getInitialBlocklySourceFileContents(qualifiedFormName);
+          storageIo.addSourceFilesToProject(userId, projectId, false, blocklyFileName);
+          storageIo.uploadFileForce(projectId, blocklyFileName, userId, blocklyFileContents,
+              StorageUtil.DEFAULT_CHARSET);
+
+          String yailFileContents = "";  // start empty
+          storageIo.addSourceFilesToProject(userId, projectId, false, yailFileName);
+          return storageIo.uploadFileForce(projectId, yailFileName, userId, yailFileContents,
+              StorageUtil.DEFAULT_CHARSET);
+        } finally {
+          storageIo.endModDateBatch();
+        }
       } else {
         throw new IllegalStateException("One or more files to be added already exists.");
       }
@@ -688,38 +706,41 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     for (String buildOutputFile : buildOutputFiles) {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
+    BuildStatusRegistry.update(userId, projectId, 0);
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    HttpURLConnection connection = null;
+    SizeLimitedOutputStream zipOutput = null;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
           user.getUserEmail(),
           userId,
           projectId,
           secondBuildserver,
+          adminBuildPriority.get() && user.getIsAdmin(),
           outputFileDir));
-      HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
+      connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
+      // The zip is written to the connection as its files are read, so its
+      // length isn't known up front.
+      connection.setChunkedStreamingMode(0);
 
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
-      FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-        projectName + ".aia", true, false, true, false);
-      // The code below tests the size of the compressed project before
-      // we send it off to the buildserver. When using URLFetch we know that
+      // The stream below limits the size of the compressed project as it is
+      // sent off to the buildserver. When using URLFetch we know that
       // this size is limited to 10MB based on Google's documentation.
       // It isn't clear if this is also enforced in the Java 8 environment
       // when not using URLFetch. However we are being conservative for now.
       // Keep in mind that large projects can lead to large APK files which
       // may not be loadable into many memory restricted devices, so we
       // may not want to encourage large projects...
-      if (zipFile.getContent().length > MAX_PROJECT_SIZE.get() * MB) {
-        return fileTooBigResult(zipFile.getContent().length);
-      }
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
+      zipOutput = new SizeLimitedOutputStream(
+          new BufferedOutputStream(connection.getOutputStream()),
+          (long) MAX_PROJECT_SIZE.get() * MB);
+      FileExporter fileExporter = new FileExporterImpl();
+      fileExporter.exportProjectSourceZip(userId, projectId, false,
+          /* includeAndroidKeystore */ true, true, false, true, false, zipOutput);
+      zipOutput.flush();
+      zipOutput.close();
 
       int responseCode = 0;
       responseCode = connection.getResponseCode();
@@ -772,8 +793,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       return new RpcResult(false, "", e.getMessage());
     } catch (IOException e) {
       // As of App Engine 1.9.0 we get these when UrlFetch is asked to send too much data
-      int zipFileLength = zipFile == null ? -1 : zipFile.getContent().length;
-      if (zipFileLength >= MAX_PROJECT_SIZE.get() * MB) {
+      long zipFileLength = zipOutput == null ? -1 : zipOutput.getCount();
+      if (zipFileLength >= (long) MAX_PROJECT_SIZE.get() * MB) {
+        // Drop the connection so the buildserver never sees a complete request.
+        connection.disconnect();
         return fileTooBigResult(zipFileLength);
       } else {
         return new RpcResult(false, "", e.getMessage());
@@ -786,9 +809,9 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
-        if (zipFileLength >= MAX_PROJECT_SIZE.get() * MB) {
+      if (e instanceof ApiProxy.RequestTooLargeException && zipOutput != null) {
+        long zipFileLength = zipOutput.getCount();
+        if (zipFileLength >= (long) MAX_PROJECT_SIZE.get() * MB) {
           return fileTooBigResult(zipFileLength);
         } else {
           wrappedException = new IllegalArgumentException(
@@ -815,7 +838,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // a little more complicated when we want to get the URL from an App Engine config file or
   // command line argument.
   private String getBuildServerUrlStr(String userName, String userId,
-    long projectId, boolean secondBuildserver, String fileName)
+    long projectId, boolean secondBuildserver, boolean priority, String fileName)
       throws UnsupportedEncodingException, EncryptionException {
     return "http://" + (secondBuildserver ? buildServerHost2.get() : buildServerHost.get()) +
       "/buildserver/build-all-from-zip-async"
@@ -824,6 +847,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         ? "&gitBuildVersion="
         + URLEncoder.encode(GitBuildId.getVersion(), "UTF-8")
         : "")
+      + (priority ? "&priority=true" : "")
       + "&callback="
       + URLEncoder.encode("http://" + getCurrentHost() + ServerLayout.ODE_BASEURL_NOAUTH
         + ServerLayout.RECEIVE_BUILD_SERVLET + "/"
@@ -847,6 +871,44 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     }
   }
 
+  /**
+   * An output stream that counts the bytes written to it and fails once the
+   * count exceeds a limit, so an oversized project is detected while it is
+   * being sent rather than after it has been built in memory.
+   */
+  private static class SizeLimitedOutputStream extends FilterOutputStream {
+    private final long limit;
+    private long count = 0;
+
+    SizeLimitedOutputStream(OutputStream out, long limit) {
+      super(out);
+      this.limit = limit;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      count(1);
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      count(len);
+      out.write(b, off, len);
+    }
+
+    private void count(int len) throws IOException {
+      count += len;
+      if (count > limit) {
+        throw new IOException("Project is larger than " + limit + " bytes");
+      }
+    }
+
+    long getCount() {
+      return count;
+    }
+  }
+
   /*
    * Reads the UTF-8 content from the given input stream.
    */
@@ -901,6 +963,32 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     return buildResult;
   }
 
+  /**
+   * Waits for the build of the given user's project to make progress and
+   * returns its result, which is described at {@link #getBuildResult}.
+   * Returns at once if the progress already differs from {@code lastProgress},
+   * and otherwise when it changes or after {@code build.wait.seconds}.
+   * Storage is only searched for the build result once the build server has
+   * reported it or the wait times out, rather than on every call.
+   *
+   * @param user the User that owns the {@code projectId}.
+   * @param projectId  project id being built
+   * @param target  build target (optional, implementation dependent)
+   * @param lastProgress  the progress the client last received, or -1
+   */
+  @Override
+  public RpcResult waitForBuildResult(User user, long projectId, String target,
+      int lastProgress) {
+    int progress = BuildStatusRegistry.awaitChange(user.getUserId(), projectId, lastProgress,
+        buildWaitSeconds.get() * 1000L);
+    if (progress == lastProgress || progress == BuildStatusRegistry.BUILD_FINISHED) {
+      // Either the build is done or we have not heard from it for a while, in
+      // which case the progress may have been evicted from memcache.
+      return getBuildResult(user, projectId, target);
+    }
+    return new RpcResult(-1, Integer.toString(progress), ""); // Build not finished
+  }
+
   /**
    * Check if there are any build progress available for the given user's project
    *
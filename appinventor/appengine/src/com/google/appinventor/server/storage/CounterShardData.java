@@ -0,0 +1,19 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+/**
+ * One shard of a {@link ShardedCounter}. Each shard is the root of its own
+ * entity group, so updates to different shards never contend.
+ *
+ */
+public class CounterShardData {
+  @Id String id;    // <counter name>:<shard index>
+  String name;      // counter name, so that counters can be found by prefix
+  long count;
+}
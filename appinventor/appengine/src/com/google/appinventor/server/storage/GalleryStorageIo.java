@@ -37,6 +37,26 @@ public interface GalleryStorageIo {
    */
   GalleryApp getGalleryApp(long galleryId);
 
+  /**
+   * Returns several gallery apps, read with a single batch get
+   * @param galleryIds ids of the gallery apps you want
+   * @return the {@link GalleryApp}s in the order of galleryIds, leaving out
+   *     the ids that are not in the database
+   */
+  List<GalleryApp> getGalleryApps(List<Long> galleryIds);
+
+  /**
+   * Reads a page of the active gallery apps, for going through all of them.
+   * Pages are continued with a query cursor, so a page costs the same however
+   * far into the apps it starts. The apps are in no particular order.
+   * @param cursor the cursor returned for the previous page, or null for the
+   *     first page
+   * @param count number of apps you want
+   * @param apps the list the apps are added to
+   * @return the cursor for the next page, or null if this was the last page
+   */
+  String getActiveGalleryApps(String cursor, int count, List<GalleryApp> apps);
+
   /**
    * creates a new gallery app
    * @param title title of new app
@@ -48,6 +68,23 @@ public interface GalleryStorageIo {
    */
   GalleryApp createGalleryApp(String title, String projectName, String description, String moreInfo, String credit, long projectId, String userId);
 
+  /**
+   * Recounts the gallery totals that are maintained as counters, such as the
+   * number of active apps, and corrects the counters if they have drifted.
+   * This is run periodically by {@link com.google.appinventor.server.GalleryCountersServlet}.
+   * @return the number of active gallery apps
+   */
+  int reconcileGalleryCounters();
+
+  /**
+   * Adds the downloads and likes recorded since the last call to the
+   * GalleryApps' totals. Until then they are kept in separate counters, so
+   * that popular apps aren't written on every download.
+   * This is run periodically by {@link com.google.appinventor.server.GalleryCountersServlet}.
+   * @return the number of gallery apps updated
+   */
+  int foldGalleryAppCounters();
+
   /**
    * updates gallery app
    * @param galleryId id of app being updated
@@ -7,12 +7,19 @@
 package com.google.appinventor.server.storage;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.GalleryEmail;
 import com.google.appinventor.server.GallerySearchIndex;
@@ -31,7 +38,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyOpts;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Query;
 
 /**
  * Implements the GalleryStorageIo interface using Objectify as the underlying data
@@ -87,8 +96,28 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     ObjectifyService.register(GalleryAppAttributionData.class);
     ObjectifyService.register(GalleryAppReportData.class);
     ObjectifyService.register(GalleryModerationActionData.class);
+    ObjectifyService.register(CounterShardData.class);
   }
 
+  // The number of active gallery apps, shown as the total on the gallery listing pages.
+  // It is updated along with the apps, so the pages don't have to count them.
+  private final ShardedCounter activeApps = new ShardedCounter("gallery.activeApps", 5);
+
+  // Whether the active app counter is known to have been set. Once it has,
+  // it stays set, so the marker is only read until it is found.
+  private volatile boolean activeAppsSet = false;
+
+  // How many times reconcileGalleryCounters counts the apps when they change
+  // during the count.
+  private static final int MAX_RECOUNTS = 3;
+
+  // Downloads and likes are added to per-app counters and folded into the
+  // GalleryAppData entity by foldGalleryAppCounters, so that a popular app
+  // doesn't need a write to its entity for every download.
+  private static final String DOWNLOADS_COUNTER = "gallery.downloads.";
+  private static final String LIKES_COUNTER = "gallery.likes.";
+  private static final int APP_COUNTER_SHARDS = 5;
+
   // we'll need to talk to the StorageIo to get developer names, so...
   private final transient StorageIo storageIo =
       StorageIoInstanceHolder.getInstance();
@@ -114,7 +143,6 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
-          datastore = ObjectifyService.begin();
           long date = System.currentTimeMillis();
           GalleryAppData appData = new GalleryAppData();
           appData.id = null;  // let Objectify auto-generate the project id
@@ -143,8 +171,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           // written in this job, reading the assigned id from pd should work.
 
           Key<GalleryAppData> galleryKey = galleryKey(appData.id);
+          activeApps.add(datastore, 1);
         }
-      });
+      }, true);
 
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
@@ -165,6 +194,119 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     int num = datastore.query(GalleryAppData.class).count();
     return num;
   }
+
+  /**
+   * Returns the number of active GalleryApps, as maintained by the active
+   * app counter. The counter is set by counting the apps the first time it
+   * is needed.
+   * @return number of active GalleryApps
+   */
+  private int getNumActiveGalleryApps() {
+    if (!activeAppsSet) {
+      if (!activeApps.isSet()) {
+        return reconcileGalleryCounters();
+      }
+      activeAppsSet = true;
+    }
+    Long num = activeApps.getCount(true);
+    return num == null ? 0 : num.intValue();
+  }
+
+  /**
+   * Folds the download and like counts waiting in the per-app counters into
+   * their GalleryAppData entities. Each app is updated in its own
+   * transaction; an app that can't be updated keeps its counts for the next
+   * run.
+   * @return number of GalleryApps updated
+   */
+  @Override
+  public int foldGalleryAppCounters() {
+    Set<Long> galleryIds = new TreeSet<Long>();
+    for (String name : ShardedCounter.findCounters(DOWNLOADS_COUNTER)) {
+      galleryIds.add(Long.parseLong(name.substring(DOWNLOADS_COUNTER.length())));
+    }
+    for (String name : ShardedCounter.findCounters(LIKES_COUNTER)) {
+      galleryIds.add(Long.parseLong(name.substring(LIKES_COUNTER.length())));
+    }
+    int folded = 0;
+    for (final long galleryId : galleryIds) {
+      try {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            int downloads = (int) downloadsCounter(galleryId).drain(datastore);
+            int likes = (int) likesCounter(galleryId).drain(datastore);
+            GalleryAppData appData = datastore.find(galleryKey(galleryId));
+            if (appData != null) {
+              appData.numDownloads = appData.numDownloads + downloads;
+              appData.unreadDownloads = appData.unreadDownloads + downloads;
+              appData.numLikes = Math.max(0, appData.numLikes + likes);
+              appData.unreadLikes = Math.max(0, appData.unreadLikes + likes);
+              datastore.put(appData);
+            }
+          }
+        }, true);
+        folded++;
+      } catch (ObjectifyException e) {
+        LOG.log(Level.WARNING, "Couldn't fold counters of gallery app " + galleryId, e);
+      }
+    }
+    return folded;
+  }
+
+  private ShardedCounter downloadsCounter(long galleryId) {
+    return new ShardedCounter(DOWNLOADS_COUNTER + galleryId, APP_COUNTER_SHARDS);
+  }
+
+  private ShardedCounter likesCounter(long galleryId) {
+    return new ShardedCounter(LIKES_COUNTER + galleryId, APP_COUNTER_SHARDS);
+  }
+
+  /**
+   * Recounts the active GalleryApps and sets the active app counter to the
+   * count. The count query can't run in a transaction, so the counter is
+   * read before counting and again in the transaction that sets it. If an
+   * app was published or deactivated in between, the count may or may not
+   * include it, so the apps are counted again. Two requests setting the
+   * counter at once conflict on the shards, and the one that retries sees
+   * the other's change and counts again.
+   * @return number of active GalleryApps
+   */
+  @Override
+  public int reconcileGalleryCounters() {
+    for (int attempt = 1; attempt <= MAX_RECOUNTS; attempt++) {
+      Long counted = activeApps.getCount(false);
+      final long before = counted == null ? 0 : counted;
+      final int actual = ObjectifyService.begin().query(GalleryAppData.class)
+          .filter("active", true).count();
+      final Result<Boolean> changed = new Result<Boolean>();
+      try {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            changed.t = activeApps.sum(datastore) != before;
+            if (!changed.t) {
+              long delta = activeApps.set(datastore, actual);
+              if (delta != 0) {
+                LOG.info("Correcting active gallery app count by " + delta + " to " + actual);
+              }
+            }
+          }
+        }, true);
+      } catch (ObjectifyException e) {
+        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.reconcileGalleryCounters", e);
+      }
+      if (!changed.t) {
+        activeAppsSet = true;
+        return actual;
+      }
+    }
+    // Leave the counter as it is until the next reconciliation.
+    LOG.warning("Gallery apps kept changing while they were counted");
+    Long num = activeApps.getCount(false);
+    return num == null ? 0 : num.intValue();
+  }
+
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
@@ -175,18 +317,17 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public GalleryAppListResult getRecentGalleryApps(int start, final int count) {
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    final List<GalleryAppData> appDatas = new ArrayList<GalleryAppData>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
     for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
+      appDatas.add(appData);
     }
-    int totalCount = datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    apps.addAll(makeGalleryApps(appDatas));
+    return new GalleryAppListResult(apps, getNumActiveGalleryApps());
   }
   /**
    * Returns a wrapped class which contains a list of most downloaded
@@ -198,18 +339,17 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public GalleryAppListResult getMostDownloadedApps(int start, final int count) {
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    final List<GalleryAppData> appDatas = new ArrayList<GalleryAppData>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
     for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
+      appDatas.add(appData);
     }
-    int totalCount = datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    apps.addAll(makeGalleryApps(appDatas));
+    return new GalleryAppListResult(apps, getNumActiveGalleryApps());
   }
 
   /**
@@ -222,6 +362,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public GalleryAppListResult getMostLikedApps(int start, final int count) {
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    final List<GalleryAppData> appDatas = new ArrayList<GalleryAppData>();
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed
@@ -232,17 +373,10 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
            .order("-numLikes")
            .order("-numDownloads")
            .offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
+      appDatas.add(appData);
     }
-
-    // The line below is a PROBLEM. It is *very expensive*
-    // We either need to keep separate track of the number of apps in the
-    // Gallery, or we need to cache this value somewhere so we are
-    // not computing it all the time!
-    int totalCount = datastore.query(GalleryAppData.class).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    apps.addAll(makeGalleryApps(appDatas));
+    return new GalleryAppListResult(apps, getNumActiveGalleryApps());
 
   }
 
@@ -254,14 +388,12 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   public GalleryAppListResult getFeaturedApp(int start, int count){
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    final List<Long> galleryIds = new ArrayList<Long>();
     Objectify datastore = ObjectifyService.begin();
     for (GalleryAppFeatureData appFeatureData:datastore.query(GalleryAppFeatureData.class).offset(start).limit(count)) {
-      Long galleryId = appFeatureData.galleryKey.getId();
-      GalleryApp gApp = new GalleryApp();
-      GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-      makeGalleryApp(galleryAppData, gApp);
-      apps.add(gApp);
+      galleryIds.add(appFeatureData.galleryKey.getId());
     }
+    apps.addAll(getGalleryApps(galleryIds));
 
     int totalCount = datastore.query(GalleryAppFeatureData.class).count();
     return new GalleryAppListResult(apps, totalCount);
@@ -275,14 +407,12 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   public GalleryAppListResult getTutorialApp(int start, int count){
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    final List<Long> galleryIds = new ArrayList<Long>();
     Objectify datastore = ObjectifyService.begin();
     for (GalleryAppTutorialData appTutorialData:datastore.query(GalleryAppTutorialData.class).offset(start).limit(count)) {
-      Long galleryId = appTutorialData.galleryKey.getId();
-      GalleryApp gApp = new GalleryApp();
-      GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-      makeGalleryApp(galleryAppData, gApp);
-      apps.add(gApp);
+      galleryIds.add(appTutorialData.galleryKey.getId());
     }
+    apps.addAll(getGalleryApps(galleryIds));
 
     int totalCount = datastore.query(GalleryAppTutorialData.class).count();
     return new GalleryAppListResult(apps, totalCount);
@@ -382,16 +512,16 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */  @Override
   public GalleryAppListResult getDeveloperApps(String userId, int start, final int count) {
     final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    final List<GalleryAppData> appDatas = new ArrayList<GalleryAppData>();
     // if i try to run this in runjobwithretries it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so i grabbed
 
     Objectify datastore = ObjectifyService.begin();
     for (GalleryAppData appData:datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
+      appDatas.add(appData);
     }
+    apps.addAll(makeGalleryApps(appDatas));
     int totalCount = datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).count();
     return new GalleryAppListResult(apps, totalCount);
   }
@@ -407,12 +537,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            galleryAppData.numDownloads = galleryAppData.numDownloads + 1;
-            galleryAppData.unreadDownloads = galleryAppData.unreadDownloads + 1;
-            datastore.put(galleryAppData);
-          }
+          downloadsCounter(galleryId).add(datastore, 1);
         }
       });
     } catch (ObjectifyException e) {
@@ -479,6 +604,48 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     return (gApp);
   }
 
+  /**
+   * Returns several gallery apps, read with a single batch get
+   * @param galleryIds ids of the gallery apps you want
+   * @return the {@link GalleryApp}s in the order of galleryIds, leaving out
+   *     the ids that are not in the database
+   */
+  @Override
+  public List<GalleryApp> getGalleryApps(List<Long> galleryIds) {
+    if (galleryIds.isEmpty()) {
+      return new ArrayList<GalleryApp>();
+    }
+    List<Key<GalleryAppData>> keys = new ArrayList<Key<GalleryAppData>>(galleryIds.size());
+    for (long galleryId : galleryIds) {
+      keys.add(galleryKey(galleryId));
+    }
+    Map<Key<GalleryAppData>, GalleryAppData> found = ObjectifyService.begin().get(keys);
+    List<GalleryAppData> appDatas = new ArrayList<GalleryAppData>(found.size());
+    for (Key<GalleryAppData> key : keys) {
+      GalleryAppData appData = found.get(key);
+      if (appData != null) {
+        appDatas.add(appData);
+      }
+    }
+    return makeGalleryApps(appDatas);
+  }
+
+  @Override
+  public String getActiveGalleryApps(String cursor, int count, List<GalleryApp> apps) {
+    Query<GalleryAppData> query = ObjectifyService.begin().query(GalleryAppData.class)
+        .filter("active", true).limit(count);
+    if (cursor != null) {
+      query.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    List<GalleryAppData> appDatas = new ArrayList<GalleryAppData>(count);
+    QueryResultIterator<GalleryAppData> iterator = query.iterator();
+    while (iterator.hasNext()) {
+      appDatas.add(iterator.next());
+    }
+    apps.addAll(makeGalleryApps(appDatas));
+    return appDatas.size() < count ? null : iterator.getCursor().toWebSafeString();
+  }
+
   /**
    * deletes an app
    * @param galleryId the id of gallery app to be deleted
@@ -519,11 +686,14 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             // delete the GalleryApp
             GalleryAppData appData = datastore.find(galleryKey(galleryId));
             if(appData != null){
+              if (appData.active) {
+                activeApps.add(datastore, -1);
+              }
               appData.active = false;
               datastore.put(appData);
             }
           }
-        });
+        }, true);
        } catch (ObjectifyException e) {
         throw CrashReport.createAndLogError(LOG, null,"gallery remove error", e);
       }
@@ -631,12 +801,10 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
 
             // Increase app's like/unread like count
-            galleryAppData.numLikes = galleryAppData.numLikes + 1;
-            galleryAppData.unreadLikes = galleryAppData.unreadLikes + 1;
-            datastore.put(galleryAppData);
+            likesCounter(galleryId).add(datastore, 1);
           }
         }
-      });
+      }, true);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.increaseLike", e);
     }
@@ -660,9 +828,11 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
           if (galleryAppData != null) {
             Key<GalleryAppData> galleryKey = galleryKey(galleryId);
+            boolean liked = false;
             for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
               if(likeData.userId.equals(userId)){
                 datastore.delete(likeData);
+                liked = true;
                 // break;
                 // We don't break because there might be more then one likeData object for this
                 // person
@@ -670,18 +840,13 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
             }
             numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
 
-            // Increase app's like/unread like count
-            if(galleryAppData.numLikes > 0){
-              galleryAppData.numLikes = galleryAppData.numLikes - 1;
-            }
-
-            if (galleryAppData.unreadLikes > 0) {
-              galleryAppData.unreadLikes = galleryAppData.unreadLikes - 1;
-              datastore.put(galleryAppData);
+            // Decrease app's like/unread like count
+            if (liked) {
+              likesCounter(galleryId).add(datastore, -1);
             }
           }
         }
-      });
+      }, true);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.decreaseLike", e);
@@ -705,7 +870,8 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           Key<GalleryAppData> galleryKey = galleryKey(galleryId);
           //num.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
           GalleryAppData galleryAppData = datastore.find(galleryKey);
-          num.t = galleryAppData.numLikes;
+          Long pending = likesCounter(galleryId).getCount(true);
+          num.t = galleryAppData.numLikes + (pending == null ? 0 : pending.intValue());
         }
       });
     } catch (ObjectifyException e) {
@@ -780,11 +946,13 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
 
           num = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
           GalleryAppData galleryAppData = datastore.find(galleryKey);
+          // The likes were just counted, so any waiting like updates are already included
+          likesCounter(galleryId).drain(datastore);
           galleryAppData.numLikes = num;
           datastore.put(galleryAppData);
           LOG.info("salvage on gallerId:" + galleryId + ", total likes:" + galleryAppData.numLikes);
         }
-      });
+      }, true);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.salvageGalleryApp", e);
@@ -866,24 +1034,16 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return the list of children Gallery Apps
    */
   public List<GalleryApp> remixedTo(final long galleryId) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-              datastore = ObjectifyService.begin();
-              for (GalleryAppAttributionData attributionData:datastore.query(GalleryAppAttributionData.class).filter("attributionId",galleryId)) {
-                GalleryAppData galleryAppData = datastore.find(galleryKey(attributionData.galleryId));
-                if(!galleryAppData.active) continue;
-                GalleryApp gApp = new GalleryApp();
-                makeGalleryApp(galleryAppData, gApp);
-                apps.add(gApp);
-              }
-        }
-      });
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          "error in galleryStorageIo.saveAttribution", e);
+    List<Long> galleryIds = new ArrayList<Long>();
+    Objectify datastore = ObjectifyService.begin();
+    for (GalleryAppAttributionData attributionData : datastore.query(GalleryAppAttributionData.class).filter("attributionId", galleryId)) {
+      galleryIds.add(attributionData.galleryId);
+    }
+    List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    for (GalleryApp app : getGalleryApps(galleryIds)) {
+      if (app.getActive()) {
+        apps.add(app);
+      }
     }
     return apps;
   }
@@ -1091,13 +1251,13 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-            datastore = ObjectifyService.begin();
             success.t = false;
             Key<GalleryAppData> galleryKey = galleryKey(galleryId);
             GalleryAppData appData = datastore.find(galleryKey);
             if(appData != null){
               appData.active = !appData.active;
               datastore.put(appData);
+              activeApps.add(datastore, appData.active ? 1 : -1);
               success.t = true;
               if(appData.active){
                 GalleryApp gApp = new GalleryApp();
@@ -1108,7 +1268,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
               }
             }
          }
-      });
+      }, true);
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.markReportAsResolved", e);
     }
@@ -1293,16 +1453,59 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    *
    */
   private void makeGalleryApp(GalleryAppData appData, GalleryApp galleryApp) {
+    Map<String, Long> pending = ShardedCounter.getCounts(
+        Arrays.asList(downloadsCounter(appData.id), likesCounter(appData.id)));
+    makeGalleryApp(appData, galleryApp, pending,
+        storageIo.getUser(appData.userId).getUserName());
+  }
+
+  /**
+   * Converts db objects GalleryAppData into shared GalleryApps, in the same
+   * order. The downloads and likes waiting in the per-app counters and the
+   * developers' names are read for all of the apps at once.
+   *
+   */
+  private List<GalleryApp> makeGalleryApps(List<GalleryAppData> appDatas) {
+    List<ShardedCounter> counters = new ArrayList<ShardedCounter>(2 * appDatas.size());
+    List<String> userIds = new ArrayList<String>(appDatas.size());
+    for (GalleryAppData appData : appDatas) {
+      counters.add(downloadsCounter(appData.id));
+      counters.add(likesCounter(appData.id));
+      userIds.add(appData.userId);
+    }
+    Map<String, Long> pending = ShardedCounter.getCounts(counters);
+    Map<String, String> developerNames = storageIo.getUserNames(userIds);
+    List<GalleryApp> apps = new ArrayList<GalleryApp>(appDatas.size());
+    for (GalleryAppData appData : appDatas) {
+      String developerName = developerNames.get(appData.userId);
+      if (developerName == null) {
+        // Not stored yet; getUser creates the user as it always has
+        developerName = storageIo.getUser(appData.userId).getUserName();
+      }
+      GalleryApp gApp = new GalleryApp();
+      makeGalleryApp(appData, gApp, pending, developerName);
+      apps.add(gApp);
+    }
+    return apps;
+  }
+
+  /*
+   * Fills in galleryApp from appData. The counts of downloads and likes
+   * include the values waiting in the app's counters, looked up by counter
+   * name in pending.
+   */
+  private void makeGalleryApp(GalleryAppData appData, GalleryApp galleryApp,
+      Map<String, Long> pending, String developerName) {
     galleryApp.setTitle(appData.title);
     galleryApp.setProjectName(appData.projectName);
     galleryApp.setGalleryAppId(appData.id);
     galleryApp.setProjectId(appData.projectId);
     galleryApp.setDescription(appData.description);
 
-    User developer = storageIo.getUser(appData.userId);
-    galleryApp.setDeveloperName(developer.getUserName());
+    galleryApp.setDeveloperName(developerName);
     galleryApp.setDeveloperId(appData.userId);
-    galleryApp.setDownloads(appData.numDownloads);
+    galleryApp.setDownloads(appData.numDownloads
+        + pendingCount(pending, DOWNLOADS_COUNTER + appData.id));
     galleryApp.setUnreadDownloads(appData.unreadDownloads);
     galleryApp.setUnreadLikes(appData.unreadLikes);
     galleryApp.setCreationDate(appData.dateCreated);
@@ -1311,7 +1514,12 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     galleryApp.setMoreInfo(appData.moreInfo);
     galleryApp.setCredit(appData.credit);
 
-    galleryApp.setLikes(getNumLikes(appData.id));
+    galleryApp.setLikes(appData.numLikes + pendingCount(pending, LIKES_COUNTER + appData.id));
+  }
+
+  private static int pendingCount(Map<String, Long> pending, String counterName) {
+    Long count = pending.get(counterName);
+    return count == null ? 0 : count.intValue();
   }
 
   private static String collectGalleryAppErrorInfo(final String galleryAppId) {
@@ -1428,9 +1636,24 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @VisibleForTesting
   void runJobWithRetries(JobRetryHelper job) throws ObjectifyException {
+    runJobWithRetries(job, false);
+  }
+
+  /**
+   * Runs a job in a transaction, retrying it on concurrency failures.
+   *
+   * @param job the job
+   * @param crossGroup whether the transaction may span several entity
+   *     groups, such as a gallery app and a counter shard
+   */
+  @VisibleForTesting
+  void runJobWithRetries(JobRetryHelper job, boolean crossGroup) throws ObjectifyException {
     int tries = 0;
     while (tries <= MAX_JOB_RETRIES) {
-      Objectify datastore = ObjectifyService.beginTransaction();
+      Objectify datastore = crossGroup
+          ? ObjectifyService.begin(new ObjectifyOpts().setBeginTransaction(true)
+              .setTransactionOptions(TransactionOptions.Builder.withXG(true)))
+          : ObjectifyService.beginTransaction();
       try {
         job.run(datastore);
         datastore.getTxn().commit();
@@ -6,6 +6,7 @@
 
 package com.google.appinventor.server.storage;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
 import com.google.appengine.api.appidentity.AppIdentityServiceFailureException;
@@ -56,6 +57,9 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
@@ -80,16 +84,33 @@ import com.google.appengine.tools.cloudstorage.RetryParams;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -134,6 +155,41 @@ public class ObjectifyStorageIo implements  StorageIo {
   private final boolean conversionEnabled = false; // We are converting GCS <=> Blobstore
   private static final boolean DEBUG = Flag.createFlag("appinventor.debugging", false).get();
 
+  // The number of files read from GCS or the Blobstore at once when exporting a project.
+  // 1 streams each file into the zip as it is read.
+  private final int exportFetchConcurrency =
+      Math.max(1, Flag.createFlag("export.fetch.concurrency", 8).get());
+
+  // Files read in parallel for an export are passed to the zip writer in
+  // chunks of this size, with at most this many chunks buffered per file.
+  private static final int EXPORT_CHUNK_SIZE = 64 * 1024;
+  private static final int EXPORT_CHUNKS_PER_FILE = 4;
+  private static final byte[] END_OF_FILE = new byte[0];
+
+  // Users are cached in two tiers: a small cache in this instance in front
+  // of memcache. getUser is called on every authenticated RPC, so the local
+  // tier saves a memcache round trip on most of them. A change made through
+  // another instance is seen here once the local copy expires.
+  private final Cache<String, User> localUserCache = CacheBuilder.newBuilder()
+      .maximumSize(Flag.createFlag("user.cache.local.size", 1000).get())
+      .expireAfterWrite(Flag.createFlag("user.cache.local.seconds", 10).get(), TimeUnit.SECONDS)
+      .recordStats()
+      .build();
+  private final AtomicLong memcacheUserHits = new AtomicLong();
+  private final AtomicLong datastoreUserLoads = new AtomicLong();
+
+  // Cache statistics are logged every this many getUser calls.
+  private static final int USER_CACHE_STATS_INTERVAL = 10000;
+
+  // Project modification dates deferred while this thread is in a batch
+  // (see beginModDateBatch), keyed by project ID. Each project's
+  // ProjectData is written once when the outermost batch ends.
+  private static final class ModDateBatch {
+    int depth;
+    final Map<Long, Long> modDates = new LinkedHashMap<Long, Long>();
+  }
+  private final ThreadLocal<ModDateBatch> modDateBatch = new ThreadLocal<ModDateBatch>();
+
   // Use this class to define the work of a job that can be
   // retried. The "datastore" argument to run() is the Objectify
   // object for this job (created with
@@ -248,19 +304,32 @@ public class ObjectifyStorageIo implements  StorageIo {
    */
   @Override
   public User getUser(final String userId, final String email) {
-    String cachekey = User.usercachekey + "|" + userId;
-    User tuser = (User) memcache.get(cachekey);
+    logUserCacheStats();
+    User tuser = localUserCache.getIfPresent(userId);
+    if (tuser == null) {
+      tuser = getMemcachedUser(userId);
+      if (tuser != null) {
+        memcacheUserHits.incrementAndGet();
+        localUserCache.put(userId, tuser);
+      }
+    }
     if (tuser != null && tuser.getUserTosAccepted() && ((email == null) || (tuser.getUserEmail().equals(email)))) {
       if (tuser.getUserName()==null) {
         setUserName(userId,tuser.getDefaultName());
         tuser.setUserName(tuser.getDefaultName());
       }
-      return tuser;
-    } else {                    // If not in memcache, or tos
+      // Callers modify the User they get (e.g. isAdmin, isReadOnly), so
+      // they each get their own copy
+      return copyUser(tuser);
+    } else {                    // If not cached, or tos
                                 // not yet accepted, fetch from datastore
         tuser = new User(userId, email, null, null, 0, false, false, 0, null);
     }
     final User user = tuser;
+    // Read the version before the datastore, so that the copy we cache is
+    // rejected if the user is changed while we read it
+    final long version = getUserVersion(userId);
+    datastoreUserLoads.incrementAndGet();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -324,7 +393,9 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
-    memcache.put(cachekey, user, Expiration.byDeltaSeconds(60)); // Remember for one minute
+    memcache.put(userCacheKey(userId), new VersionedUser(version, user),
+        Expiration.byDeltaSeconds(60)); // Remember for one minute
+    localUserCache.put(userId, copyUser(user));
     // The choice of one minute here is arbitrary. getUser() is called on every authenticated
     // RPC call to the system (out of OdeAuthFilter), so using memcache will save a significant
     // number of calls to the datastore. If someone is idle for more then a minute, it isn't
@@ -334,6 +405,81 @@ public class ObjectifyStorageIo implements  StorageIo {
     return user;
   }
 
+  private static String userCacheKey(String userId) {
+    return User.usercachekey + "|" + userId;
+  }
+
+  private static String userVersionKey(String userId) {
+    return User.usercachekey + "|version|" + userId;
+  }
+
+  // A User in memcache, stamped with the user's version when it was read
+  // from the datastore.
+  private static final class VersionedUser implements Serializable {
+    private static final long serialVersionUID = 1L;
+    final long version;
+    final User user;
+
+    VersionedUser(long version, User user) {
+      this.version = version;
+      this.user = user;
+    }
+  }
+
+  private long getUserVersion(String userId) {
+    Long version = (Long) memcache.get(userVersionKey(userId));
+    return version == null ? 0 : version;
+  }
+
+  /*
+   * Returns the user cached in memcache, or null if there is none or it
+   * has been changed since it was cached. The entry and the version are
+   * read with one call.
+   */
+  private User getMemcachedUser(String userId) {
+    Map<String, Object> cached = memcache.getAll(
+        Arrays.asList(userCacheKey(userId), userVersionKey(userId)));
+    Object entry = cached.get(userCacheKey(userId));
+    Long version = (Long) cached.get(userVersionKey(userId));
+    if (entry instanceof VersionedUser
+        && ((VersionedUser) entry).version == (version == null ? 0 : version)) {
+      return ((VersionedUser) entry).user;
+    }
+    return null;
+  }
+
+  /*
+   * Drops the cached copies of a user after it has been changed. Bumping
+   * the version also rejects a copy that a concurrent getUser read from the
+   * datastore before the change and caches after it. Other instances keep
+   * their local copy until it expires.
+   */
+  private void invalidateUser(String userId) {
+    localUserCache.invalidate(userId);
+    memcache.increment(userVersionKey(userId), 1L, 0L);
+    memcache.delete(userCacheKey(userId));
+  }
+
+  @Override
+  public void flushUserCache(String userId) {
+    localUserCache.invalidate(userId);
+  }
+
+  private static User copyUser(User user) {
+    User copy = user.copy();
+    copy.setPassword(user.getPassword());
+    return copy;
+  }
+
+  private void logUserCacheStats() {
+    CacheStats stats = localUserCache.stats();
+    if (stats.requestCount() % USER_CACHE_STATS_INTERVAL == 0 && stats.requestCount() > 0) {
+      LOG.info("User cache: local hits " + stats.hitCount() + ", local misses "
+          + stats.missCount() + ", memcache hits " + memcacheUserHits.get()
+          + ", datastore loads " + datastoreUserLoads.get());
+    }
+  }
+
   // Get User from email address alone. This version will create the user
   // if they don't exist
   @Override
@@ -359,6 +505,30 @@ public class ObjectifyStorageIo implements  StorageIo {
     return retUser;
   }
 
+  @Override
+  public Map<String, String> getUserNames(Collection<String> userIds) {
+    Map<String, String> names = new HashMap<String, String>();
+    // Gallery pages list many apps by the same developer, so each user is read once
+    Set<Key<UserData>> keys = new HashSet<Key<UserData>>();
+    for (String userId : userIds) {
+      User cached = localUserCache.getIfPresent(userId);
+      if (cached != null && cached.getUserName() != null) {
+        names.put(userId, cached.getUserName());
+      } else {
+        keys.add(userKey(userId));
+      }
+    }
+    if (keys.isEmpty()) {
+      return names;
+    }
+    // UserData is @Cached, so this is served from memcache where it can be
+    for (UserData userData : ObjectifyService.begin().get(keys).values()) {
+      names.put(userData.id,
+          userData.name == null ? User.getDefaultName(userData.email) : userData.name);
+    }
+    return names;
+  }
+
   private UserData createUser(Objectify datastore, String userId, String email) {
     String emaillower = null;
     if (email != null) {
@@ -394,6 +564,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    invalidateUser(userId);
   }
 
   @Override
@@ -413,6 +584,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    invalidateUser(userId);
   }
 
   @Override
@@ -421,8 +593,6 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          String cachekey = User.usercachekey + "|" + userId;
-          memcache.delete(cachekey);  // Flush cached copy prior to update
           UserData userData = datastore.find(userKey(userId));
           if (userData != null) {
             userData.name = name;
@@ -433,7 +603,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
-
+    invalidateUser(userId);
   }
 
   @Override
@@ -442,8 +612,6 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          String cachekey = User.usercachekey + "|" + userId;
-          memcache.delete(cachekey);  // Flush cached copy prior to update
           UserData userData = datastore.find(userKey(userId));
           if (userData != null) {
             userData.link = link;
@@ -454,6 +622,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    invalidateUser(userId);
   }
 
   @Override
@@ -462,8 +631,6 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          String cachekey = User.usercachekey + "|" + userId;
-          memcache.delete(cachekey);  // Flush cached copy prior to update
           UserData userData = datastore.find(userKey(userId));
           if (userData != null) {
             userData.emailFrequency = emailFrequency;
@@ -474,6 +641,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    invalidateUser(userId);
   }
 
   @Override
@@ -482,8 +650,6 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          String cachekey = User.usercachekey + "|" + userId;
-          memcache.delete(cachekey);  // Flush cached copy prior to update
           UserData userData = datastore.find(userKey(userId));
           if (userData != null) {
             userData.sessionid = sessionId;
@@ -494,6 +660,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    invalidateUser(userId);
   }
 
   @Override
@@ -502,8 +669,6 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          String cachekey = User.usercachekey + "|" + userId;
-          memcache.delete(cachekey);  // Flush cached copy prior to update
           UserData userData = datastore.find(userKey(userId));
           if (userData != null) {
             userData.password = password;
@@ -514,6 +679,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    invalidateUser(userId);
   }
 
   @Override
@@ -1526,8 +1692,76 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public long uploadFilesForce(final long projectId, final String userId,
+      final Map<String, String> contents, final String encoding) {
+    validateGCS();
+    final Map<String, byte[]> rawContents = new LinkedHashMap<String, byte[]>();
+    for (Map.Entry<String, String> entry : contents.entrySet()) {
+      try {
+        rawContents.put(entry.getKey(), entry.getValue().getBytes(encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding,"
+            + collectProjectErrorInfo(null, projectId, entry.getKey()), e);
+      }
+    }
+    final Result<Long> modTime = new Result<Long>();
+    final List<String> oldBlobstoreKeys = new ArrayList<String>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          oldBlobstoreKeys.clear();
+          Key<ProjectData> projectKey = projectKey(projectId);
+          Map<String, FileData> files = findProjectFiles(datastore, projectId, rawContents.keySet());
+          List<FileData> updatedFiles = new ArrayList<FileData>();
+          Map<String, FileData> cachedFiles = new HashMap<String, FileData>();
+          for (Map.Entry<String, byte[]> entry : rawContents.entrySet()) {
+            String fileName = entry.getKey();
+            byte[] content = entry.getValue();
+            FileData fd = files.get(fileName);
+            // <Screen>.yail files are missing when user converts AI1 project to AI2
+            // instead of blowing up, just create a <Screen>.yail file
+            if (fd == null && (fileName.endsWith(".yail") || (fileName.endsWith(".png")))){
+              fd = createProjectFile(datastore, projectKey, FileData.RoleEnum.SOURCE, fileName);
+              fd.userId = userId;
+            }
+
+            Preconditions.checkState(fd != null);
+
+            String oldBlobKey = updateFileContent(fd, projectId, fileName, userId, true,
+                content, useGCSforFile(fileName, content.length), considerBackup(fileName), false);
+            if (oldBlobKey != null) {
+              oldBlobstoreKeys.add(oldBlobKey);
+            }
+            updatedFiles.add(fd);
+            cachedFiles.put(projectFileKey(projectKey, fileName).getString(), fd);
+          }
+          datastore.put(updatedFiles);
+          memcache.putAll(cachedFiles); // Store the updated data in memcache
+          modTime.t = updateProjectModDate(datastore, projectId, false);
+        }
+      }, false);
+
+      // See uploadRawFile for why the old blobs are deleted outside of the job.
+      for (String oldBlobstoreKey : oldBlobstoreKeys) {
+        deleteBlobstoreFile(oldBlobstoreKey);
+      }
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, rawContents.keySet().toString()), e);
+    }
+    return modTime.t;
+  }
+
   private long updateProjectModDate(Objectify datastore, long projectId, boolean doingConversion) {
     long modDate = System.currentTimeMillis();
+    ModDateBatch batch = modDateBatch.get();
+    if (batch != null && !doingConversion && batch.modDates.containsKey(projectId)) {
+      // Already checked and due to be written when the batch ends
+      batch.modDates.put(projectId, modDate);
+      return modDate;
+    }
     ProjectData pd = datastore.find(projectKey(projectId));
     if (pd != null) {
       // Only update the ProjectData dateModified if it is more then a minute
@@ -1535,8 +1769,12 @@ public class ObjectifyStorageIo implements  StorageIo {
       // Also do not update modification time when doing conversion from
       // blobstore to GCS
       if ((modDate > (pd.dateModified + 1000*60)) && !doingConversion) {
-        pd.dateModified = modDate;
-        datastore.put(pd);
+        if (batch != null) {
+          batch.modDates.put(projectId, modDate);
+        } else {
+          pd.dateModified = modDate;
+          datastore.put(pd);
+        }
       } else {
         // return the (old) dateModified
         modDate = pd.dateModified;
@@ -1548,6 +1786,48 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public void beginModDateBatch() {
+    ModDateBatch batch = modDateBatch.get();
+    if (batch == null) {
+      batch = new ModDateBatch();
+      modDateBatch.set(batch);
+    }
+    batch.depth++;
+  }
+
+  @Override
+  public void endModDateBatch() {
+    ModDateBatch batch = modDateBatch.get();
+    if (batch == null || --batch.depth > 0) {
+      return;
+    }
+    modDateBatch.remove();
+    for (final Map.Entry<Long, Long> entry : batch.modDates.entrySet()) {
+      try {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            ProjectData pd = datastore.find(projectKey(entry.getKey()));
+            if (pd != null && pd.dateModified < entry.getValue()) {
+              pd.dateModified = entry.getValue();
+              datastore.put(pd);
+            }
+          }
+        }, true);
+      } catch (ObjectifyException e) {
+        // This runs in a finally block, so an exception here would hide the
+        // one that ended the batch. A missed date is corrected by the
+        // project's next save.
+        CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(null, entry.getKey(), null), e);
+      } catch (RuntimeException e) {
+        CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(null, entry.getKey(), null), e);
+      }
+    }
+  }
+
   @Override
   public long uploadRawFileForce(final long projectId, final String fileName, final String userId,
       final byte[] content) {
@@ -1571,10 +1851,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     final Result<Long> modTime = new Result<Long>();
     final boolean useGCS = useGCSforFile(fileName, content.length);
     final Result<String> oldBlobstoreKey = new Result<String>();
-    final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
-        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
-        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
-      :false);
+    final boolean considerBackup = considerBackup(fileName);
 
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1601,77 +1878,11 @@ public class ObjectifyStorageIo implements  StorageIo {
 
           Preconditions.checkState(fd != null);
 
-          if (fd.userId != null && !fd.userId.equals("")) {
-            if (!fd.userId.equals(userId)) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectUserProjectErrorInfo(userId, projectId),
-                new UnauthorizedAccessException(userId, projectId, null));
-            }
-          }
-
-          if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
-            if (!force) {            // force is true if we *really* want to save it!
-              checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
-            }
-          }
-
-          if (fd.isBlob) {
+          String oldBlobKey = updateFileContent(fd, projectId, fileName, userId, force,
+              content, useGCS, considerBackup, doingConversion);
+          if (oldBlobKey != null) {
             // mark the old blobstore blob for deletion
-           oldBlobstoreKey.t = fd.blobKey;
-          }
-          if (useGCS) {
-            fd.isGCS = true;
-            fd.gcsName = makeGCSfileName(fileName, projectId);
-            try {
-              GcsOutputChannel outputChannel =
-                gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), GcsFileOptions.getDefaultInstance());
-              outputChannel.write(ByteBuffer.wrap(content));
-              outputChannel.close();
-            } catch (IOException e) {
-              throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-            }
-            // If the content was previously stored in the datastore, clear it out.
-            fd.content = null;
-            fd.isBlob = false;  // in case we are converting from a blob
-            fd.blobstorePath = null;
-          } else {
-            if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
-              try {             // and is now stored in the data store
-                gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                  collectProjectErrorInfo(userId, projectId, fileName), e);
-              }
-              fd.isGCS = false;
-              fd.gcsName = null;
-            }
-            // Note, Don't have to do anything if the file was in the
-            // Blobstore and shrank because the code above (3 lines
-            // into the function) already handles removing the old
-            // contents from the Blobstore.
-            fd.isBlob = false;
-            fd.blobstorePath = null;
-            fd.content = content;
-          }
-          if (considerBackup && !doingConversion) {
-            if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
-              try {
-                String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
-                GcsOutputChannel outputChannel =
-                    gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
-                outputChannel.write(ByteBuffer.wrap(content));
-                outputChannel.close();
-                fd.lastBackup = System.currentTimeMillis();
-              } catch (IOException e) {
-                throw CrashReport.createAndLogError(LOG, null,
-                    collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
-              }
-            }
-          }
-          // Old file not marked with ownership, mark it now
-          if (fd.userId == null || fd.userId.equals("")) {
-            fd.userId = userId;
+            oldBlobstoreKey.t = oldBlobKey;
           }
           datastore.put(fd);
           memcache.put(key.getString(), fd); // Store the updated data in memcache
@@ -1704,6 +1915,92 @@ public class ObjectifyStorageIo implements  StorageIo {
     return modTime.t;
   }
 
+  /**
+   * Checks that the user may write the file and replaces its content, in GCS
+   * or in the entity itself. The caller must put the entity.
+   *
+   * @return the key of the blob that held the old content, which the caller
+   *     must delete outside of the job, or null
+   */
+  private String updateFileContent(FileData fd, long projectId, String fileName,
+      String userId, boolean force, byte[] content, boolean useGCS, boolean considerBackup,
+      boolean doingConversion) throws ObjectifyException {
+    if (fd.userId != null && !fd.userId.equals("")) {
+      if (!fd.userId.equals(userId)) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+      }
+    }
+
+    if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
+      if (!force) {            // force is true if we *really* want to save it!
+        checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
+      }
+    }
+
+    String oldBlobKey = null;
+    if (fd.isBlob) {
+      // mark the old blobstore blob for deletion
+      oldBlobKey = fd.blobKey;
+    }
+    if (useGCS) {
+      fd.isGCS = true;
+      fd.gcsName = makeGCSfileName(fileName, projectId);
+      try {
+        GcsOutputChannel outputChannel =
+          gcsService.createOrReplace(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), GcsFileOptions.getDefaultInstance());
+        outputChannel.write(ByteBuffer.wrap(content));
+        outputChannel.close();
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+      // If the content was previously stored in the datastore, clear it out.
+      fd.content = null;
+      fd.isBlob = false;  // in case we are converting from a blob
+      fd.blobstorePath = null;
+    } else {
+      if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
+        try {             // and is now stored in the data store
+          gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
+        } catch (IOException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+        }
+        fd.isGCS = false;
+        fd.gcsName = null;
+      }
+      // Note, Don't have to do anything if the file was in the
+      // Blobstore and shrank because the code above (3 lines
+      // into the function) already handles removing the old
+      // contents from the Blobstore.
+      fd.isBlob = false;
+      fd.blobstorePath = null;
+      fd.content = content;
+    }
+    if (considerBackup && !doingConversion) {
+      if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
+        try {
+          String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
+          GcsOutputChannel outputChannel =
+              gcsService.createOrReplace((new GcsFilename(GCS_BUCKET_NAME, gcsName)), GcsFileOptions.getDefaultInstance());
+          outputChannel.write(ByteBuffer.wrap(content));
+          outputChannel.close();
+          fd.lastBackup = System.currentTimeMillis();
+        } catch (IOException e) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileName + "(backup)"), e);
+        }
+      }
+    }
+    // Old file not marked with ownership, mark it now
+    if (fd.userId == null || fd.userId.equals("")) {
+      fd.userId = userId;
+    }
+    return oldBlobKey;
+  }
+
   protected void deleteBlobstoreFile(String blobKeyString) {
     // It would be nice if there were an AppEngineFile.delete() method but alas there isn't, so we
     // have to get the BlobKey and delete via the BlobstoreService.
@@ -1718,6 +2015,14 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  // Whether a daily backup copy of the file is kept in GCS
+  private boolean considerBackup(String fileName) {
+    return (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
+        || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
+        || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
+      :false);
+  }
+
   @VisibleForTesting
   boolean useGCSforFile(String fileName, int length) {
     if (!useGcs)                // Using legacy blob store solution
@@ -1799,6 +2104,71 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
+  @Override
+  public List<String> downloadFiles(final String userId, final long projectId,
+      final List<String> fileNames, final String encoding) {
+    validateGCS();
+    final Map<String, FileData> files = new HashMap<String, FileData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          files.clear();
+          files.putAll(findProjectFiles(datastore, projectId, fileNames));
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileNames.toString()), e);
+    }
+    // read the blob/GCS Files outside of the job
+    List<String> contents = new ArrayList<String>(fileNames.size());
+    for (String fileName : fileNames) {
+      byte[] content = readFileContent(userId, projectId, fileName, files.get(fileName));
+      try {
+        contents.add(new String(content, encoding));
+      } catch (UnsupportedEncodingException e) {
+        throw CrashReport.createAndLogError(LOG, null, "Unsupported file content encoding, "
+            + collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    }
+    return contents;
+  }
+
+  /**
+   * Looks up the entities of several files of a project, taking them from
+   * memcache where possible and getting the rest from the datastore in a
+   * single batch.
+   *
+   * @return the entities of the files that exist, keyed by file name
+   */
+  private Map<String, FileData> findProjectFiles(Objectify datastore, long projectId,
+      Collection<String> fileNames) {
+    Key<ProjectData> projectKey = projectKey(projectId);
+    Map<String, String> fileNamesByKey = new HashMap<String, String>();
+    for (String fileName : fileNames) {
+      fileNamesByKey.put(projectFileKey(projectKey, fileName).getString(), fileName);
+    }
+    Map<String, Object> cached = memcache.getAll(fileNamesByKey.keySet());
+    Map<String, FileData> files = new HashMap<String, FileData>();
+    List<Key<FileData>> missingKeys = new ArrayList<Key<FileData>>();
+    for (Map.Entry<String, String> entry : fileNamesByKey.entrySet()) {
+      FileData fd = (FileData) cached.get(entry.getKey());
+      if (fd != null) {
+        files.put(entry.getValue(), fd);
+      } else {
+        missingKeys.add(projectFileKey(projectKey, entry.getValue()));
+      }
+    }
+    if (!missingKeys.isEmpty()) {
+      Map<Key<FileData>, FileData> found = datastore.get(missingKeys);
+      for (FileData fd : found.values()) {
+        files.put(fd.fileName, fd);
+      }
+    }
+    return files;
+  }
+
   @Override
   public void recordCorruption(String userId, long projectId, String fileId, String message) {
     Objectify datastore = ObjectifyService.begin();
@@ -1824,7 +2194,6 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public byte[] downloadRawFile(final String userId, final long projectId, final String fileName) {
     validateGCS();
-    final Result<byte[]> result = new Result<byte[]>();
     final Result<FileData> fd = new Result<FileData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -1842,7 +2211,19 @@ public class ObjectifyStorageIo implements  StorageIo {
           collectProjectErrorInfo(userId, projectId, fileName), e);
     }
     // read the blob/GCS File outside of the job
-    FileData fileData = fd.t;
+    return readFileContent(userId, projectId, fileName, fd.t);
+  }
+
+  /**
+   * Returns the content of a file, reading it from GCS or the Blobstore if
+   * it isn't stored in the entity itself. This must be called outside of
+   * any job, since blobs can't be read in one.
+   *
+   * @param fileData the file's entity, or null if it doesn't exist
+   */
+  private byte[] readFileContent(String userId, long projectId, String fileName,
+      FileData fileData) {
+    final Result<byte[]> result = new Result<byte[]>();
     if (fileData != null) {
       if (fileData.userId != null && !fileData.userId.equals("")) {
         if (!fileData.userId.equals(userId)) {
@@ -2002,9 +2383,54 @@ public class ObjectifyStorageIo implements  StorageIo {
     final boolean includeScreenShots,
     final boolean forGallery,
     final boolean fatalError) throws IOException {
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    Result<Integer> fileCount = new Result<Integer>();
+    String projectName = writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        zipFile, fileCount);
+    if (zipName == null) {
+      zipName = projectName + ".aia";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
+    projectSourceZip.setMetadata(projectName);
+    return projectSourceZip;
+  }
+
+  @Override
+  public int exportProjectSourceZip(final String userId, final long projectId,
+    final boolean includeProjectHistory,
+    final boolean includeAndroidKeystore,
+    final boolean includeYail,
+    final boolean includeScreenShots,
+    final boolean forGallery,
+    final boolean fatalError,
+    OutputStream destination) throws IOException {
+    Result<Integer> fileCount = new Result<Integer>();
+    writeProjectSourceZip(userId, projectId, includeProjectHistory, includeAndroidKeystore,
+        includeYail, includeScreenShots, forGallery, fatalError, destination, fileCount);
+    return fileCount.t;
+  }
+
+  /**
+   * Writes the project files as a zip archive to the given stream. File
+   * contents are copied to the stream as they are read, so the archive is
+   * never held in memory. The stream is not closed.
+   *
+   * @param fileCount receives the number of files written
+   * @return the name of the project
+   */
+  private String writeProjectSourceZip(final String userId, final long projectId,
+    final boolean includeProjectHistory,
+    final boolean includeAndroidKeystore,
+    final boolean includeYail,
+    final boolean includeScreenShots,
+    final boolean forGallery,
+    final boolean fatalError,
+    OutputStream destination,
+    final Result<Integer> fileCount) throws IOException {
     final boolean forBuildserver = includeAndroidKeystore && includeYail;
     validateGCS();
-    final Result<Integer> fileCount = new Result<Integer>();
     fileCount.t = 0;
     final Result<String> projectHistory = new Result<String>();
     projectHistory.t = null;
@@ -2018,8 +2444,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     projectName.t = null;
     String fileName = null;
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
+    final ZipOutputStream out = new ZipOutputStream(destination);
     out.setComment("Built with MIT App Inventor");
 
     try {
@@ -2086,86 +2511,32 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
       // Process the file contents outside of the job since we can't read
       // blobs in the job.
-      for (FileData fd : fileData) {
-        fileName = fd.fileName;
-        byte[] data = null;
-        if (fd.isBlob) {
-          try {
-            if (fd.blobKey == null) {
-              throw new BlobReadException("blobKey is null");
-            }
-            data = getBlobstoreBytes(fd.blobKey);
-          } catch (BlobReadException e) {
-            throw CrashReport.createAndLogError(LOG, null,
+      if (exportFetchConcurrency > 1 && fileData.size() > 1) {
+        writeFilesInParallel(userId, projectId, fileData, fatalError, out, fileCount);
+      } else {
+        for (FileData fd : fileData) {
+          fileName = fd.fileName;
+          if (isTrue(fd.isGCS) && !fd.isBlob) {
+            try {
+              writeGcsFile(fd, out, fatalError);
+            } catch (IOException e) {
+              throw CrashReport.createAndLogError(LOG, null,
                 collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else if (isTrue(fd.isGCS)) {
-          try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      if (DEBUG) {
-                        LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                      }
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
             }
-
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
-                }
-              }
+          } else {
+            byte[] data;
+            try {
+              data = readExportedFile(fd, fatalError);
+            } catch (BlobReadException e) {
+              throw CrashReport.createAndLogError(LOG, null,
+                  collectProjectErrorInfo(userId, projectId, fileName), e);
             }
-          } catch (IOException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
+            out.putNextEntry(new ZipEntry(fileName));
+            out.write(data, 0, data.length);
+            out.closeEntry();
           }
-        } else {
-          data = fd.content;
-        }
-        if (data == null) {     // This happens if file creation is interrupted
-          data = new byte[0];
+          fileCount.t++;
         }
-        out.putNextEntry(new ZipEntry(fileName));
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        fileCount.t++;
       }
       if (projectHistory.t != null) {
         byte[] data = projectHistory.t.getBytes(StorageUtil.DEFAULT_CHARSET);
@@ -2219,15 +2590,213 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
     }
 
-    out.close();
+    // Finish rather than close the zip so the caller's stream stays open.
+    out.finish();
+    return projectName.t;
+  }
 
-    if (zipName == null) {
-      zipName = projectName.t + ".aia";
+  /**
+   * Writes a file stored in GCS to the zip as a new entry, copying the object
+   * to the zip as it is read.
+   *
+   * @param fd the file
+   * @param out the zip
+   * @param fatalError whether a missing object is an error rather than an
+   *     empty entry
+   */
+  private void writeGcsFile(FileData fd, ZipOutputStream out, boolean fatalError)
+      throws IOException {
+    GcsFilename gcsFileName = findGcsFile(fd, fatalError);
+    out.putNextEntry(new ZipEntry(fd.fileName));
+    if (gcsFileName != null) {
+      InputStream in = Channels.newInputStream(gcsService.openReadChannel(gcsFileName, 0));
+      try {
+        ByteStreams.copy(in, out);
+      } finally {
+        in.close();
+      }
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+    out.closeEntry();
+  }
+
+  /**
+   * Returns the GCS object holding the file, or null if the object is missing
+   * and fatalError is false.
+   */
+  private GcsFilename findGcsFile(FileData fd, boolean fatalError) throws IOException {
+    GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
+    int count;
+    boolean npfHappened = false;
+    boolean recovered = false;
+    for (count = 0; count < 5; count++) {
+      try {
+        // The metadata is null if the object in GCS is non-existent, which would happen
+        // when people uploaded a zero length object. As of this change, we now
+        // store zero length objects into GCS, but there are plenty of older objects
+        // that are missing in GCS.
+        gcsService.getMetadata(gcsFileName).getLength();
+        recovered = true;
+        break;
+      } catch (NullPointerException e) {
+        LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
+        npfHappened = true;
+      }
+    }
+
+    // report out on how things went above
+    if (npfHappened) {    // We lost at least once
+      if (recovered) {
+        LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
+          " count = " + count);
+      } else {
+        LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
+        if (fatalError) {
+          throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
+        }
+      }
+    }
+    return recovered ? gcsFileName : null;
+  }
+
+  /**
+   * Reads the contents of a file for export, from GCS, the Blobstore or the
+   * datastore entity itself.
+   */
+  private byte[] readExportedFile(FileData fd, boolean fatalError)
+      throws IOException, BlobReadException {
+    byte[] data = null;
+    if (fd.isBlob) {
+      if (fd.blobKey == null) {
+        throw new BlobReadException("blobKey is null");
+      }
+      data = getBlobstoreBytes(fd.blobKey);
+    } else if (isTrue(fd.isGCS)) {
+      GcsFilename gcsFileName = findGcsFile(fd, fatalError);
+      if (gcsFileName != null) {
+        InputStream in = Channels.newInputStream(gcsService.openReadChannel(gcsFileName, 0));
+        try {
+          data = ByteStreams.toByteArray(in);
+        } finally {
+          in.close();
+        }
+      }
+    } else {
+      data = fd.content;
+    }
+    if (data == null) {     // This happens if file creation is interrupted
+      data = new byte[0];
+    }
+    return data;
+  }
+
+  /**
+   * Writes the files to the zip in order, reading up to exportFetchConcurrency
+   * of them from GCS and the Blobstore at once. Each file is streamed from its
+   * reader to the zip through a queue of at most EXPORT_CHUNKS_PER_FILE chunks,
+   * so a file waiting for its turn holds only that much in memory. Files
+   * stored in the datastore are written directly.
+   *
+   * @param fileCount is incremented for each file written
+   */
+  private void writeFilesInParallel(final String userId, final long projectId,
+      List<FileData> fileData, final boolean fatalError, ZipOutputStream out,
+      Result<Integer> fileCount) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(exportFetchConcurrency,
+        ThreadManager.currentRequestThreadFactory());
+    try {
+      ArrayDeque<ExportedFile> pending = new ArrayDeque<ExportedFile>();
+      Iterator<FileData> toFetch = fileData.iterator();
+      for (FileData fd : fileData) {
+        // Keep the fetch window full.
+        while (pending.size() < exportFetchConcurrency && toFetch.hasNext()) {
+          final FileData next = toFetch.next();
+          final ExportedFile file = new ExportedFile();
+          if (next.isBlob || isTrue(next.isGCS)) {
+            file.chunks = new ArrayBlockingQueue<byte[]>(EXPORT_CHUNKS_PER_FILE);
+            file.done = executor.submit(new Callable<Void>() {
+              @Override
+              public Void call() throws Exception {
+                try {
+                  streamExportedFile(next, fatalError, file.chunks);
+                } finally {
+                  file.chunks.put(END_OF_FILE);
+                }
+                return null;
+              }
+            });
+          }
+          pending.add(file);
+        }
+        ExportedFile file = pending.remove();
+        out.putNextEntry(new ZipEntry(fd.fileName));
+        if (file.chunks == null) {
+          if (fd.content != null) {
+            out.write(fd.content, 0, fd.content.length);
+          }
+        } else {
+          try {
+            for (byte[] chunk = file.chunks.take(); chunk != END_OF_FILE;
+                chunk = file.chunks.take()) {
+              out.write(chunk, 0, chunk.length);
+            }
+            file.done.get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + fd.fileName);
+          } catch (ExecutionException e) {
+            throw CrashReport.createAndLogError(LOG, null,
+                collectProjectErrorInfo(userId, projectId, fd.fileName), e.getCause());
+          }
+        }
+        out.closeEntry();
+        fileCount.t++;
+      }
+    } finally {
+      // Interrupts any reader still waiting for room in its queue.
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Reads a file stored in GCS or the Blobstore into chunks, waiting for
+   * room in the queue before reading further. The Blobstore is read in one
+   * piece, as readExportedFile reads it.
+   */
+  private void streamExportedFile(FileData fd, boolean fatalError, BlockingQueue<byte[]> chunks)
+      throws IOException, BlobReadException, InterruptedException {
+    if (fd.isBlob) {
+      chunks.put(readExportedFile(fd, fatalError));
+      return;
+    }
+    GcsFilename gcsFileName = findGcsFile(fd, fatalError);
+    if (gcsFileName == null) {
+      return;
+    }
+    InputStream in = Channels.newInputStream(gcsService.openReadChannel(gcsFileName, 0));
+    try {
+      while (true) {
+        byte[] chunk = new byte[EXPORT_CHUNK_SIZE];
+        int length = ByteStreams.read(in, chunk, 0, chunk.length);
+        if (length == 0) {
+          break;
+        }
+        chunks.put(length < chunk.length ? Arrays.copyOf(chunk, length) : chunk);
+        if (length < chunk.length) {
+          break;
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * A file waiting to be written to an export zip. chunks and done are null
+   * for a file whose content is in the datastore.
+   */
+  private static final class ExportedFile {
+    BlockingQueue<byte[]> chunks;
+    Future<Void> done;
   }
 
   @Override
@@ -2613,6 +3182,81 @@ public class ObjectifyStorageIo implements  StorageIo {
     return fileName;
   }
 
+  @Override
+  public String uploadTempFile(InputStream content) throws IOException {
+    String uuid = UUID.randomUUID().toString();
+    String fileName = "__TEMP__/" + uuid;
+    GcsOutputChannel outputChannel = gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET_NAME, fileName), GcsFileOptions.getDefaultInstance());
+    try {
+      ByteStreams.copy(content, Channels.newOutputStream(outputChannel));
+    } finally {
+      outputChannel.close();
+    }
+    return fileName;
+  }
+
+  @Override
+  public long moveTempFileToProject(final String userId, final long projectId,
+      final String fileName, String tempFileName) throws IOException {
+    if (!tempFileName.startsWith("__TEMP__")) {
+      throw new RuntimeException("moveTempFileToProject (" + tempFileName + ") Invalid File Name");
+    }
+    validateGCS();
+    GcsFilename tempFile = new GcsFilename(GCS_BUCKET_NAME, tempFileName);
+    int length = (int) gcsService.getMetadata(tempFile).getLength();
+    if (!useGCSforFile(fileName, length)) {
+      // The file belongs in the datastore, so we need its content after all
+      byte[] content = ByteStreams.toByteArray(openTempFile(tempFileName));
+      addSourceFilesToProject(userId, projectId, false, fileName);
+      long modDate = uploadRawFileForce(projectId, fileName, userId, content);
+      deleteTempFile(tempFileName);
+      return modDate;
+    }
+
+    // Copy the content within GCS, then point the FileData at the copy
+    final String gcsName = makeGCSfileName(fileName, projectId);
+    gcsService.copy(tempFile, new GcsFilename(GCS_BUCKET_NAME, gcsName));
+    final Result<Long> modTime = new Result<Long>();
+    final Result<String> oldBlobstoreKey = new Result<String>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          Key<FileData> key = projectFileKey(projectKey(projectId), fileName);
+          FileData fd = datastore.find(key);
+          if (fd == null) {
+            fd = createProjectFile(datastore, projectKey(projectId), FileData.RoleEnum.SOURCE,
+                fileName);
+            fd.userId = userId;
+          } else if (fd.userId != null && !fd.userId.equals("") && !fd.userId.equals(userId)) {
+            throw CrashReport.createAndLogError(LOG, null,
+                collectUserProjectErrorInfo(userId, projectId),
+                new UnauthorizedAccessException(userId, projectId, null));
+          } else if (fd.isBlob) {
+            oldBlobstoreKey.t = fd.blobKey;
+          }
+          fd.isGCS = true;
+          fd.gcsName = gcsName;
+          fd.content = null;
+          fd.isBlob = false;
+          fd.blobstorePath = null;
+          datastore.put(fd);
+          memcache.delete(key.getString());
+          modTime.t = updateProjectModDate(datastore, projectId, false);
+        }
+      }, true);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+    }
+    if (oldBlobstoreKey.t != null) {
+      deleteBlobstoreFile(oldBlobstoreKey.t);
+    }
+    deleteTempFile(tempFileName);
+    return modTime.t;
+  }
+
   @Override
   public InputStream openTempFile(String fileName) throws IOException {
     if (!fileName.startsWith("__TEMP__")) {
@@ -2906,6 +3550,9 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
       throw CrashReport.createAndLogError(LOG, null, null, e);
     }
+    if (user.getId() != null) {
+      invalidateUser(user.getId());
+    }
   }
 
   /* Store a shared backpack.
@@ -0,0 +1,240 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A counter kept in the datastore as several {@link CounterShardData}
+ * entities, so that frequent updates don't all write the same entity group.
+ *
+ * <p>Each update adds to one shard chosen at random, as part of the caller's
+ * transaction. Reading the counter gets all of its shards with one batch get
+ * and caches the total in memcache. {@link #getCounts} does the same for
+ * many counters at once.</p>
+ *
+ * <p>A counter that tracks something that can also be counted directly, such
+ * as a number of entities, is started with {@link #set}, which records that
+ * the counter holds a full value rather than only the updates made so far.
+ * {@link #isSet} tells whether that has happened.</p>
+ *
+ * <p>A counter can also be used to collect updates that are periodically
+ * moved into another entity: {@link #drain} takes the accumulated sum and
+ * removes the shards, and {@link #findCounters} finds the counters that
+ * have updates waiting.</p>
+ *
+ */
+final class ShardedCounter {
+  // How long a total stays in memcache. Updates drop the cached total, so this only
+  // bounds how long a total read while an update commits can be stale.
+  private static final int CACHE_SECONDS = 60;
+
+  private static final Random random = new Random();
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+
+  private final String name;
+  private final int numShards;
+
+  /**
+   * Creates a ShardedCounter.
+   *
+   * @param name the name of the counter, which must be unique
+   * @param numShards the number of shards, which bounds the rate of
+   *     concurrent updates
+   */
+  ShardedCounter(String name, int numShards) {
+    this.name = name;
+    this.numShards = numShards;
+  }
+
+  /**
+   * Adds delta to the counter as part of the given transaction. The shard is
+   * in its own entity group, so a transaction that also writes other
+   * entities must be a cross-group transaction.
+   */
+  void add(Objectify datastore, long delta) {
+    String shardId = shardId(random.nextInt(numShards));
+    CounterShardData shard = datastore.find(CounterShardData.class, shardId);
+    if (shard == null) {
+      shard = new CounterShardData();
+      shard.id = shardId;
+      shard.name = name;
+    }
+    shard.count += delta;
+    datastore.put(shard);
+    memcache.delete(cacheKey());
+  }
+
+  /**
+   * Sets the counter to value as part of the given transaction and marks it
+   * as set. The shards are read in the transaction and the difference is
+   * added to one of them, so an update committed by another transaction in
+   * the meantime makes this one fail rather than be lost. The transaction
+   * must be a cross-group transaction.
+   *
+   * @return the difference added to the counter
+   */
+  long set(Objectify datastore, long value) {
+    long delta = value - sum(datastore);
+    CounterShardData marker = new CounterShardData();
+    marker.id = markerId();
+    datastore.put(marker);
+    if (delta != 0) {
+      add(datastore, delta);
+    }
+    return delta;
+  }
+
+  /**
+   * Returns whether the counter has been set with {@link #set}.
+   */
+  boolean isSet() {
+    return ObjectifyService.begin().find(CounterShardData.class, markerId()) != null;
+  }
+
+  /**
+   * Returns the sum of the counter's shards as read by the given transaction,
+   * or 0 if there are none.
+   */
+  long sum(Objectify datastore) {
+    long count = 0;
+    for (CounterShardData shard : datastore.get(CounterShardData.class, shardIds()).values()) {
+      count += shard.count;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the value of the counter, or null if it has never been updated.
+   *
+   * @param useCache whether a total cached in memcache may be returned
+   */
+  Long getCount(boolean useCache) {
+    Long count = useCache ? (Long) memcache.get(cacheKey()) : null;
+    if (count == null) {
+      Map<String, CounterShardData> shards = ObjectifyService.begin()
+          .get(CounterShardData.class, shardIds());
+      if (shards.isEmpty()) {
+        return null;
+      }
+      count = 0L;
+      for (CounterShardData shard : shards.values()) {
+        count += shard.count;
+      }
+      memcache.put(cacheKey(), count, Expiration.byDeltaSeconds(CACHE_SECONDS));
+    }
+    return count;
+  }
+
+  /**
+   * Returns the values of several counters, keyed by counter name. Totals
+   * cached in memcache are used where present; the shards of the other
+   * counters are read with a single batch get. Counters that have never
+   * been updated are left out of the result.
+   */
+  static Map<String, Long> getCounts(List<ShardedCounter> counters) {
+    MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+    List<String> cacheKeys = new ArrayList<String>(counters.size());
+    for (ShardedCounter counter : counters) {
+      cacheKeys.add(counter.cacheKey());
+    }
+    Map<String, Object> cached = memcache.getAll(cacheKeys);
+    Map<String, Long> counts = new HashMap<String, Long>();
+    List<String> shardIds = new ArrayList<String>();
+    for (ShardedCounter counter : counters) {
+      Long count = (Long) cached.get(counter.cacheKey());
+      if (count != null) {
+        counts.put(counter.name, count);
+      } else {
+        shardIds.addAll(counter.shardIds());
+      }
+    }
+    if (shardIds.isEmpty()) {
+      return counts;
+    }
+    Map<String, Long> totals = new HashMap<String, Long>();
+    for (CounterShardData shard : ObjectifyService.begin()
+        .get(CounterShardData.class, shardIds).values()) {
+      Long total = totals.get(shard.name);
+      totals.put(shard.name, total == null ? shard.count : total + shard.count);
+    }
+    Map<String, Long> toCache = new HashMap<String, Long>();
+    for (Map.Entry<String, Long> total : totals.entrySet()) {
+      toCache.put(cacheKey(total.getKey()), total.getValue());
+    }
+    memcache.putAll(toCache, Expiration.byDeltaSeconds(CACHE_SECONDS));
+    counts.putAll(totals);
+    return counts;
+  }
+
+  /**
+   * Removes the shards of the counter as part of the given transaction and
+   * returns the sum they held, or 0 if there were none.
+   */
+  long drain(Objectify datastore) {
+    Map<String, CounterShardData> shards = datastore.get(CounterShardData.class, shardIds());
+    long count = 0;
+    for (CounterShardData shard : shards.values()) {
+      count += shard.count;
+    }
+    datastore.delete(shards.values());
+    memcache.delete(cacheKey());
+    return count;
+  }
+
+  /**
+   * Returns the names of the counters starting with prefix that have at
+   * least one shard. The query is eventually consistent, so a counter that
+   * was just updated may be missing.
+   */
+  static Set<String> findCounters(String prefix) {
+    Set<String> names = new TreeSet<String>();
+    for (CounterShardData shard : ObjectifyService.begin().query(CounterShardData.class)
+        .filter("name >=", prefix).filter("name <", prefix + Character.MAX_VALUE)) {
+      names.add(shard.name);
+    }
+    return names;
+  }
+
+  private List<String> shardIds() {
+    List<String> ids = new ArrayList<String>(numShards);
+    for (int i = 0; i < numShards; i++) {
+      ids.add(shardId(i));
+    }
+    return ids;
+  }
+
+  private String shardId(int index) {
+    return name + ":" + index;
+  }
+
+  // The marker has no name, so findCounters doesn't report a counter that
+  // was set but has no updates.
+  private String markerId() {
+    return name + ":set";
+  }
+
+  private String cacheKey() {
+    return cacheKey(name);
+  }
+
+  private static String cacheKey(String name) {
+    return "counter:" + name;
+  }
+}
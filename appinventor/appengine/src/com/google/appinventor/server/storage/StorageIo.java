@@ -19,8 +19,11 @@ import com.google.appinventor.shared.rpc.user.SplashConfig;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
@@ -72,6 +75,16 @@ public interface StorageIo {
    */
   User getUserFromEmail(String email);
 
+  /**
+   * Returns the display names of several existing users, read with a single
+   * batch get. Unlike {@link #getUser(String)}, users that do not exist are
+   * not created but left out of the result.
+   *
+   * @param userIds user ids
+   * @return map from user id to user name
+   */
+  Map<String, String> getUserNames(Collection<String> userIds);
+
   /**
    * Sets the stored email address for user with id userId
    *
@@ -94,6 +107,14 @@ public interface StorageIo {
    */
   void setUserSessionId(String userId, String sessionId);
 
+  /**
+   * Drops any copy of the user cached by this server instance, so that the
+   * next {@link #getUser(String)} sees changes made through other instances.
+   *
+   * @param userId user id
+   */
+  void flushUserCache(String userId);
+
   /**
    * Sets the user's hashed password.
    *
@@ -476,6 +497,36 @@ public interface StorageIo {
    */
   long uploadFileForce(long projectId, String fileId, String userId, String content, String encoding);
 
+  /**
+   * Starts deferring the project modification date updates made by this
+   * thread. Until the matching {@link #endModDateBatch()}, saving files
+   * doesn't write the projects' ProjectData; each changed project is
+   * written once when the batch ends. Batches may be nested; only the
+   * outermost one writes.
+   */
+  void beginModDateBatch();
+
+  /**
+   * Ends a batch started with {@link #beginModDateBatch()}, writing the
+   * modification dates of the projects changed in it. Call it in a finally
+   * block. A date that can't be written is logged rather than thrown, so
+   * that it doesn't hide an exception from the batch.
+   */
+  void endModDateBatch();
+
+  /**
+   * Uploads several files of a project at once. -- forces the save even with
+   * trivial workspaces. The files are written with a single batch of
+   * datastore operations.
+   * @param projectId  project ID
+   * @param userId the user who owns the files
+   * @param contents  file contents keyed by file ID
+   * @param encoding encoding of contents
+   * @return modification date for project
+   */
+  long uploadFilesForce(long projectId, String userId, Map<String, String> contents,
+      String encoding);
+
   /**
    * Uploads a file.
    * @param projectId  project ID
@@ -518,6 +569,19 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads the data of several text files of a project at once, with a
+   * single batch of datastore and memcache lookups.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   * @param encoding  encoding of text files
+   *
+   * @return  text file contents, in the order of fileIds
+   */
+  List<String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding);
+
   /**
    * Records a "corruption" record so we can analyze if corruption is
    * happening.
@@ -548,6 +612,33 @@ public interface StorageIo {
    */
   String uploadTempFile(byte [] content) throws IOException;
 
+  /**
+   * Creates a temporary file with content read from the given stream
+   * and returns its file name, which will always begin with __TEMP__.
+   * The content is copied in chunks, so it is never held in memory as a
+   * whole. The stream is read to its end but not closed.
+   *
+   * @param content the file's content
+   *
+   * @return fileName the temporary filename
+   */
+  String uploadTempFile(InputStream content) throws IOException;
+
+  /**
+   * Adds a source file to a project, taking its content from a temporary
+   * file created by {@link #uploadTempFile}. The temporary file is deleted
+   * once its content belongs to the project.
+   *
+   * @param userId user ID
+   * @param projectId  project ID
+   * @param fileName  file name within the project
+   * @param tempFileName  name of the temporary file
+   *
+   * @return modification date for project
+   */
+  long moveTempFileToProject(String userId, long projectId, String fileName,
+      String tempFileName) throws IOException;
+
   /**
    * Open an input stream to a temp file.
    * Verifies it is a temp file by making sure the filename
@@ -599,6 +690,29 @@ public interface StorageIo {
     final boolean forGallery,
     final boolean fatalError) throws IOException;
 
+  /**
+   * Exports project files as a zip archive written to the given stream. The
+   * archive is streamed as the files are read rather than built in memory.
+   * The stream is not closed.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param fatalError set true to cause missing GCS file to throw exception
+   * @param destination  the stream the archive is written to
+   *
+   * @return  the number of files in the archive
+   */
+  int exportProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    final boolean includeYail,
+    final boolean includeScreenShots,
+    final boolean forGallery,
+    final boolean fatalError,
+    OutputStream destination) throws IOException;
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
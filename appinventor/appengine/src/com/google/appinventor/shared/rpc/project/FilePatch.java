@@ -0,0 +1,111 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+
+/**
+ * A change to a text file, sent by the client when saving instead of the
+ * whole file. Edits to a blocks workspace usually change one small part of
+ * its XML, so the patch replaces the single range of characters between the
+ * common prefix and the common suffix of the old and new contents.
+ *
+ * The patch carries checksums (MD5) of the content it was made from and of
+ * the content it produces. The server applies it only to content matching
+ * the first, and checks the result against the second, so a patch made
+ * against a stale copy of the file is rejected rather than corrupting it.
+ *
+ */
+public class FilePatch implements Serializable {
+
+  // For serialization
+  private static final long serialVersionUID = 4187605416293521147L;
+
+  private String baseChecksum;
+  private int offset;
+  private int removed;
+  private String text;
+  private String checksum;
+
+  /**
+   * Default constructor (for serialization only).
+   */
+  @SuppressWarnings("unused")
+  private FilePatch() {
+  }
+
+  private FilePatch(String baseChecksum, int offset, int removed, String text, String checksum) {
+    this.baseChecksum = baseChecksum;
+    this.offset = offset;
+    this.removed = removed;
+    this.text = text;
+    this.checksum = checksum;
+  }
+
+  /**
+   * Creates the patch that turns base into content.
+   *
+   * @param base  the content last saved
+   * @param content  the content to save
+   * @return the patch
+   */
+  public static FilePatch create(String base, String content) throws FilePatchException {
+    int max = Math.min(base.length(), content.length());
+    int prefix = 0;
+    while (prefix < max && base.charAt(prefix) == content.charAt(prefix)) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < max - prefix
+        && base.charAt(base.length() - 1 - suffix) == content.charAt(content.length() - 1 - suffix)) {
+      suffix++;
+    }
+    return new FilePatch(checksum(base), prefix, base.length() - prefix - suffix,
+        content.substring(prefix, content.length() - suffix), checksum(content));
+  }
+
+  /**
+   * Applies the patch.
+   *
+   * @param base  the content to apply the patch to
+   * @return the patched content
+   * @throws FilePatchException if base is not the content the patch was made from
+   */
+  public String apply(String base) throws FilePatchException {
+    if (!checksum(base).equals(baseChecksum)) {
+      throw new FilePatchException("Patch doesn't match the saved content");
+    }
+    String content = base.substring(0, offset) + text + base.substring(offset + removed);
+    if (!checksum(content).equals(checksum)) {
+      throw new FilePatchException("Patched content doesn't match its checksum");
+    }
+    return content;
+  }
+
+  /**
+   * Returns the number of characters of new text in the patch.
+   */
+  public int getTextLength() {
+    return text.length();
+  }
+
+  private static String checksum(String content) throws FilePatchException {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+      byte [] digest = md.digest(content.getBytes("UTF-8"));
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest) {
+        sb.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+      }
+      return sb.toString();
+    } catch (java.security.NoSuchAlgorithmException e) {
+      throw new FilePatchException(e.toString());
+    } catch (java.io.UnsupportedEncodingException e) {
+      throw new FilePatchException(e.toString());
+    }
+  }
+}
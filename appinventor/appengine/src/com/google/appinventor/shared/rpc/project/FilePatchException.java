@@ -0,0 +1,32 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import java.io.Serializable;
+
+/**
+ * Thrown when a {@link FilePatch} can't be applied, because the content it
+ * is applied to isn't the content it was made from. The client responds by
+ * sending the whole file instead.
+ */
+public class FilePatchException extends Exception implements Serializable {
+
+    private String message;
+
+    public FilePatchException() {
+      super();
+    }
+
+    public FilePatchException(String message) {
+      super();
+      this.message = message;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+}
@@ -263,6 +263,22 @@ public interface ProjectService extends RemoteService {
   long save2(String sessionId, long projectId, String fileId, boolean force, String content) throws InvalidSessionException,
       BlocksTruncatedException;
 
+  /**
+   * Saves a change to the file associated with a node in the project tree.
+   * The patch is applied to the file's saved content, and the result is
+   * saved as with {@link #save2} without force.
+   *
+   * @param sessionId current session id
+   * @param projectId  project ID
+   * @param fileId  project node whose source should be saved
+   * @param patch  change from the file's saved content
+   * @return modification date for project
+   * @throws FilePatchException if the patch wasn't made from the saved
+   *     content, in which case the whole content should be saved instead
+   */
+  long savePatch(String sessionId, long projectId, String fileId, FilePatch patch)
+      throws InvalidSessionException, BlocksTruncatedException, FilePatchException;
+
   /**
    * Saves the contents of multiple files.
    *
@@ -312,6 +328,21 @@ public interface ProjectService extends RemoteService {
    */
   RpcResult getBuildResult(long projectId, String target);
 
+  /**
+   * Waits for the build of the project to progress past {@code lastProgress}
+   * and returns its result. The call returns when the progress changes, when
+   * the build finishes, or after a server-defined time, so clients can call it
+   * again as soon as it returns instead of polling {@link #getBuildResult}.
+   *
+   * @param projectId  project ID
+   * @param target  build target (optional, implementation dependent)
+   * @param lastProgress  the progress from the previous result, or -1
+   *
+   * @return  results of build, as for {@link #getBuildResult}. While the build
+   *          is not yet done the output holds its progress.
+   */
+  RpcResult waitForBuildResult(long projectId, String target, int lastProgress);
+
   /**
    * Adds a new file to the given project.
    *
@@ -146,6 +146,11 @@ public interface ProjectServiceAsync {
    */
   void save2(String sessionId, long projectId, String fileId, boolean force, String source, AsyncCallback<Long> callback);
 
+  /**
+   * @see ProjectService#savePatch(String, long, String, FilePatch)
+   */
+  void savePatch(String sessionId, long projectId, String fileId, FilePatch patch, AsyncCallback<Long> callback);
+
   /**
    * @see ProjectService#save(String, List)
    */
@@ -168,6 +173,12 @@ public interface ProjectServiceAsync {
    */
   void getBuildResult(long projectId, String target, AsyncCallback<RpcResult> callback);
 
+  /**
+   * @see ProjectService#waitForBuildResult(long, String, int)
+   */
+  void waitForBuildResult(long projectId, String target, int lastProgress,
+      AsyncCallback<RpcResult> callback);
+
   /**
    * @see ProjectService#addFile(long, String)
    */
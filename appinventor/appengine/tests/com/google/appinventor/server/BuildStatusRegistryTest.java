@@ -0,0 +1,50 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+/**
+ * Tests for {@link BuildStatusRegistry}.
+ *
+ */
+public class BuildStatusRegistryTest extends LocalDatastoreTestCase {
+  private static final String USER_ID = "1";
+  private static final long PROJECT_ID = 1234;
+
+  public void testReturnsAtOnceWhenProgressDiffers() {
+    BuildStatusRegistry.update(USER_ID, PROJECT_ID, 10);
+    long start = System.currentTimeMillis();
+    assertEquals(10, BuildStatusRegistry.awaitChange(USER_ID, PROJECT_ID, -1, 10000));
+    assertTrue(System.currentTimeMillis() - start < 5000);
+  }
+
+  public void testTimesOutWithoutChange() {
+    BuildStatusRegistry.update(USER_ID, PROJECT_ID, 10);
+    long start = System.currentTimeMillis();
+    assertEquals(10, BuildStatusRegistry.awaitChange(USER_ID, PROJECT_ID, 10, 200));
+    assertTrue(System.currentTimeMillis() - start >= 200);
+  }
+
+  public void testFinishedIsRecorded() {
+    BuildStatusRegistry.update(USER_ID, PROJECT_ID, 0);
+    BuildStatusRegistry.update(USER_ID, PROJECT_ID, BuildStatusRegistry.BUILD_FINISHED);
+    assertEquals(BuildStatusRegistry.BUILD_FINISHED,
+        BuildStatusRegistry.awaitChange(USER_ID, PROJECT_ID, 0, 10000));
+  }
+
+  public void testFinishedAfterFullProgress() {
+    // The build server reports 100 before it sends the output
+    BuildStatusRegistry.update(USER_ID, PROJECT_ID, 90);
+    BuildStatusRegistry.update(USER_ID, PROJECT_ID, 100);
+    assertEquals(100, BuildStatusRegistry.awaitChange(USER_ID, PROJECT_ID, 90, 10000));
+
+    // A client that saw 100 learns at once that the output has been stored
+    BuildStatusRegistry.update(USER_ID, PROJECT_ID, BuildStatusRegistry.BUILD_FINISHED);
+    long start = System.currentTimeMillis();
+    assertEquals(BuildStatusRegistry.BUILD_FINISHED,
+        BuildStatusRegistry.awaitChange(USER_ID, PROJECT_ID, 100, 10000));
+    assertTrue(System.currentTimeMillis() - start < 5000);
+  }
+}
@@ -167,5 +167,37 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
     }
   }
 
-  // TODO(user): Add test of exportAllProjectsSourceZip().
+  public void testExportProjectsSourceZip() throws IOException {
+    Project project = new Project(PROJECT_NAME);
+    project.setProjectType(FAKE_PROJECT_TYPE);
+    project.addTextFile(new TextFile(FORM1_QUALIFIED_NAME, FORM1_CONTENT));
+    long secondProjectId = storageIo.createProject(USER_ID, project, SETTINGS);
+
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    int count = exporter.exportProjectsSourceZip(USER_ID,
+        Arrays.asList(projectId, projectId + 1000, secondProjectId), zipFile);
+    assertEquals(2, count);
+
+    // The missing project is skipped and the second project with the same
+    // name is renamed.
+    ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipFile.toByteArray()));
+    Map<String, byte[]> content = new HashMap<String, byte[]>();
+    ZipEntry zipEntry;
+    while ((zipEntry = zis.getNextEntry()) != null) {
+      content.put(zipEntry.getName(), ByteStreams.toByteArray(zis));
+    }
+    assertEquals(2, content.size());
+    assertTrue(content.containsKey(PROJECT_NAME + ".aia"));
+    assertTrue(content.containsKey("duplicate-" + PROJECT_NAME + ".aia"));
+    ProjectSourceZip first = new ProjectSourceZip(PROJECT_NAME + ".aia",
+        content.get(PROJECT_NAME + ".aia"), 2);
+    testExportProjectSourceZipHelper(first);
+  }
+
+  public void testExportAllProjectsSourceZip() throws IOException {
+    ProjectSourceZip zip = exporter.exportAllProjectsSourceZip(USER_ID, "all-projects.zip");
+    assertEquals("all-projects.zip", zip.getFileName());
+    assertEquals(1, zip.getFileCount());
+    assertEquals(PROJECT_NAME + "\n", zip.getMetadata());
+  }
 }
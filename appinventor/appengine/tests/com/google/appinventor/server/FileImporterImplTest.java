@@ -7,6 +7,7 @@
 package com.google.appinventor.server;
 
 import com.google.appinventor.common.testutils.TestUtils;
+import com.google.appinventor.server.project.youngandroid.YoungAndroidProjectService;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.UploadResponse;
@@ -15,9 +16,21 @@ import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjec
 
 import junitx.framework.ListAssert;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Test FileImporterImpl.
@@ -34,9 +47,18 @@ public class FileImporterImplTest extends LocalDatastoreTestCase {
   // This project name does not match what is in Project1.zip.
   private static final String PROJECT_NAME_2 = "project2";
 
+  // The limit used by the size tests, a little over 1 KB.
+  private static final float SMALL_MAX_ASSET_SIZE_MEGS = 0.001f;
+  private static final int SMALL_MAX_ASSET_SIZE_BYTES =
+      (int) (SMALL_MAX_ASSET_SIZE_MEGS * 1024 * 1024);
+
   private StorageIo storageIo;
   private FileImporter fileImporter;
 
+  // Temporary files uploaded and deleted through the storage given to the importer.
+  private final List<String> uploadedTempFiles = new ArrayList<String>();
+  private final List<String> deletedTempFiles = new ArrayList<String>();
+
   public static final String TESTING_SOURCE_PATH = TestUtils.APP_INVENTOR_ROOT_DIR +
       "/appengine/tests/com/google/appinventor/server/";
 
@@ -49,6 +71,13 @@ public class FileImporterImplTest extends LocalDatastoreTestCase {
     fileImporter = new FileImporterImpl();
   }
 
+  @Override
+  public void tearDown() throws Exception {
+    FileImporterImpl.maxAssetSizeMegs.setForTest(9f);
+    StorageIoInstanceHolder.setInstance(null);
+    super.tearDown();
+  }
+
   private UserProject importProjectArchive(String zipFileName, String projectName)
       throws Exception {
     String projectZip = TESTING_SOURCE_PATH + zipFileName;
@@ -198,4 +227,162 @@ public class FileImporterImplTest extends LocalDatastoreTestCase {
     }
   }
 
+  public void testDeclaredSizeTooLarge() throws Exception {
+    FileImporterImpl.maxAssetSizeMegs.setForTest(SMALL_MAX_ASSET_SIZE_MEGS);
+    fileImporter = recordingImporter(null);
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    ZipOutputStream out = startProjectZip(zip);
+    addEntry(out, "src/appinventor/ai_joeuser/project1/Screen1.scm",
+        content(SMALL_MAX_ASSET_SIZE_BYTES + 1), ZipEntry.STORED);
+    out.close();
+    assertImportFails(zip.toByteArray(), UploadResponse.Status.FILE_TOO_LARGE);
+    // The entry was rejected from its declared size, before anything was stored.
+    assertTrue(uploadedTempFiles.isEmpty());
+    assertTrue(storageIo.getProjects(USER_ID).isEmpty());
+  }
+
+  public void testUndeclaredSizeTooLarge() throws Exception {
+    FileImporterImpl.maxAssetSizeMegs.setForTest(SMALL_MAX_ASSET_SIZE_MEGS);
+    fileImporter = recordingImporter(null);
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    ZipOutputStream out = startProjectZip(zip);
+    addEntry(out, "src/appinventor/ai_joeuser/project1/Screen1.bky",
+        content(SMALL_MAX_ASSET_SIZE_BYTES + 1), ZipEntry.DEFLATED);
+    out.close();
+    assertImportFails(zip.toByteArray(), UploadResponse.Status.FILE_TOO_LARGE);
+    assertTrue(uploadedTempFiles.isEmpty());
+    assertTrue(storageIo.getProjects(USER_ID).isEmpty());
+  }
+
+  public void testStreamedAssetTooLargeIsDeleted() throws Exception {
+    FileImporterImpl.maxAssetSizeMegs.setForTest(SMALL_MAX_ASSET_SIZE_MEGS);
+    fileImporter = recordingImporter(null);
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    ZipOutputStream out = startProjectZip(zip);
+    addEntry(out, "assets/small.png", content(SMALL_MAX_ASSET_SIZE_BYTES), ZipEntry.DEFLATED);
+    addEntry(out, "assets/large.png", content(SMALL_MAX_ASSET_SIZE_BYTES + 1),
+        ZipEntry.DEFLATED);
+    out.close();
+    assertImportFails(zip.toByteArray(), UploadResponse.Status.FILE_TOO_LARGE);
+    // Both assets were streamed to temporary files, and neither is left behind.
+    assertEquals(2, uploadedTempFiles.size());
+    assertEquals(uploadedTempFiles, deletedTempFiles);
+    assertTrue(storageIo.getProjects(USER_ID).isEmpty());
+  }
+
+  public void testStreamedEntriesAreMovedIntoProject() throws Exception {
+    fileImporter = recordingImporter(null);
+    byte[] asset = content(1000);
+    // Larger than the streaming threshold, so it is streamed even though it is not an asset.
+    byte[] blocks = content(100 * 1024);
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    ZipOutputStream out = startProjectZip(zip);
+    addEntry(out, "assets/kitty.png", asset, ZipEntry.DEFLATED);
+    addEntry(out, "src/appinventor/ai_joeuser/project1/Screen1.bky", blocks, ZipEntry.STORED);
+    out.close();
+    UserProject userProject = fileImporter.importProject(USER_ID, PROJECT_NAME_1,
+        new ByteArrayInputStream(zip.toByteArray()));
+    long projectId = userProject.getProjectId();
+    assertEquals(2, uploadedTempFiles.size());
+    // The moves consume the temporary files, so the importer has nothing to clean up.
+    assertTrue(deletedTempFiles.isEmpty());
+    assertTrue(Arrays.equals(asset,
+        storageIo.downloadRawFile(USER_ID, projectId, "assets/kitty.png")));
+    assertTrue(Arrays.equals(blocks, storageIo.downloadRawFile(USER_ID, projectId,
+        "src/appinventor/ai_joeuser/project1/Screen1.bky")));
+  }
+
+  public void testProjectDeletedWhenMoveFails() throws Exception {
+    fileImporter = recordingImporter("assets/meow.mp3");
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    ZipOutputStream out = startProjectZip(zip);
+    addEntry(out, "assets/kitty.png", content(1000), ZipEntry.DEFLATED);
+    addEntry(out, "assets/meow.mp3", content(1000), ZipEntry.DEFLATED);
+    out.close();
+    try {
+      fileImporter.importProject(USER_ID, PROJECT_NAME_1,
+          new ByteArrayInputStream(zip.toByteArray()));
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+    // The project missing an asset is gone, along with the asset that wasn't moved.
+    assertTrue(storageIo.getProjects(USER_ID).isEmpty());
+    assertEquals(2, uploadedTempFiles.size());
+    assertEquals(Arrays.asList(uploadedTempFiles.get(1)), deletedTempFiles);
+  }
+
+  private void assertImportFails(byte[] zip, UploadResponse.Status status) throws Exception {
+    try {
+      fileImporter.importProject(USER_ID, PROJECT_NAME_1, new ByteArrayInputStream(zip));
+      fail();
+    } catch (FileImporterException e) {
+      assertEquals(status, e.uploadResponse.getStatus());
+    }
+  }
+
+  /**
+   * Returns an importer whose storage remembers the temporary files that are
+   * uploaded and deleted, and fails to move the given file into the project.
+   */
+  private FileImporter recordingImporter(final String failingFileName) {
+    final StorageIo delegate = storageIo;
+    StorageIoInstanceHolder.setInstance((StorageIo) Proxy.newProxyInstance(
+        StorageIo.class.getClassLoader(), new Class<?>[] { StorageIo.class },
+        new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("moveTempFileToProject") && args[2].equals(failingFileName)) {
+              throw new IOException("Unable to move " + failingFileName);
+            }
+            Object result;
+            try {
+              result = method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+            if (name.equals("uploadTempFile")) {
+              uploadedTempFiles.add((String) result);
+            } else if (name.equals("deleteTempFile")) {
+              deletedTempFiles.add((String) args[0]);
+            }
+            return result;
+          }
+        }));
+    return new FileImporterImpl();
+  }
+
+  private static ZipOutputStream startProjectZip(ByteArrayOutputStream zip) throws IOException {
+    ZipOutputStream out = new ZipOutputStream(zip);
+    addEntry(out, YoungAndroidProjectService.PROJECT_PROPERTIES_FILE_NAME,
+        "main=appinventor.ai_joeuser.project1.Screen1\n".getBytes("UTF-8"), ZipEntry.DEFLATED);
+    return out;
+  }
+
+  // Only a stored entry declares its size ahead of its content. A deflated entry
+  // written by ZipOutputStream has no size until after its content is read.
+  private static void addEntry(ZipOutputStream out, String name, byte[] content, int method)
+      throws IOException {
+    ZipEntry entry = new ZipEntry(name);
+    entry.setMethod(method);
+    if (method == ZipEntry.STORED) {
+      CRC32 crc = new CRC32();
+      crc.update(content);
+      entry.setSize(content.length);
+      entry.setCompressedSize(content.length);
+      entry.setCrc(crc.getValue());
+    }
+    out.putNextEntry(entry);
+    out.write(content);
+    out.closeEntry();
+  }
+
+  private static byte[] content(int size) {
+    byte[] content = new byte[size];
+    for (int i = 0; i < size; i++) {
+      content[i] = (byte) i;
+    }
+    return content;
+  }
 }
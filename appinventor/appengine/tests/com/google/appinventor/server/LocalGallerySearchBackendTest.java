@@ -0,0 +1,176 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LocalGallerySearchBackend}.
+ *
+ */
+public class LocalGallerySearchBackendTest extends TestCase {
+
+  private LocalGallerySearchBackend backend;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    backend = new LocalGallerySearchBackend(null, 0, 0);
+    backend.indexApp(makeApp(1, "Ball Game", "Bounce a ball around", "alice", 100));
+    backend.indexApp(makeApp(2, "Paint Pot", "Paint with a ball brush", "bob", 200));
+    backend.indexApp(makeApp(3, "Quiz", "A game of questions about painting", "carol", 300));
+  }
+
+  private static GalleryApp makeApp(long id, String title, String description,
+      String developer, long updateDate) {
+    GalleryApp app = new GalleryApp();
+    app.setGalleryAppId(id);
+    app.setTitle(title);
+    app.setDescription(description);
+    app.setDeveloperName(developer);
+    app.setUpdateDate(updateDate);
+    return app;
+  }
+
+  private static List<Long> ids(GalleryAppListResult result) {
+    List<Long> ids = new ArrayList<Long>();
+    for (GalleryApp app : result.getApps()) {
+      ids.add(app.getGalleryAppId());
+    }
+    return ids;
+  }
+
+  public void testTitleRanksAboveDescription() {
+    GalleryAppListResult result = backend.find("BALL", 0, 10);
+    assertEquals(Arrays.asList(1L, 2L), ids(result));
+    assertEquals(2, result.getTotalCount());
+  }
+
+  public void testAllWordsMustMatch() {
+    assertEquals(Arrays.asList(2L), ids(backend.find("paint ball", 0, 10)));
+    assertEquals(0, backend.find("paint nothing", 0, 10).getTotalCount());
+    assertEquals(0, backend.find("  ", 0, 10).getTotalCount());
+  }
+
+  public void testPaging() {
+    // Title beats description
+    assertEquals(Arrays.asList(1L, 3L), ids(backend.find("game", 0, 10)));
+    GalleryAppListResult page = backend.find("game", 1, 1);
+    assertEquals(Arrays.asList(3L), ids(page));
+    assertEquals(2, page.getTotalCount());
+    assertEquals(0, backend.find("game", 5, 10).getApps().size());
+  }
+
+  public void testReindexAndUnindex() {
+    backend.indexApp(makeApp(1, "Space Race", "Fly a rocket", "alice", 400));
+    assertEquals(Arrays.asList(2L), ids(backend.find("ball", 0, 10)));
+    assertEquals(Arrays.asList(1L), ids(backend.find("rocket", 0, 10)));
+    backend.unIndexApp(1);
+    assertEquals(0, backend.find("rocket", 0, 10).getTotalCount());
+  }
+
+  public void testBuildReadsAllPages() {
+    FakeStorage storage = new FakeStorage(1200);
+    LocalGallerySearchBackend built = new LocalGallerySearchBackend(storage.proxy(), 0, 60000);
+    assertEquals(1200, built.find("common", 0, 10).getTotalCount());
+    assertEquals(Arrays.asList(null, "500", "1000"), storage.cursors);
+    // Built once, and never refreshed
+    built.find("common", 0, 10);
+    assertEquals(3, storage.cursors.size());
+  }
+
+  public void testBuildIsSplitAcrossSearches() {
+    FakeStorage storage = new FakeStorage(1200);
+    // Each search reads a single page
+    LocalGallerySearchBackend built = new LocalGallerySearchBackend(storage.proxy(), 0, 0);
+    // Until the first build is done, searches see the apps read so far
+    assertEquals(500, built.find("common", 0, 10).getTotalCount());
+    assertEquals(1000, built.find("common", 0, 10).getTotalCount());
+    assertEquals(1200, built.find("common", 0, 10).getTotalCount());
+    assertEquals(1200, built.find("common", 0, 10).getTotalCount());
+    assertEquals(3, storage.cursors.size());
+  }
+
+  public void testChangesDuringBuildAreKept() {
+    FakeStorage storage = new FakeStorage(1200);
+    LocalGallerySearchBackend built = new LocalGallerySearchBackend(storage.proxy(), 0, 0);
+    built.find("common", 0, 10);
+    // Apps on pages that haven't been read yet change
+    built.unIndexApp(700);
+    built.indexApp(makeApp(800, "Rocket", "Fly a rocket", "dave", 2000));
+    built.indexApp(makeApp(5000, "Rocket Race", "Race rockets", "erin", 3000));
+    built.find("common", 0, 10);
+    built.find("common", 0, 10);
+    assertEquals(3, storage.cursors.size());
+
+    // The build's copies of 700 and 800 don't undo the changes
+    assertEquals(1198, built.find("common", 0, 10).getTotalCount());
+    assertEquals(Arrays.asList(800L), ids(built.find("fly", 0, 10)));
+    assertEquals(Arrays.asList(800L, 5000L), ids(built.find("rocket", 0, 10)));
+  }
+
+  public void testRebuildReplacesIndex() throws Exception {
+    FakeStorage storage = new FakeStorage(10);
+    LocalGallerySearchBackend built = new LocalGallerySearchBackend(storage.proxy(), 1, 60000);
+    assertEquals(10, built.find("common", 0, 10).getTotalCount());
+    storage.size = 20;
+    Thread.sleep(10);
+    assertEquals(20, built.find("common", 0, 30).getTotalCount());
+    assertEquals(2, storage.cursors.size());
+  }
+
+  public void testTokenize() {
+    assertEquals(Arrays.asList("hello", "world", "2"),
+        new ArrayList<String>(LocalGallerySearchBackend.tokenize("Hello, world! 2 hello")));
+  }
+
+  /**
+   * Serves active gallery apps 1 to size, each with "common" in its
+   * description, and records the cursors it is asked for.
+   */
+  private static class FakeStorage implements InvocationHandler {
+    int size;
+    final List<String> cursors = new ArrayList<String>();
+
+    FakeStorage(int size) {
+      this.size = size;
+    }
+
+    GalleryStorageIo proxy() {
+      return (GalleryStorageIo) Proxy.newProxyInstance(GalleryStorageIo.class.getClassLoader(),
+          new Class<?>[] { GalleryStorageIo.class }, this);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (!method.getName().equals("getActiveGalleryApps")) {
+        throw new UnsupportedOperationException(method.getName());
+      }
+      String cursor = (String) args[0];
+      int count = (Integer) args[1];
+      List<GalleryApp> apps = (List<GalleryApp>) args[2];
+      cursors.add(cursor);
+      int start = cursor == null ? 0 : Integer.parseInt(cursor);
+      int end = Math.min(size, start + count);
+      for (int id = start + 1; id <= end; id++) {
+        apps.add(makeApp(id, "App " + id, "A common app", "dev" + id, id));
+      }
+      return end < size ? Integer.toString(end) : null;
+    }
+  }
+}
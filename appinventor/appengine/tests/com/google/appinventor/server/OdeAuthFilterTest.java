@@ -5,11 +5,16 @@
 // http://www.apache.org/licenses/LICENSE-2.0
 package com.google.appinventor.server;
 
+import static org.easymock.EasyMock.aryEq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 
+import com.google.appinventor.server.cookieauth.CookieAuth;
+import com.google.appinventor.server.storage.StorageIo;
+import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.common.testutils.TestUtils;
+import com.google.common.base.Ticker;
 
 import static junit.framework.Assert.*;
 import junitx.framework.Assert;
@@ -19,12 +24,18 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.keyczar.Crypter;
+import org.keyczar.util.Base64Coder;
 import org.powermock.api.easymock.PowerMock;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.FilterChain;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -143,4 +154,71 @@ public class OdeAuthFilterTest {
     // getUserTosAccepted should not have been called.
     PowerMock.verifyAll();
   }
+
+  @Test
+  public void testCachedCookieIsStillCheckedForIdleTimeout() throws Exception {
+    Crypter crypter = PowerMock.createMock(Crypter.class);
+    long ts = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10);
+    byte[] token = CookieAuth.cookie.newBuilder()
+        .setUuid("cookieUser")
+        .setTs(ts)
+        .setIsAdmin(false)
+        .setIsReadOnly(false)
+        .build().toByteArray();
+    String rawCookie = Base64Coder.encode("encrypted cookie".getBytes("UTF-8"));
+    // The cookie is decrypted once; the second request uses the cached token.
+    expect(crypter.decrypt(aryEq(Base64Coder.decode(rawCookie)))).andReturn(token).once();
+    expect(mockServletRequest.getCookies())
+        .andReturn(new Cookie[] { new Cookie("AppInventor", rawCookie) }).anyTimes();
+    PowerMock.replayAll();
+
+    int savedIdleTimeout = OdeAuthFilter.idleTimeout.get();
+    Whitebox.setInternalState(OdeAuthFilter.class, "crypter", crypter);
+    try {
+      OdeAuthFilter.UserInfo userInfo = OdeAuthFilter.getUserInfo(mockServletRequest);
+      assertNotNull(userInfo);
+      assertEquals("cookieUser", userInfo.getUserId());
+
+      // Now the cookie is older than the idle timeout, so the cached token is rejected.
+      OdeAuthFilter.idleTimeout.setForTest(5);
+      assertNull(OdeAuthFilter.getUserInfo(mockServletRequest));
+    } finally {
+      OdeAuthFilter.idleTimeout.setForTest(savedIdleTimeout);
+      Whitebox.setInternalState(OdeAuthFilter.class, "crypter", (Crypter) null);
+    }
+    PowerMock.verify(crypter);
+  }
+
+  @Test
+  public void testWhitelistDecisionsAreCachedByLowercasedEmail() throws Exception {
+    StorageIo storageIo = PowerMock.createMock(StorageIo.class);
+    expect(storageIo.checkWhiteList("alice@example.com")).andReturn(false).once();
+    expect(storageIo.checkWhiteList("alice@example.com")).andReturn(true).once();
+    PowerMock.replayAll();
+
+    final AtomicLong nanos = new AtomicLong();
+    OdeAuthFilter.cacheTicker = new Ticker() {
+      @Override
+      public long read() {
+        return nanos.get();
+      }
+    };
+    StorageIoInstanceHolder.setInstance(storageIo);
+    try {
+      OdeAuthFilter filter = new OdeAuthFilter();
+      assertFalse(filter.isWhitelisted("Alice@Example.com"));
+      // Cached, whatever the case of the address
+      assertFalse(filter.isWhitelisted("alice@example.com"));
+      assertFalse(filter.isWhitelisted("ALICE@EXAMPLE.COM"));
+
+      // Once the decision expires, the whitelist is read again.
+      nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+      assertTrue(filter.isWhitelisted("alice@example.com"));
+      assertTrue(filter.isWhitelisted("Alice@example.com"));
+    } finally {
+      StorageIoInstanceHolder.setInstance(null);
+      OdeAuthFilter.cacheTicker = Ticker.systemTicker();
+    }
+    PowerMock.verify(storageIo);
+  }
 }
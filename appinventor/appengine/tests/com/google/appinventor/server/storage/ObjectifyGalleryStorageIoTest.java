@@ -0,0 +1,83 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.shared.rpc.project.GalleryApp;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link ObjectifyGalleryStorageIo}.
+ *
+ */
+public class ObjectifyGalleryStorageIoTest extends LocalDatastoreTestCase {
+
+  private ObjectifyStorageIo storage;
+  private ObjectifyGalleryStorageIo galleryStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    storage = new ObjectifyStorageIo();
+    StorageIoInstanceHolder.setInstance(storage);
+    galleryStorage = new ObjectifyGalleryStorageIo();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    StorageIoInstanceHolder.setInstance(null);
+    super.tearDown();
+  }
+
+  private long createApp(String title, String userId) {
+    return galleryStorage.createGalleryApp(title, title, "", "", "", 1, userId).getGalleryAppId();
+  }
+
+  public void testGetGalleryAppsKeepsOrderAndSkipsMissingIds() {
+    storage.getUser("alice", "alice@example.com");
+    storage.setUserName("alice", "Alice");
+    storage.getUser("bob", "bob@example.com");
+    long first = createApp("First", "alice");
+    long second = createApp("Second", "bob");
+    long third = createApp("Third", "alice");
+    long missing = Math.max(first, Math.max(second, third)) + 1;
+
+    // A fresh StorageIo, so that the developer names are read in the batch
+    // rather than from the users cached while creating the apps
+    StorageIoInstanceHolder.setInstance(new ObjectifyStorageIo());
+    List<GalleryApp> apps = new ObjectifyGalleryStorageIo().getGalleryApps(
+        Arrays.asList(third, missing, first, second));
+    assertEquals(3, apps.size());
+    assertEquals("Third", apps.get(0).getTitle());
+    assertEquals("First", apps.get(1).getTitle());
+    assertEquals("Second", apps.get(2).getTitle());
+    assertEquals(third, apps.get(0).getGalleryAppId());
+    assertEquals("Alice", apps.get(0).getDeveloperName());
+    assertEquals("Alice", apps.get(1).getDeveloperName());
+    assertEquals("bob", apps.get(2).getDeveloperName());
+  }
+
+  public void testPendingDownloadsAndLikesAreCounted() {
+    storage.getUser("alice", "alice@example.com");
+    long galleryId = createApp("App", "alice");
+    galleryStorage.incrementDownloads(galleryId);
+    galleryStorage.incrementDownloads(galleryId);
+    galleryStorage.increaseLikes(galleryId, "bob");
+
+    GalleryApp app = galleryStorage.getGalleryApp(galleryId);
+    assertEquals(2, app.getDownloads());
+    assertEquals(1, app.getLikes());
+    app = galleryStorage.getGalleryApps(Arrays.asList(galleryId)).get(0);
+    assertEquals(2, app.getDownloads());
+    assertEquals(1, app.getLikes());
+  }
+
+  public void testGetGalleryAppsWithNoIds() {
+    assertTrue(galleryStorage.getGalleryApps(Arrays.<Long>asList()).isEmpty());
+  }
+}
@@ -21,8 +21,14 @@ import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 
 import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -31,7 +37,12 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.json.JSONObject;
 
@@ -133,6 +144,27 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertEquals(USER_EMAIL_NEW, user4.getUserEmail());
   }
 
+  public void testGetUserCached() {
+    final String USER_ID = "501";
+    final String USER_EMAIL = "user501@test.com";
+
+    User user1 = storage.getUser(USER_ID, USER_EMAIL);
+    // Changes to a returned user are not seen by later callers
+    user1.setIsAdmin(true);
+    user1.setReadOnly(true);
+    User user2 = storage.getUser(USER_ID);
+    assertFalse(user2.getIsAdmin());
+    assertFalse(user2.isReadOnly());
+
+    // Changes through storage are seen right away
+    storage.setUserName(USER_ID, "Another Name");
+    assertEquals("Another Name", storage.getUser(USER_ID).getUserName());
+    storage.setUserSessionId(USER_ID, "session2");
+    assertEquals("session2", storage.getUser(USER_ID).getSessionId());
+    storage.setUserPassword(USER_ID, "hashed");
+    assertEquals("hashed", storage.getUser(USER_ID).getPassword());
+  }
+
   public void testSetTosAccepted() {
     final String USER_ID = "100";
     final String USER_EMAIL = "newuser100@test.com";
@@ -219,6 +251,23 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     }
   }
 
+  public void testUploadAndDownloadFiles() {
+    final String USER_ID = "850";
+    final String USER_EMAIL = "newuser850@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, FILE_NAME2);
+    Map<String, String> contents = new LinkedHashMap<String, String>();
+    contents.put(FILE_NAME1, FILE_CONTENT1);
+    contents.put(FILE_NAME2, FILE_CONTENT2);
+    storage.uploadFilesForce(projectId, USER_ID, contents, StorageUtil.DEFAULT_CHARSET);
+    assertEquals(FILE_CONTENT2,
+        storage.downloadFile(USER_ID, projectId, FILE_NAME2, StorageUtil.DEFAULT_CHARSET));
+    assertEquals(Arrays.asList(FILE_CONTENT2, FILE_CONTENT1),
+        storage.downloadFiles(USER_ID, projectId, Arrays.asList(FILE_NAME2, FILE_NAME1),
+            StorageUtil.DEFAULT_CHARSET));
+  }
+
   public void testMuliRoleFile() {
     final String USER_ID = "1000";
     final String USER_EMAIL = "newuser1000@test.com";
@@ -306,6 +355,100 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     oldModificationDate = modificationDate;
   }
 
+  public void testModDateBatchWritesOnce() throws BlocksTruncatedException {
+    final String USER_ID = "1110";
+    final String USER_EMAIL = "newuser1110@test.com";
+    CountingStorageIo counting = new CountingStorageIo();
+    counting.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME,
+        counting);
+    counting.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, SCM_FILE_NAME1);
+    // Make the stored date old enough to be updated
+    setProjectDateModified(projectId, 1);
+
+    counting.beginModDateBatch();
+    try {
+      long modDate = counting.uploadFile(projectId, FILE_NAME1, USER_ID, FILE_CONTENT1,
+          StorageUtil.DEFAULT_CHARSET);
+      assertTrue(modDate > 1);
+      counting.uploadFile(projectId, SCM_FILE_NAME1, USER_ID, FILE_CONTENT2,
+          StorageUtil.DEFAULT_CHARSET);
+      // Nested batches defer to the outermost one
+      counting.beginModDateBatch();
+      counting.endModDateBatch();
+      assertEquals(1, counting.getProjectDateModified(USER_ID, projectId));
+    } finally {
+      counting.jobs = 0;
+      counting.endModDateBatch();
+    }
+    assertEquals(1, counting.jobs);
+    assertTrue(counting.getProjectDateModified(USER_ID, projectId) > 1);
+
+    // An unmatched end writes nothing
+    counting.jobs = 0;
+    counting.endModDateBatch();
+    assertEquals(0, counting.jobs);
+  }
+
+  public void testModDateBatchEndsAfterError() throws BlocksTruncatedException {
+    final String USER_ID = "1120";
+    final String USER_EMAIL = "newuser1120@test.com";
+    CountingStorageIo counting = new CountingStorageIo();
+    counting.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME,
+        counting);
+    counting.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1);
+    setProjectDateModified(projectId, 1);
+
+    RuntimeException error = new RuntimeException("build failed");
+    try {
+      counting.beginModDateBatch();
+      try {
+        counting.uploadFile(projectId, FILE_NAME1, USER_ID, FILE_CONTENT1,
+            StorageUtil.DEFAULT_CHARSET);
+        throw error;
+      } finally {
+        // The date can't be written, but the batch's own error is the one thrown
+        counting.failJobs = true;
+        counting.endModDateBatch();
+        counting.failJobs = false;
+      }
+    } catch (RuntimeException e) {
+      assertSame(error, e);
+    }
+    assertEquals(1, counting.getProjectDateModified(USER_ID, projectId));
+
+    // The batch is over, so the next save writes its date right away
+    long modDate = counting.uploadFile(projectId, FILE_NAME1, USER_ID, FILE_CONTENT2,
+        StorageUtil.DEFAULT_CHARSET);
+    assertEquals(modDate, counting.getProjectDateModified(USER_ID, projectId));
+  }
+
+  private void setProjectDateModified(long projectId, long date) {
+    Objectify datastore = ObjectifyService.begin();
+    ProjectData pd = datastore.get(ProjectData.class, projectId);
+    pd.dateModified = date;
+    datastore.put(pd);
+  }
+
+  /**
+   * Counts the jobs run, and fails them on request.
+   */
+  private static class CountingStorageIo extends ObjectifyStorageIo {
+    int jobs = 0;
+    boolean failJobs = false;
+
+    @Override
+    void runJobWithRetries(JobRetryHelper job, boolean useTransaction)
+        throws ObjectifyException {
+      jobs++;
+      if (failJobs) {
+        throw new ObjectifyException("Couldn't commit job after max retries.");
+      }
+      super.runJobWithRetries(job, useTransaction);
+    }
+  }
+
   public void testAddRemoveFile() throws BlocksTruncatedException {
     final String USER_ID = "1200";
     final String USER_EMAIL = "newuser1200@test.com";
@@ -446,6 +589,28 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     // TODO(sharon): should test large blob files (e.g., >2MB (chunk size), >4MB (row size));
   }
 
+  public void testMoveTempFileToProject() throws IOException {
+    final String USER_ID = "1320";
+    final String USER_EMAIL = "newuser1320@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    String assetTemp = storage.uploadTempFile(new ByteArrayInputStream(ASSET_FILE_CONTENT1));
+    String blockTemp = storage.uploadTempFile(new ByteArrayInputStream(BLOCK_FILE_CONTENT));
+    storage.moveTempFileToProject(USER_ID, projectId, ASSET_FILE_NAME1, assetTemp);
+    storage.moveTempFileToProject(USER_ID, projectId, BLOCK_FILE_NAME, blockTemp);
+
+    assertTrue(storage.getProjectSourceFiles(USER_ID, projectId).contains(ASSET_FILE_NAME1));
+    assertTrue(storage.getProjectSourceFiles(USER_ID, projectId).contains(BLOCK_FILE_NAME));
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId, ASSET_FILE_NAME1)));
+    assertTrue(Arrays.equals(BLOCK_FILE_CONTENT,
+        storage.downloadRawFile(USER_ID, projectId, BLOCK_FILE_NAME)));
+    assertTrue(storage.isGcsFile(projectId, ASSET_FILE_NAME1));
+    assertFalse(storage.isGcsFile(projectId, BLOCK_FILE_NAME));
+  }
+
   public void testOldBlockFilesInDatastoreStillWork() throws BlocksTruncatedException {
     // Create new storage object that forces storage in the datastore
     ObjectifyStorageIo oldStyleStorage = new ObjectifyStorageIo() {
@@ -551,6 +716,68 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertEquals(7,zipFile.getFileCount());
   }
 
+  public void testExportProjectZipToStream() throws BlocksTruncatedException, IOException {
+    final String USER_ID = "1850";
+    final String USER_EMAIL = "newuser1850@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, SCM_FILE_NAME1);
+    storage.uploadFile(projectId, SCM_FILE_NAME1, USER_ID, FILE_CONTENT1, StorageUtil.DEFAULT_CHARSET);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, BKY_FILE_NAME1);
+    storage.uploadFile(projectId, BKY_FILE_NAME1, USER_ID, FILE_CONTENT2, StorageUtil.DEFAULT_CHARSET);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, YAIL_FILE_NAME1);
+    storage.uploadFile(projectId, YAIL_FILE_NAME1, USER_ID, FILE_CONTENT1, StorageUtil.DEFAULT_CHARSET);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int fileCount = storage.exportProjectSourceZip(USER_ID, projectId, false,
+            /* includeAndroidKeystore */ true, true, false, false, false, out);
+    ProjectSourceZip zipFile = storage.exportProjectSourceZip(USER_ID, projectId, false,
+            /* includeAndroidKeystore */ true,
+            "project_" + projectId + ".aia", true, false, false, false);
+    assertEquals(zipFile.getFileCount(), fileCount);
+    assertTrue(Arrays.equals(zipFile.getContent(), out.toByteArray()));
+  }
+
+  public void testExportProjectZipContentsAndOrder() throws BlocksTruncatedException, IOException {
+    final String USER_ID = "1875";
+    final String USER_EMAIL = "newuser1875@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    // Assets are read from GCS in parallel, and one spans many export chunks.
+    byte[] largeAsset = new byte[300000];
+    for (int i = 0; i < largeAsset.length; i++) {
+      largeAsset[i] = (byte) i;
+    }
+    Map<String, byte[]> expected = new TreeMap<String, byte[]>();
+    expected.put(FORM_QUALIFIED_NAME, new byte[0]);
+    expected.put(ASSET_FILE_NAME1, ASSET_FILE_CONTENT1);
+    expected.put(RAW_FILE_NAME1, largeAsset);
+    expected.put(RAW_FILE_NAME2, RAW_FILE_CONTENT3);
+    expected.put(SCM_FILE_NAME1, FILE_CONTENT1.getBytes(StorageUtil.DEFAULT_CHARSET));
+    expected.put(BKY_FILE_NAME1, FILE_CONTENT2.getBytes(StorageUtil.DEFAULT_CHARSET));
+    for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+      if (!entry.getKey().equals(FORM_QUALIFIED_NAME)) {
+        storage.addSourceFilesToProject(USER_ID, projectId, false, entry.getKey());
+        storage.uploadRawFile(projectId, entry.getKey(), USER_ID, true, entry.getValue());
+      }
+    }
+    assertTrue(storage.isGcsFile(projectId, RAW_FILE_NAME1));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int fileCount = storage.exportProjectSourceZip(USER_ID, projectId, false, false, true, false,
+        false, true, out);
+    assertEquals(expected.size(), fileCount);
+
+    // Files are written in the order they are listed, which is by name.
+    List<String> names = new ArrayList<String>();
+    ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+    for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+      names.add(entry.getName());
+      assertTrue(entry.getName(),
+          Arrays.equals(expected.get(entry.getName()), ByteStreams.toByteArray(zip)));
+    }
+    assertEquals(new ArrayList<String>(expected.keySet()), names);
+  }
+
   public void testExportProjectZipNoSCM() throws BlocksTruncatedException, IOException {
     final String USER_ID = "1900";
     final String USER_EMAIL = "newuser1900@test.com";
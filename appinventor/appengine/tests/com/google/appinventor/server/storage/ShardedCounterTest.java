@@ -0,0 +1,141 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appinventor.server.LocalDatastoreTestCase;
+
+import com.googlecode.objectify.Objectify;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Tests for {@link ShardedCounter}.
+ *
+ */
+public class ShardedCounterTest extends LocalDatastoreTestCase {
+
+  private ObjectifyGalleryStorageIo galleryStorage;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    // Registers CounterShardData and provides the transactions to update counters in
+    galleryStorage = new ObjectifyGalleryStorageIo();
+  }
+
+  private void add(final ShardedCounter counter, final long delta) throws Exception {
+    galleryStorage.runJobWithRetries(galleryStorage.new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        counter.add(datastore, delta);
+      }
+    });
+  }
+
+  public void testNewCounterHasNoCount() {
+    ShardedCounter counter = new ShardedCounter("test.new", 3);
+    assertNull(counter.getCount(true));
+    assertNull(counter.getCount(false));
+  }
+
+  public void testAddAcrossShards() throws Exception {
+    ShardedCounter counter = new ShardedCounter("test.add", 3);
+    for (int i = 0; i < 20; i++) {
+      add(counter, 1);
+    }
+    add(counter, -5);
+    assertEquals(Long.valueOf(15), counter.getCount(false));
+    assertEquals(Long.valueOf(15), counter.getCount(true));
+    // Updates drop the cached total
+    add(counter, 2);
+    assertEquals(Long.valueOf(17), counter.getCount(true));
+  }
+
+  public void testCountersAreIndependent() throws Exception {
+    ShardedCounter first = new ShardedCounter("test.first", 2);
+    ShardedCounter second = new ShardedCounter("test.second", 2);
+    add(first, 4);
+    add(second, 7);
+    assertEquals(Long.valueOf(4), first.getCount(true));
+    assertEquals(Long.valueOf(7), second.getCount(true));
+  }
+
+  public void testGetCounts() throws Exception {
+    ShardedCounter cached = new ShardedCounter("test.counts.cached", 2);
+    ShardedCounter uncached = new ShardedCounter("test.counts.uncached", 2);
+    ShardedCounter unused = new ShardedCounter("test.counts.unused", 2);
+    add(cached, 3);
+    add(uncached, 5);
+    add(uncached, 1);
+    assertEquals(Long.valueOf(3), cached.getCount(true));
+    Map<String, Long> counts = ShardedCounter.getCounts(Arrays.asList(cached, uncached, unused));
+    assertEquals(2, counts.size());
+    assertEquals(Long.valueOf(3), counts.get("test.counts.cached"));
+    assertEquals(Long.valueOf(6), counts.get("test.counts.uncached"));
+    // The totals read from the shards are cached like those of getCount
+    assertEquals(Long.valueOf(6), uncached.getCount(true));
+    assertNull(unused.getCount(true));
+  }
+
+  public void testDrain() throws Exception {
+    final ShardedCounter counter = new ShardedCounter("test.drain.1", 3);
+    add(counter, 3);
+    add(counter, 4);
+    assertEquals(Long.valueOf(7), counter.getCount(true));
+    final long[] drained = new long[1];
+    galleryStorage.runJobWithRetries(galleryStorage.new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        drained[0] = counter.drain(datastore);
+      }
+    }, true);
+    assertEquals(7, drained[0]);
+    assertNull(counter.getCount(true));
+  }
+
+  private long set(final ShardedCounter counter, final long value) throws Exception {
+    final long[] delta = new long[1];
+    galleryStorage.runJobWithRetries(galleryStorage.new JobRetryHelper() {
+      @Override
+      public void run(Objectify datastore) {
+        delta[0] = counter.set(datastore, value);
+      }
+    }, true);
+    return delta[0];
+  }
+
+  public void testSetAfterUpdates() throws Exception {
+    ShardedCounter counter = new ShardedCounter("test.set", 3);
+    assertFalse(counter.isSet());
+    // Updates made before the counter is set are replaced by the value
+    add(counter, 1);
+    add(counter, 1);
+    add(counter, -1);
+    assertEquals(9, set(counter, 10));
+    assertTrue(counter.isSet());
+    assertEquals(Long.valueOf(10), counter.getCount(true));
+    add(counter, 1);
+    assertEquals(Long.valueOf(11), counter.getCount(true));
+    // Setting the value it already has changes nothing
+    assertEquals(0, set(counter, 11));
+    assertEquals(Long.valueOf(11), counter.getCount(false));
+  }
+
+  public void testSetCounterIsNotFound() throws Exception {
+    set(new ShardedCounter("test.find.set", 2), 0);
+    assertTrue(ShardedCounter.findCounters("test.find.").isEmpty());
+  }
+
+  public void testFindCounters() throws Exception {
+    add(new ShardedCounter("test.find.1", 2), 1);
+    add(new ShardedCounter("test.find.2", 2), 1);
+    add(new ShardedCounter("test.other", 2), 1);
+    assertEquals(new TreeSet<String>(Arrays.asList("test.find.1", "test.find.2")),
+        ShardedCounter.findCounters("test.find."));
+  }
+}
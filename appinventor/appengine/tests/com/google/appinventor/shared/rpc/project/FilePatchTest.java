@@ -0,0 +1,49 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.shared.rpc.project;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link FilePatch}.
+ *
+ */
+public class FilePatchTest extends TestCase {
+  private static final String BASE =
+      "<xml><block type=\"a\" x=\"10\" y=\"20\"></block><block type=\"b\"></block></xml>";
+
+  private static void assertRoundTrip(String base, String content) throws FilePatchException {
+    assertEquals(content, FilePatch.create(base, content).apply(base));
+  }
+
+  public void testRoundTrip() throws FilePatchException {
+    assertRoundTrip(BASE, BASE.replace("x=\"10\"", "x=\"125\""));
+    assertRoundTrip(BASE, BASE.replace("<block type=\"b\"></block>", ""));
+    assertRoundTrip(BASE, BASE + "<!-- end -->");
+    assertRoundTrip(BASE, "<!-- start -->" + BASE);
+    assertRoundTrip(BASE, BASE);
+    assertRoundTrip(BASE, "");
+    assertRoundTrip("", BASE);
+    assertRoundTrip("aaaa", "aaaaaa");
+    assertRoundTrip("aaaaaa", "aaaa");
+    assertRoundTrip(BASE, BASE.replace("block", "bl\u00f6ck"));
+  }
+
+  public void testPatchIsSmall() throws FilePatchException {
+    FilePatch patch = FilePatch.create(BASE, BASE.replace("x=\"10\"", "x=\"125\""));
+    assertTrue(patch.getTextLength() <= 3);
+  }
+
+  public void testStaleBase() throws FilePatchException {
+    FilePatch patch = FilePatch.create(BASE, BASE.replace("x=\"10\"", "x=\"125\""));
+    try {
+      patch.apply(BASE.replace("y=\"20\"", "y=\"30\""));
+      fail();
+    } catch (FilePatchException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,267 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A directory of build artifacts keyed by a hash of everything that went
+ * into producing them.
+ *
+ * <p>The compiler uses it to reuse the class files of screens whose YAIL has
+ * not changed since an earlier build, and the dex files of builds whose
+ * classes and libraries have not changed. Each entry is a directory holding
+ * the artifacts at their paths relative to the build directory they came
+ * from. Entries are written to a staging directory and renamed into place, so
+ * concurrent builds never see a partial entry.</p>
+ */
+final class BuildCache {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildCache.class.getName());
+
+  // Entries used more recently than this are never evicted, because a running build may still be
+  // copying them.
+  @VisibleForTesting
+  static final long EVICTION_GRACE_MILLIS = 10 * 60 * 1000;
+
+  // The suffix of the staging directories that entries are written to before they are renamed.
+  private static final String STAGING_SUFFIX = ".tmp";
+
+  // The number of file hashes remembered. Each build adds its temporary files, so the memo is
+  // bounded to keep the long-running build server from growing.
+  private static final int MAX_FILE_HASHES = 10000;
+
+  // Content hashes of files, keyed by path, modification time and length.
+  private static final Cache<String, String> fileHashes = CacheBuilder.newBuilder()
+      .maximumSize(MAX_FILE_HASHES)
+      .build();
+
+  private static volatile long maxSizeMb = 0;
+
+  // The total size in bytes of the entries of each cache directory. A directory is measured the
+  // first time an entry is stored in it, and the total is then kept up to date by store and evict,
+  // so that the directory is only walked again when the total passes the maximum size. Guarded by
+  // BuildCache.class.
+  private static final Map<File, Long> directorySizes = new HashMap<File, Long>();
+
+  private static final AtomicInteger hits = new AtomicInteger(0);
+  private static final AtomicInteger misses = new AtomicInteger(0);
+
+  private final File directory;
+
+  /**
+   * Creates a BuildCache that keeps its entries in the given directory.
+   */
+  BuildCache(File directory) {
+    this.directory = directory.getAbsoluteFile();
+    directory.mkdirs();
+  }
+
+  /**
+   * Sets the maximum total size of the entries of each cache directory. The
+   * least recently used entries are deleted when a cache grows past this size.
+   * 0 means unlimited.
+   */
+  static void setMaxSizeMb(long mb) {
+    maxSizeMb = mb;
+  }
+
+  static int getHitCount() {
+    return hits.get();
+  }
+
+  static int getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Returns a hash of the given strings and of the contents of the given
+   * files. Directories are hashed recursively, including the names of the
+   * files inside them.
+   */
+  static String hash(Collection<String> strings, Collection<File> files) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String string : strings) {
+      putString(hasher, string);
+    }
+    for (File file : files) {
+      // The names of the files themselves are left out, because resources and extension files
+      // are extracted to temporary files with generated names.
+      putFile(hasher, file, "");
+    }
+    return hasher.hash().toString();
+  }
+
+  private static void putString(Hasher hasher, String string) {
+    byte[] bytes = string.getBytes(Charsets.UTF_8);
+    hasher.putInt(bytes.length);
+    hasher.putBytes(bytes);
+  }
+
+  private static void putFile(Hasher hasher, File file, String name) throws IOException {
+    putString(hasher, name);
+    if (file.isDirectory()) {
+      File[] children = file.listFiles();
+      if (children == null) {
+        throw new IOException("Unable to list " + file);
+      }
+      Arrays.sort(children);
+      hasher.putInt(children.length);
+      for (File child : children) {
+        putFile(hasher, child, child.getName());
+      }
+    } else {
+      putString(hasher, hashFile(file));
+    }
+  }
+
+  private static String hashFile(File file) throws IOException {
+    String key = file.getAbsolutePath() + ":" + file.lastModified() + ":" + file.length();
+    String hash = fileHashes.getIfPresent(key);
+    if (hash == null) {
+      hash = Files.hash(file, Hashing.sha1()).toString();
+      fileHashes.put(key, hash);
+    }
+    return hash;
+  }
+
+  /**
+   * Copies the artifacts of the entry with the given key into the given
+   * directory.
+   *
+   * @return true if the entry exists and was copied, false otherwise
+   */
+  boolean restore(String key, File destination) {
+    File entry = new File(directory, key);
+    if (!entry.isDirectory()) {
+      misses.incrementAndGet();
+      return false;
+    }
+    try {
+      // Mark the entry as recently used.
+      entry.setLastModified(System.currentTimeMillis());
+      FileUtils.copyDirectory(entry, destination);
+      hits.incrementAndGet();
+      return true;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to restore build cache entry " + key, e);
+      misses.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * Stores the given artifacts under the given key. Failures are logged and
+   * otherwise ignored, since the cache is only an optimization.
+   *
+   * @param key the key
+   * @param baseDir the directory the artifacts' relative paths start from
+   * @param artifacts the artifacts, which must be inside baseDir
+   */
+  void store(String key, File baseDir, Collection<File> artifacts) {
+    File entry = new File(directory, key);
+    if (entry.isDirectory()) {
+      return;
+    }
+    File staging = new File(directory,
+        key + "." + Thread.currentThread().getId() + STAGING_SUFFIX);
+    long entryBytes;
+    try {
+      String basePath = baseDir.getCanonicalPath() + File.separator;
+      for (File artifact : artifacts) {
+        String path = artifact.getCanonicalPath();
+        if (!path.startsWith(basePath)) {
+          throw new IOException(artifact + " is not in " + baseDir);
+        }
+        File copy = new File(staging, path.substring(basePath.length()));
+        Files.createParentDirs(copy);
+        Files.copy(artifact, copy);
+      }
+      staging.mkdirs();
+      entryBytes = FileUtils.sizeOf(staging);
+      if (!staging.renameTo(entry)) {
+        // Another build stored the same entry first.
+        FileUtils.deleteQuietly(staging);
+        return;
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store build cache entry " + key, e);
+      FileUtils.deleteQuietly(staging);
+      return;
+    }
+    evict(entryBytes);
+  }
+
+  /**
+   * Adds the size of a new entry to the total of the cache directory, and if
+   * the total is then larger than the maximum size, deletes the least recently
+   * used entries until it is not. Entries used within the grace period are
+   * kept even if that leaves the cache too large.
+   */
+  private void evict(long addedBytes) {
+    long maxBytes = maxSizeMb * 1024 * 1024;
+    if (maxBytes <= 0) {
+      return;
+    }
+    synchronized (BuildCache.class) {
+      Long knownBytes = directorySizes.get(directory);
+      if (knownBytes != null && knownBytes + addedBytes <= maxBytes) {
+        directorySizes.put(directory, knownBytes + addedBytes);
+        return;
+      }
+      // Measure the entries again, since other build servers may share the directory.
+      File[] entries = directory.listFiles();
+      if (entries == null) {
+        return;
+      }
+      final Map<File, Long> lastUsed = new HashMap<File, Long>();
+      long totalBytes = 0;
+      for (File entry : entries) {
+        if (!entry.getName().endsWith(STAGING_SUFFIX)) {
+          lastUsed.put(entry, entry.lastModified());
+          totalBytes += FileUtils.sizeOf(entry);
+        }
+      }
+      if (totalBytes > maxBytes) {
+        File[] candidates = lastUsed.keySet().toArray(new File[lastUsed.size()]);
+        Arrays.sort(candidates, new Comparator<File>() {
+          @Override
+          public int compare(File a, File b) {
+            return Long.compare(lastUsed.get(a), lastUsed.get(b));
+          }
+        });
+        long graceStart = System.currentTimeMillis() - EVICTION_GRACE_MILLIS;
+        for (File entry : candidates) {
+          if (totalBytes <= maxBytes || lastUsed.get(entry) > graceStart) {
+            break;
+          }
+          long size = FileUtils.sizeOf(entry);
+          FileUtils.deleteQuietly(entry);
+          totalBytes -= size;
+        }
+      }
+      directorySizes.put(directory, totalBytes);
+    }
+  }
+}
@@ -0,0 +1,280 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * An {@link Executor} that runs build tasks with a limit on the number of
+ * simultaneous tasks and a bounded queue for the tasks that arrive while the
+ * limit is reached.
+ *
+ * <p>Queued tasks are kept in two lanes. Tasks in the priority lane (builds
+ * that App Inventor sends with priority=true) are always started before tasks
+ * in the normal lane. Within a lane, users are served round-robin so that a
+ * single user submitting many builds cannot starve everyone else.</p>
+ *
+ * <p>A task is rejected with a {@link RejectedExecutionException} when the
+ * executor is at maximum capacity and either the queue is full or the
+ * submitting user already has the maximum number of queued tasks in the two
+ * lanes together. With a queue size of 0, tasks are rejected as soon as the
+ * maximum is reached.</p>
+ */
+final class BuildScheduler implements Executor {
+  // The number of recent queue wait times kept for computing percentiles.
+  private static final int WAIT_TIME_SAMPLES = 1000;
+
+  // The user name used for tasks submitted through execute(Runnable).
+  private static final String ANONYMOUS_USER = "";
+
+  // The maximum number of active tasks. 0 means unlimited.
+  private final int maxActiveTasks;
+
+  // The maximum number of queued tasks. 0 means no queueing.
+  private final int maxQueuedTasks;
+
+  // The maximum number of queued tasks per user. 0 means only maxQueuedTasks applies.
+  private final int maxQueuedTasksPerUser;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(BuildScheduler.class.getName());
+
+  // All of the fields below are guarded by lock.
+  private final Object lock = new Object();
+
+  private final Lane priorityLane = new Lane();
+  private final Lane normalLane = new Lane();
+
+  private int activeTaskCount = 0;
+  private int completedTaskCount = 0;
+  private int queuedTaskCount = 0;
+
+  // Ring buffer of the most recent queue wait times, in milliseconds.
+  private final long[] waitTimes = new long[WAIT_TIME_SAMPLES];
+  private int waitTimeCount = 0;
+  private int nextWaitTime = 0;
+
+  /**
+   * Creates a BuildScheduler.
+   *
+   * @param maxActiveTasks the maximum number of active tasks, 0 for unlimited
+   * @param maxQueuedTasks the maximum number of queued tasks, 0 for no queue
+   * @param maxQueuedTasksPerUser the maximum number of queued tasks for a
+   *     single user, 0 for no per-user limit
+   */
+  BuildScheduler(int maxActiveTasks, int maxQueuedTasks, int maxQueuedTasksPerUser) {
+    this.maxActiveTasks = maxActiveTasks;
+    this.maxQueuedTasks = maxQueuedTasks;
+    this.maxQueuedTasksPerUser = maxQueuedTasksPerUser;
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    execute(ANONYMOUS_USER, false, runnable);
+  }
+
+  /**
+   * Runs the given task now if the executor is below maximum capacity,
+   * otherwise queues it.
+   *
+   * @param userName the user that submitted the task, used for fairness
+   * @param priority whether the task goes in the priority lane
+   * @param runnable the task
+   * @throws RejectedExecutionException if the task can be neither started nor
+   *     queued
+   */
+  public void execute(String userName, boolean priority, Runnable runnable) {
+    if (userName == null) {
+      userName = ANONYMOUS_USER;
+    }
+    Task task = new Task(userName, runnable);
+    synchronized (lock) {
+      if (maxActiveTasks == 0 || activeTaskCount < maxActiveTasks) {
+        activeTaskCount++;
+        recordWaitTime(0);
+        startWorker(task);
+        return;
+      }
+      Lane lane = priority ? priorityLane : normalLane;
+      if (queuedTaskCount >= maxQueuedTasks
+          || (maxQueuedTasksPerUser > 0
+              && priorityLane.queuedCount(userName) + normalLane.queuedCount(userName)
+              >= maxQueuedTasksPerUser)) {
+        // If the executor is at maximum capacity and the task cannot be queued, reject it.
+        throw new RejectedExecutionException();
+      }
+      lane.add(task);
+      queuedTaskCount++;
+      LOG.info("Queued build for " + (priority ? "priority" : "normal") + " lane, "
+          + queuedTaskCount + " build(s) waiting");
+    }
+  }
+
+  private void startWorker(Task firstTask) {
+    final Task initialTask = firstTask;
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Task task = initialTask;
+        while (task != null) {
+          try {
+            task.runnable.run();
+          } catch (RuntimeException e) {
+            LOG.severe("Build task threw " + e);
+          }
+          task = finishTask();
+        }
+      }
+    });
+    thread.start();
+  }
+
+  /**
+   * Records the completion of a task and returns the next queued task to run
+   * on the same thread, or null if the queue is empty.
+   */
+  private Task finishTask() {
+    synchronized (lock) {
+      completedTaskCount++;
+      Task next = priorityLane.poll();
+      if (next == null) {
+        next = normalLane.poll();
+      }
+      if (next == null) {
+        activeTaskCount--;
+        return null;
+      }
+      queuedTaskCount--;
+      recordWaitTime(System.currentTimeMillis() - next.enqueueTime);
+      return next;
+    }
+  }
+
+  private void recordWaitTime(long waitMillis) {
+    waitTimes[nextWaitTime] = waitMillis;
+    nextWaitTime = (nextWaitTime + 1) % WAIT_TIME_SAMPLES;
+    if (waitTimeCount < WAIT_TIME_SAMPLES) {
+      waitTimeCount++;
+    }
+  }
+
+  public int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  public int getActiveTaskCount() {
+    synchronized (lock) {
+      return activeTaskCount;
+    }
+  }
+
+  public int getCompletedTaskCount() {
+    synchronized (lock) {
+      return completedTaskCount;
+    }
+  }
+
+  public int getQueuedTaskCount() {
+    synchronized (lock) {
+      return queuedTaskCount;
+    }
+  }
+
+  public int getQueuedPriorityTaskCount() {
+    synchronized (lock) {
+      return priorityLane.size();
+    }
+  }
+
+  /**
+   * Returns the given percentile of the recent queue wait times, in
+   * milliseconds. Tasks that started immediately count as a wait of 0.
+   *
+   * @param percentile a value between 0 and 100
+   * @return the wait time, or 0 if no task has been started yet
+   */
+  public long getWaitTimePercentile(int percentile) {
+    long[] samples;
+    synchronized (lock) {
+      samples = Arrays.copyOf(waitTimes, waitTimeCount);
+    }
+    if (samples.length == 0) {
+      return 0;
+    }
+    Arrays.sort(samples);
+    int index = (int) Math.ceil(percentile / 100.0 * samples.length) - 1;
+    return samples[Math.max(0, Math.min(index, samples.length - 1))];
+  }
+
+  private static class Task {
+    private final String userName;
+    private final Runnable runnable;
+    private final long enqueueTime = System.currentTimeMillis();
+
+    private Task(String userName, Runnable runnable) {
+      this.userName = userName;
+      this.runnable = runnable;
+    }
+  }
+
+  /**
+   * The queued tasks of one lane, kept per user. Users are served in
+   * round-robin order: after a user's task is taken, the user moves to the
+   * back of the line.
+   */
+  private static class Lane {
+    private final LinkedHashMap<String, ArrayDeque<Task>> tasksByUser =
+        new LinkedHashMap<String, ArrayDeque<Task>>();
+    private int size = 0;
+
+    void add(Task task) {
+      ArrayDeque<Task> tasks = tasksByUser.get(task.userName);
+      if (tasks == null) {
+        tasks = new ArrayDeque<Task>();
+        tasksByUser.put(task.userName, tasks);
+      }
+      tasks.add(task);
+      size++;
+    }
+
+    Task poll() {
+      Iterator<Map.Entry<String, ArrayDeque<Task>>> iterator = tasksByUser.entrySet().iterator();
+      if (!iterator.hasNext()) {
+        return null;
+      }
+      Map.Entry<String, ArrayDeque<Task>> entry = iterator.next();
+      String userName = entry.getKey();
+      ArrayDeque<Task> tasks = entry.getValue();
+      Task task = tasks.poll();
+      iterator.remove();
+      if (!tasks.isEmpty()) {
+        // Move the user to the back of the line.
+        tasksByUser.put(userName, tasks);
+      }
+      size--;
+      return task;
+    }
+
+    int queuedCount(String userName) {
+      ArrayDeque<Task> tasks = tasksByUser.get(userName);
+      return tasks == null ? 0 : tasks.size();
+    }
+
+    int size() {
+      return size;
+    }
+  }
+}
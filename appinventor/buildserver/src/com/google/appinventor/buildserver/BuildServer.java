@@ -135,6 +135,30 @@ public class BuildServer {
       usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that can wait for a free build slot. 0 means builds are rejected when all slots are busy.")
+    int maxQueuedBuilds = 0;
+
+    @Option(name = "--maxQueuedBuildsPerUser",
+      usage = "Maximum number of builds a single user can have waiting for a free build slot. 0 means no per-user limit.")
+    int maxQueuedBuildsPerUser = 0;
+
+    @Option(name = "--maxChildProcesses",
+      usage = "Maximum number of Kawa or dx processes that can run in parallel. 0 means one per processor.")
+    int maxChildProcesses = 0;
+
+    @Option(name = "--childProcessRamBudgetMb",
+      usage = "Total ram that can be used by Kawa and dx processes, in MB. 0 means the physical memory not used by the build server.")
+    int childProcessRamBudgetMb = 0;
+
+    @Option(name = "--kawaWorkers",
+      usage = "Maximum number of idle Kawa compiler processes kept warm between builds. 0 means every build starts a new Kawa process. Each one can use childProcessRamMb of ram, which counts toward childProcessRamBudgetMb.")
+    int kawaWorkers = 0;
+
+    @Option(name = "--kawaWorkerMaxCompiles",
+      usage = "Number of builds after which a Kawa compiler process is replaced.")
+    int kawaWorkerMaxCompiles = 50;
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -151,6 +175,14 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--dexCacheMaxSizeMb",
+            usage = "the maximum size of the cached classes and dex files of earlier builds in the dex cache directory, in MB. 0 means unlimited.")
+    int dexCacheMaxSizeMb = 0;
+
+    @Option(name = "--resourceDir",
+            usage = "the directory that the runtime libraries and tools are extracted to. Files extracted by an earlier run are reused if unchanged. Defaults to a directory in java.io.tmpdir.")
+    String resourceDir = null;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -182,11 +214,11 @@ public class BuildServer {
   //The number of failed build requests for this server run
   private static int maximumActiveBuildTasks = 0;
 
-  // The build executor used to limit the number of simultaneous builds.
+  // The build executor used to limit the number of simultaneous builds and queue the excess.
   // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static BuildScheduler buildExecutor;
 
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
@@ -311,6 +343,35 @@ public class BuildServer {
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
     variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
 
+    // Build queue
+    variables.put("maximum-queued-build-tasks-allowed", buildExecutor.getMaxQueuedTasks() + "");
+    variables.put("queued-build-tasks", buildExecutor.getQueuedTaskCount() + "");
+    variables.put("queued-priority-build-tasks", buildExecutor.getQueuedPriorityTaskCount() + "");
+    variables.put("queue-wait-ms-p50", buildExecutor.getWaitTimePercentile(50) + "");
+    variables.put("queue-wait-ms-p90", buildExecutor.getWaitTimePercentile(90) + "");
+    variables.put("queue-wait-ms-p99", buildExecutor.getWaitTimePercentile(99) + "");
+
+    // Kawa and dx child processes
+    ChildProcessScheduler childProcessScheduler = ChildProcessScheduler.getInstance();
+    variables.put("maximum-child-processes-allowed", childProcessScheduler.getMaxStages() + "");
+    variables.put("child-process-ram-budget-mb", childProcessScheduler.getRamBudgetMb() + "");
+    variables.put("active-child-processes", childProcessScheduler.getRunningStages() + "");
+    variables.put("reserved-child-process-ram-mb", childProcessScheduler.getReservedRamMb() + "");
+    variables.put("idle-child-process-ram-mb", childProcessScheduler.getIdleRamMb() + "");
+
+    // Dex cache
+    variables.put("build-cache-hits", BuildCache.getHitCount() + "");
+    variables.put("build-cache-misses", BuildCache.getMissCount() + "");
+
+    // Kawa compiler workers
+    KawaCompilerPool kawaCompilerPool = KawaCompilerPool.getInstance();
+    if (kawaCompilerPool != null) {
+      variables.put("idle-kawa-workers", kawaCompilerPool.getIdleWorkerCount() + "");
+      variables.put("started-kawa-workers", kawaCompilerPool.getWorkerStartCount() + "");
+      variables.put("kawa-worker-compiles", kawaCompilerPool.getWorkerCompileCount() + "");
+      variables.put("failed-kawa-worker-compiles", kawaCompilerPool.getFailedCompileCount() + "");
+    }
+
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
     for (Map.Entry<String, String> variable : variables.entrySet()) {
@@ -491,6 +552,8 @@ public class BuildServer {
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
+   * @param priority  Whether the build is started ahead of other queued builds. Sent by
+   *     YoungAndroidProjectService.build.
    * @param inputZipFile  The zip file representing the App Inventor source code.
    * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
    */
@@ -501,6 +564,7 @@ public class BuildServer {
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
+    @QueryParam("priority") final boolean priority,
     final File inputZipFile) throws IOException {
     // Set the inputZip field so we can delete the input zip file later in
     // cleanUp.
@@ -602,10 +666,10 @@ public class BuildServer {
           }
         };
       try {
-        buildExecutor.execute(buildTask);
+        buildExecutor.execute(userName, priority, buildTask);
       } catch (RejectedExecutionException e) {
         // This request was rejected because all threads in the build
-        // executor are busy.
+        // executor are busy and the build queue is full.
         rejectedAsyncBuildRequests.incrementAndGet();
         cleanUp();
         // Here, we use SERVICE_UNAVAILABLE (response code 503), which
@@ -746,7 +810,7 @@ public class BuildServer {
             return;
           }
           while (true) {
-            int tasks = buildExecutor.getActiveTaskCount();
+            int tasks = buildExecutor.getActiveTaskCount() + buildExecutor.getQueuedTaskCount();
             if (tasks <= 0) {
               try {
                 Thread.sleep(10000); // One final wait so people can get
@@ -766,7 +830,16 @@ public class BuildServer {
 
 
     // Now that the command line options have been processed, we can create the buildExecutor.
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    buildExecutor = new BuildScheduler(commandLineOptions.maxSimultaneousBuilds,
+        commandLineOptions.maxQueuedBuilds, commandLineOptions.maxQueuedBuildsPerUser);
+    ChildProcessScheduler.configure(commandLineOptions.maxChildProcesses,
+        commandLineOptions.childProcessRamBudgetMb);
+    BuildCache.setMaxSizeMb(commandLineOptions.dexCacheMaxSizeMb);
+    if (commandLineOptions.resourceDir != null) {
+      Compiler.setResourceDir(commandLineOptions.resourceDir);
+    }
+    KawaCompilerPool.configure(commandLineOptions.kawaWorkers,
+        commandLineOptions.kawaWorkerMaxCompiles);
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
@@ -778,6 +851,7 @@ public class BuildServer {
       LOG.info("Maximum simultanous builds = unlimited!");
     } else {
       LOG.info("Maximum simultanous builds = " + commandLineOptions.maxSimultaneousBuilds);
+      LOG.info("Maximum queued builds = " + commandLineOptions.maxQueuedBuilds);
     }
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/health for server health");
@@ -812,7 +886,8 @@ public class BuildServer {
                                 // (unlimited == 0) and allow more then 10 max builds
         return ShutdownState.UP;
       }
-      int active = buildExecutor.getActiveTaskCount();
+      // Queued builds count toward the load, since they will occupy a slot as soon as one frees up.
+      int active = buildExecutor.getActiveTaskCount() + buildExecutor.getQueuedTaskCount();
       if (draining) {
         if (active < max/3) {
           draining = false;
@@ -0,0 +1,301 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Limits the heavyweight child-process stages of a build (Kawa and dx) by CPU
+ * and RAM budget.
+ *
+ * <p>Each stage reserves one CPU slot and the amount of RAM its child process
+ * may use. A stage waits until both are available, so unrelated builds can run
+ * their Kawa and dx stages at the same time as long as the machine has room for
+ * them. A stage is always admitted when no other stage is running, even if it
+ * asks for more RAM than the budget.</p>
+ *
+ * <p>Idle child processes that are kept running between builds, such as warm
+ * Kawa compiler workers, also hold RAM reservations. When a stage cannot start
+ * because of the RAM they hold, the scheduler asks their owner to stop one of
+ * them.</p>
+ *
+ * <p>The scheduler is shared by all builds in the process. The build server
+ * configures it from its command line options; otherwise it defaults to one
+ * slot per processor and the physical memory not used by this JVM.</p>
+ */
+final class ChildProcessScheduler {
+  private static final long MB = 1024 * 1024;
+
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(ChildProcessScheduler.class.getName());
+
+  private static volatile ChildProcessScheduler instance;
+
+  // The maximum number of stages that can run at once.
+  private final int maxStages;
+
+  // The RAM that can be reserved by running stages, in MB. 0 means unlimited.
+  private final long ramBudgetMb;
+
+  // The fields below are guarded by this.
+  private int runningStages = 0;
+  private long reservedRamMb = 0;
+  private long idleRamMb = 0;
+  private IdleProcesses idleProcesses;
+
+  /**
+   * The owner of idle child processes that hold RAM reservations.
+   */
+  interface IdleProcesses {
+    /**
+     * Stops one idle process and releases its reservation.
+     *
+     * @return true if a process was stopped, false if there were none
+     */
+    boolean stopOne();
+  }
+
+  /**
+   * Creates a ChildProcessScheduler.
+   *
+   * @param maxStages the maximum number of stages that can run at once,
+   *     0 for one per available processor
+   * @param ramBudgetMb the RAM that can be reserved by running stages, in MB,
+   *     0 for the physical memory not used by this JVM
+   */
+  ChildProcessScheduler(int maxStages, long ramBudgetMb) {
+    this.maxStages = maxStages > 0 ? maxStages : Runtime.getRuntime().availableProcessors();
+    this.ramBudgetMb = ramBudgetMb > 0 ? ramBudgetMb : getDefaultRamBudgetMb();
+  }
+
+  /**
+   * Replaces the shared scheduler. Must be called before the first build
+   * starts.
+   */
+  static void configure(int maxStages, long ramBudgetMb) {
+    instance = new ChildProcessScheduler(maxStages, ramBudgetMb);
+    LOG.info("Child process stages: at most " + instance.maxStages + " at once, RAM budget "
+        + (instance.ramBudgetMb == 0 ? "unlimited" : instance.ramBudgetMb + " MB"));
+  }
+
+  /**
+   * Returns the shared scheduler, creating one with the default budget if
+   * {@link #configure} has not been called.
+   */
+  static ChildProcessScheduler getInstance() {
+    if (instance == null) {
+      synchronized (ChildProcessScheduler.class) {
+        if (instance == null) {
+          instance = new ChildProcessScheduler(0, 0);
+        }
+      }
+    }
+    return instance;
+  }
+
+  private static long getDefaultRamBudgetMb() {
+    OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+    if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+      long totalMb = ((com.sun.management.OperatingSystemMXBean) osBean)
+          .getTotalPhysicalMemorySize() / MB;
+      long heapMb = Runtime.getRuntime().maxMemory() / MB;
+      return Math.max(totalMb - heapMb, 1);
+    }
+    return 0;
+  }
+
+  /**
+   * Waits until a stage needing {@code ramMb} of RAM can run and reserves its
+   * resources. The caller must call {@link Stage#release()} when the child
+   * process has finished.
+   *
+   * @param name the stage name, used in log messages
+   * @param ramMb the RAM the stage's child process may use, in MB
+   * @return the running stage
+   * @throws InterruptedException if interrupted while waiting
+   */
+  Stage acquire(String name, long ramMb) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    while (true) {
+      IdleProcesses toStop = null;
+      synchronized (this) {
+        if (canStart(ramMb)) {
+          runningStages++;
+          reservedRamMb += ramMb;
+          break;
+        }
+        if (runningStages < maxStages && idleRamMb > 0 && idleProcesses != null) {
+          toStop = idleProcesses;
+        } else {
+          wait();
+        }
+      }
+      // Stop an idle process outside the lock, since its owner calls back into the scheduler.
+      if (toStop != null && !toStop.stopOne()) {
+        // The remaining idle RAM belongs to a process that is about to run a stage.
+        synchronized (this) {
+          if (!canStart(ramMb)) {
+            wait();
+          }
+        }
+      }
+    }
+    return new Stage(name, ramMb, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Waits until a stage can run in an idle process that already holds a RAM
+   * reservation of {@code ramMb}, made with {@link #reserveIdle}, and turns
+   * that reservation into the stage's reservation.
+   *
+   * @param name the stage name, used in log messages
+   * @param ramMb the RAM reserved for the idle process, in MB
+   * @return the running stage
+   * @throws InterruptedException if interrupted while waiting; the idle
+   *     reservation is kept
+   */
+  Stage acquireIdle(String name, long ramMb) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    synchronized (this) {
+      while (runningStages >= maxStages) {
+        wait();
+      }
+      runningStages++;
+      idleRamMb -= ramMb;
+      reservedRamMb += ramMb;
+    }
+    return new Stage(name, ramMb, System.currentTimeMillis() - start);
+  }
+
+  /**
+   * Reserves RAM for an idle process if the budget has room for it.
+   *
+   * @param ramMb the RAM the process may use, in MB
+   * @return true if the RAM was reserved; false if the process must not be
+   *     kept
+   */
+  synchronized boolean reserveIdle(long ramMb) {
+    if (!fits(ramMb)) {
+      return false;
+    }
+    idleRamMb += ramMb;
+    return true;
+  }
+
+  /**
+   * Releases the reservation of an idle process that has been stopped.
+   */
+  synchronized void releaseIdle(long ramMb) {
+    idleRamMb -= ramMb;
+    notifyAll();
+  }
+
+  synchronized void setIdleProcesses(IdleProcesses idleProcesses) {
+    this.idleProcesses = idleProcesses;
+  }
+
+  private boolean canStart(long ramMb) {
+    return runningStages == 0 || (runningStages < maxStages && fits(ramMb));
+  }
+
+  private boolean fits(long ramMb) {
+    return ramBudgetMb == 0 || reservedRamMb + idleRamMb + ramMb <= ramBudgetMb;
+  }
+
+  private synchronized void release(long ramMb, boolean keepIdle) {
+    runningStages--;
+    reservedRamMb -= ramMb;
+    if (keepIdle) {
+      idleRamMb += ramMb;
+    }
+    notifyAll();
+  }
+
+  int getMaxStages() {
+    return maxStages;
+  }
+
+  long getRamBudgetMb() {
+    return ramBudgetMb;
+  }
+
+  synchronized int getRunningStages() {
+    return runningStages;
+  }
+
+  synchronized long getReservedRamMb() {
+    return reservedRamMb;
+  }
+
+  synchronized long getIdleRamMb() {
+    return idleRamMb;
+  }
+
+  /**
+   * A stage holding a CPU slot and a RAM reservation.
+   */
+  final class Stage {
+    private final String name;
+    private final long ramMb;
+    private final long waitMillis;
+    private final long startTime = System.currentTimeMillis();
+    private long runMillis = -1;
+
+    private Stage(String name, long ramMb, long waitMillis) {
+      this.name = name;
+      this.ramMb = ramMb;
+      this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Releases the stage's resources. Calling this more than once has no
+     * effect.
+     */
+    void release() {
+      release(false);
+    }
+
+    /**
+     * Releases the stage's CPU slot but keeps its RAM reserved for the child
+     * process, which stays running idle. The reservation must later be
+     * released with {@link ChildProcessScheduler#releaseIdle} or reused with
+     * {@link ChildProcessScheduler#acquireIdle}. Has no effect if the stage has
+     * already been released.
+     */
+    void releaseToIdle() {
+      release(true);
+    }
+
+    private void release(boolean keepIdle) {
+      if (runMillis >= 0) {
+        return;
+      }
+      runMillis = System.currentTimeMillis() - startTime;
+      ChildProcessScheduler.this.release(ramMb, keepIdle);
+      LOG.info(getTimeMessage());
+    }
+
+    long getWaitMillis() {
+      return waitMillis;
+    }
+
+    /**
+     * Returns a message with the time the stage spent waiting for resources
+     * and, once released, the time it spent running.
+     */
+    String getTimeMessage() {
+      String message = String.format(Locale.getDefault(), "%s wait time: %f seconds", name,
+          waitMillis / 1000.0);
+      if (runMillis >= 0) {
+        message += String.format(Locale.getDefault(), ", run time: %f seconds",
+            runMillis / 1000.0);
+      }
+      return message;
+    }
+  }
+}
@@ -18,6 +18,8 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
 import java.awt.Graphics2D;
@@ -42,9 +44,11 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -55,11 +59,13 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import javax.imageio.ImageIO;
+import org.apache.commons.io.FileUtils;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
@@ -86,9 +92,6 @@ public final class Compiler {
 
   public static int currentProgress = 10;
 
-  // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
-  private static final Object SYNC_KAWA_OR_DX = new Object();
-
   private static final String SLASH = File.separator;
   private static final String COLON = File.pathSeparator;
   private static final String ZIPSLASH = "/";
@@ -196,6 +199,9 @@ public final class Compiler {
   @VisibleForTesting
   static final String YAIL_RUNTIME = RUNTIME_FILES_DIR + "runtime.scm";
 
+  // The class that Kawa generates from runtime.scm.
+  private static final String YAIL_RUNTIME_CLASS = "com.google.youngandroid.runtime";
+
   private final ConcurrentMap<String, Set<String>> assetsNeeded =
       new ConcurrentHashMap<String, Set<String>>();
   private final ConcurrentMap<String, Set<String>> activitiesNeeded =
@@ -264,13 +270,38 @@ public final class Compiler {
 
   /**
    * Map used to hold the names and paths of resources that we've written out
-   * as temp files.
+   * to the resource directory.
    * Don't use this map directly. Please call getResource() with one of the
-   * constants above to get the (temp file) path to a resource.
+   * constants above to get the (extracted file) path to a resource.
    */
   private static final ConcurrentMap<String, File> resources =
       new ConcurrentHashMap<String, File>();
 
+  /**
+   * Locks held while a resource is extracted, so that each resource is
+   * extracted once without making lookups of other resources wait.
+   */
+  private static final ConcurrentMap<String, Object> resourceLocks =
+      new ConcurrentHashMap<String, Object>();
+
+  // Number of versions of each resource kept in the resource directory. Older versions are left
+  // there by earlier releases of the build server.
+  private static final int RESOURCE_VERSIONS_KEPT = 2;
+
+  // The resource directory is shared by the build servers on a machine, and one that is still
+  // running an earlier release may be using an older version. A version is only deleted once it
+  // has gone unused for this long, and each build server marks the versions it uses as used
+  // at least once every RESOURCE_TOUCH_INTERVAL_MILLIS.
+  @VisibleForTesting
+  static final long RESOURCE_GRACE_PERIOD_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final long RESOURCE_TOUCH_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private static volatile File resourceDir =
+      new File(System.getProperty("java.io.tmpdir"), "appinventor-resources");
+
+  // When the versions of the extracted resources were last marked as used.
+  private static volatile long resourcesTouchedMillis = System.currentTimeMillis();
+
   // TODO(user,lizlooney): i18n here and in lines below that call String.format(...)
   private static final String COMPILATION_ERROR =
       "Error: Your build failed due to an error when compiling %s.\n";
@@ -1683,6 +1714,7 @@ public final class Compiler {
     try {
       List<Project.SourceDescriptor> sources = project.getSources();
       List<String> sourceFileNames = Lists.newArrayListWithCapacity(sources.size());
+      List<String> sourceFileRelativePaths = Lists.newArrayListWithCapacity(sources.size());
       List<String> classFileNames = Lists.newArrayListWithCapacity(sources.size());
       boolean userCodeExists = false;
       for (Project.SourceDescriptor source : sources) {
@@ -1711,6 +1743,7 @@ public final class Compiler {
           }
         }
         sourceFileNames.add(sourceFileName);
+        sourceFileRelativePaths.add(sourceFileRelativePath);
         classFileNames.add(classFileName);
       }
 
@@ -1784,25 +1817,133 @@ public final class Compiler {
       System.out.println("Libraries Classpath = " + classpath);
 
       String yailRuntime = getResource(YAIL_RUNTIME);
-      List<String> kawaCommandArgs = Lists.newArrayList();
+      String packagePrefix = Signatures.getPackageName(project.getMainClass()) + ".";
+
+      // Reuse the classes of screens whose YAIL has not changed since an earlier build with the
+      // same classpath. Only the other screens need to be compiled.
+      List<String> kawaSourceFileNames = sourceFileNames;
+      List<Integer> compiledScreens = Lists.newArrayList();
+      List<String> screenHashes = Lists.newArrayList();
+      BuildCache classCache = null;
+      String runtimeHash = null;
+      boolean runtimeCached = false;
+      if (dexCacheDir != null) {
+        classCache = new BuildCache(new File(dexCacheDir, "classes"));
+        List<File> environment = Lists.newArrayList();
+        for (String path : classpath.toString().split(COLON)) {
+          environment.add(new File(path));
+        }
+        environment.add(new File(yailRuntime));
+        String environmentHash = BuildCache.hash(Collections.singletonList(packagePrefix),
+            environment);
+        kawaSourceFileNames = Lists.newArrayList();
+        for (int i = 0; i < sourceFileNames.size(); i++) {
+          String screenHash = BuildCache.hash(
+              Arrays.asList(environmentHash, sourceFileRelativePaths.get(i)),
+              Collections.singletonList(new File(sourceFileNames.get(i))));
+          if (!classCache.restore(screenHash, classesDir)) {
+            kawaSourceFileNames.add(sourceFileNames.get(i));
+            compiledScreens.add(i);
+            screenHashes.add(screenHash);
+          }
+        }
+        runtimeHash = BuildCache.hash(Arrays.asList(environmentHash, YAIL_RUNTIME),
+            Collections.<File>emptyList());
+        runtimeCached = kawaSourceFileNames.isEmpty() && classCache.restore(runtimeHash, classesDir);
+        String cacheMessage = "Reused cached classes for "
+            + (sourceFileNames.size() - kawaSourceFileNames.size()) + " of "
+            + sourceFileNames.size() + " screens";
+        out.println(cacheMessage);
+        LOG.info(cacheMessage);
+      }
+
+      if (!runtimeCached && !compileYail(classesDir, classpath.toString(), yailRuntime,
+          packagePrefix, kawaSourceFileNames)) {
+        return false;
+      }
+
+      // Check that all of the class files were created.
+      // If they weren't, return with an error.
+      for (String classFileName : classFileNames) {
+        File classFile = new File(classFileName);
+        if (!classFile.exists()) {
+          LOG.log(Level.INFO, "Can't find class file: " + classFileName);
+          String screenName = classFileName.substring(classFileName.lastIndexOf('/') + 1,
+              classFileName.lastIndexOf('.'));
+          userErrors.print(String.format(COMPILATION_ERROR, screenName));
+          return false;
+        }
+      }
+
+      if (classCache != null) {
+        for (int i = 0; i < compiledScreens.size(); i++) {
+          File classFile = new File(classFileNames.get(compiledScreens.get(i)));
+          classCache.store(screenHashes.get(i), classesDir, getClassFiles(classFile));
+        }
+        if (!runtimeCached) {
+          File runtimeClassFile = new File(classesDir,
+              YAIL_RUNTIME_CLASS.replace('.', '/') + ".class");
+          classCache.store(runtimeHash, classesDir, getClassFiles(runtimeClassFile));
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      userErrors.print(String.format(ERROR_IN_STAGE, "Compile"));
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the given class file and the class files of its inner classes.
+   */
+  private static List<File> getClassFiles(File classFile) {
+    final String className = classFile.getName().substring(0,
+        classFile.getName().length() - ".class".length());
+    List<File> classFiles = Lists.newArrayList();
+    File[] files = classFile.getParentFile().listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.equals(className + ".class")
+            || (name.startsWith(className + "$") && name.endsWith(".class"));
+      }
+    });
+    if (files != null) {
+      Collections.addAll(classFiles, files);
+    }
+    return classFiles;
+  }
+
+  /*
+   * Runs the Kawa compiler to compile the given YAIL files and the YAIL runtime into classesDir.
+   * Returns false if not able to run the compiler.
+   */
+  private boolean compileYail(File classesDir, String classpath, String yailRuntime,
+      String packagePrefix, List<String> sourceFileNames) {
+    try {
+      String javaCommand = System.getProperty("java.home") + "/bin/java";
       int mx = childProcessRamMb - 200;
-      Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-Dfile.encoding=UTF-8",
-          "-mx" + mx + "M",
-          "-cp", classpath.toString(),
-          "kawa.repl",
-          "-f", yailRuntime,
+      List<String> kawaJvmOptions = Lists.newArrayList("-Dfile.encoding=UTF-8", "-mx" + mx + "M");
+      List<String> kawaCompileArgs = Lists.newArrayList();
+      Collections.addAll(kawaCompileArgs,
           "-d", classesDir.getAbsolutePath(),
-          "-P", Signatures.getPackageName(project.getMainClass()) + ".",
+          "-P", packagePrefix,
           "-C");
       // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
       // source file names. The resulting .class files contain references to the source file names,
       // including the name of the tmp directory that contains them. We may be able to avoid that
       // by using source file names that are relative to the project root and using the project
       // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
+      kawaCompileArgs.addAll(sourceFileNames);
+      kawaCompileArgs.add(yailRuntime);
+      List<String> kawaCommandArgs = Lists.newArrayList(javaCommand);
+      kawaCommandArgs.addAll(kawaJvmOptions);
+      Collections.addAll(kawaCommandArgs,
+          "-cp", classpath,
+          "kawa.repl",
+          "-f", yailRuntime);
+      kawaCommandArgs.addAll(kawaCompileArgs);
       String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
 
       long start = System.currentTimeMillis();
@@ -1811,9 +1952,29 @@ public final class Compiler {
       // buildserver/ProjectBuilder.processCompilerOutout.
       ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
       boolean kawaSuccess;
-      synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+      // Use a warm compiler worker if there is one. The pool waits for the Kawa stage itself. The
+      // classpath of projects with extensions points into the project directory, so no worker
+      // could ever be reused for them.
+      KawaCompilerPool.Result poolResult = KawaCompilerPool.Result.NOT_RUN;
+      KawaCompilerPool kawaCompilerPool = KawaCompilerPool.getInstance();
+      if (kawaCompilerPool != null && extCompTypes.isEmpty() && explodedAarLibs.size() == 0) {
+        poolResult = kawaCompilerPool.compile(javaCommand, kawaJvmOptions, classpath,
+            yailRuntime, kawaCompileArgs, childProcessRamMb, System.out,
+            new PrintStream(kawaOutputStream));
+      }
+      if (poolResult == KawaCompilerPool.Result.NOT_RUN) {
+        // Kawa processes can use a lot of memory. Wait until the machine has room for one more.
+        ChildProcessScheduler.Stage kawaStage =
+            ChildProcessScheduler.getInstance().acquire("Kawa", childProcessRamMb);
+        try {
+          kawaSuccess = Execution.execute(null, kawaCommandLine,
+              System.out, new PrintStream(kawaOutputStream));
+        } finally {
+          kawaStage.release();
+        }
+        out.println(kawaStage.getTimeMessage());
+      } else {
+        kawaSuccess = poolResult == KawaCompilerPool.Result.SUCCEEDED;
       }
       if (!kawaSuccess) {
         LOG.log(Level.SEVERE, "Kawa compile has failed.");
@@ -1824,21 +1985,8 @@ public final class Compiler {
           ((System.currentTimeMillis() - start) / 1000.0) + " seconds";
       out.println(kawaCompileTimeMessage);
       LOG.info(kawaCompileTimeMessage);
-
-      // Check that all of the class files were created.
-      // If they weren't, return with an error.
-      for (String classFileName : classFileNames) {
-        File classFile = new File(classFileName);
-        if (!classFile.exists()) {
-          LOG.log(Level.INFO, "Can't find class file: " + classFileName);
-          String screenName = classFileName.substring(classFileName.lastIndexOf('/') + 1,
-              classFileName.lastIndexOf('.'));
-          userErrors.print(String.format(COMPILATION_ERROR, screenName));
-          return false;
-        }
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       userErrors.print(String.format(ERROR_IN_STAGE, "Compile"));
       return false;
     }
@@ -2196,15 +2344,25 @@ public final class Compiler {
         createDir(new File(dexCacheDir));
         dexTask.setDexedLibs(dexCacheDir);
       }
-      String dxTimeMessage;
-      synchronized (SYNC_KAWA_OR_DX) {
-        setProgress(50);
-        long startDx = System.currentTimeMillis();
-        success = dexTask.execute(inputList);
-        dxTimeMessage = String.format(Locale.getDefault(), "DX time: %f seconds",
-            (System.currentTimeMillis() - startDx) / 1000.0);
-        setProgress(75);
+      // Reuse the dex files of an earlier build with exactly the same classes and libraries, for
+      // example one where only the assets or the project properties changed.
+      BuildCache dexCache = null;
+      String dexHash = null;
+      boolean dexCached = false;
+      if (dexCacheDir != null) {
+        dexCache = new BuildCache(new File(dexCacheDir, "dex"));
+        List<File> dxInputs = new ArrayList<>(inputList);
+        dxInputs.add(new File(getResource(DX_JAR)));
+        dexHash = BuildCache.hash(Collections.<String>emptyList(), dxInputs);
+        dexCached = dexCache.restore(dexHash, new File(dexedClassesDir));
       }
+      // Each dx process started by the DexExecTask waits for room in the ChildProcessScheduler.
+      setProgress(50);
+      long startDx = System.currentTimeMillis();
+      success = dexCached || dexTask.execute(inputList);
+      String dxTimeMessage = String.format(Locale.getDefault(), "DX time: %f seconds%s",
+          (System.currentTimeMillis() - startDx) / 1000.0, dexCached ? " (cached)" : "");
+      setProgress(75);
 
       // Aggregate all of the classes.dex files output by dx
       File[] files = new File(dexedClassesDir).listFiles(new FilenameFilter() {
@@ -2217,6 +2375,9 @@ public final class Compiler {
         throw new FileNotFoundException("Could not find classes.dex");
       }
       Collections.addAll(dexFiles, files);
+      if (success && dexCache != null && !dexCached) {
+        dexCache.store(dexHash, new File(dexedClassesDir), Arrays.asList(files));
+      }
 
       // Log status
       out.println(dxTimeMessage);
@@ -2496,45 +2657,133 @@ public final class Compiler {
   }
 
   /**
-   * Writes out the given resource as a temp file and returns the absolute path.
-   * Caches the location of the files, so we can reuse them.
+   * Sets the directory that resources are extracted to. Resources extracted
+   * there by an earlier run are reused if their contents are unchanged.
+   */
+  static void setResourceDir(String dir) {
+    resourceDir = new File(dir);
+  }
+
+  @VisibleForTesting
+  static String getResourceDir() {
+    return resourceDir.getPath();
+  }
+
+  /**
+   * Writes out the given resource to the resource directory and returns the
+   * absolute path. Caches the location of the files, so we can reuse them.
+   *
+   * <p>Each resource is written to a directory named by the SHA-1 hash of its
+   * contents, so a file left by an earlier run is used as is once its hash
+   * has been checked, and a changed resource never overwrites a file that
+   * another build server may be using.
    *
    * @param resourcePath the name of the resource
    */
-  static synchronized String getResource(String resourcePath) {
-    try {
-      File file = resources.get(resourcePath);
+  static String getResource(String resourcePath) {
+    File file = resources.get(resourcePath);
+    if (file != null) {
+      touchResources();
+      return file.getAbsolutePath();
+    }
+    Object lock = new Object();
+    Object existingLock = resourceLocks.putIfAbsent(resourcePath, lock);
+    if (existingLock != null) {
+      lock = existingLock;
+    }
+    synchronized (lock) {
+      file = resources.get(resourcePath);
       if (file == null) {
-        String basename = PathUtil.basename(resourcePath);
-        String prefix;
-        String suffix;
-        int lastDot = basename.lastIndexOf(".");
-        if (lastDot != -1) {
-          prefix = basename.substring(0, lastDot);
-          suffix = basename.substring(lastDot);
-        } else {
-          prefix = basename;
-          suffix = "";
+        file = extractResource(resourcePath);
+        resources.put(resourcePath, file);
+      }
+    }
+    return file.getAbsolutePath();
+  }
+
+  private static File extractResource(String resourcePath) {
+    URL url = Compiler.class.getResource(resourcePath);
+    if (url == null) {
+      throw new IllegalStateException("Unable to find required library: " + resourcePath);
+    }
+    try {
+      ByteSource source = Resources.asByteSource(url);
+      String hash = source.hash(Hashing.sha1()).toString();
+      // Versions of a resource are kept together, so old ones can be found and deleted.
+      File versionsDir = new File(resourceDir,
+          resourcePath.replaceAll("^/+", "").replaceAll("[^A-Za-z0-9._-]", "_"));
+      File file = new File(new File(versionsDir, hash), PathUtil.basename(resourcePath));
+      if (file.isFile()) {
+        if (Files.asByteSource(file).hash(Hashing.sha1()).toString().equals(hash)) {
+          file.setExecutable(true);
+          // Mark the version as recently used.
+          file.getParentFile().setLastModified(System.currentTimeMillis());
+          return file;
         }
-        while (prefix.length() < 3) {
-          prefix = prefix + "_";
+        LOG.warning("Replacing corrupt resource " + file);
+        if (!file.delete()) {
+          throw new IOException("Unable to delete " + file);
         }
-        file = File.createTempFile(prefix, suffix);
-        file.setExecutable(true);
-        file.deleteOnExit();
-        file.getParentFile().mkdirs();
-        Files.copy(Resources.newInputStreamSupplier(Compiler.class.getResource(resourcePath)),
-            file);
-        resources.put(resourcePath, file);
       }
-      return file.getAbsolutePath();
-    } catch (NullPointerException e) {
-      throw new IllegalStateException("Unable to find required library: " + resourcePath, e);
+      Files.createParentDirs(file);
+      // Write a staging file first, so no build ever sees a partial resource.
+      File staging = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      try {
+        source.copyTo(Files.asByteSink(staging));
+        staging.setExecutable(true);
+        if (!staging.renameTo(file) && !file.isFile()) {
+          throw new IOException("Unable to rename " + staging + " to " + file);
+        }
+      } finally {
+        staging.delete();
+      }
+      deleteOldResourceVersions(versionsDir);
+      return file;
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
+  /*
+   * Marks the versions of the resources extracted by this build server as
+   * used, so that other build servers sharing the resource directory don't
+   * delete them.
+   */
+  private static void touchResources() {
+    long now = System.currentTimeMillis();
+    if (now - resourcesTouchedMillis < RESOURCE_TOUCH_INTERVAL_MILLIS) {
+      return;
+    }
+    resourcesTouchedMillis = now;
+    for (File file : resources.values()) {
+      file.getParentFile().setLastModified(now);
+    }
+  }
+
+  /*
+   * Deletes the versions of a resource other than the most recently used
+   * ones that have not been used within the grace period.
+   */
+  @VisibleForTesting
+  static void deleteOldResourceVersions(File versionsDir) {
+    File[] versions = versionsDir.listFiles();
+    if (versions == null || versions.length <= RESOURCE_VERSIONS_KEPT) {
+      return;
+    }
+    Arrays.sort(versions, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(b.lastModified(), a.lastModified());
+      }
+    });
+    long cutoff = System.currentTimeMillis() - RESOURCE_GRACE_PERIOD_MILLIS;
+    for (int i = RESOURCE_VERSIONS_KEPT; i < versions.length; i++) {
+      if (versions[i].lastModified() < cutoff) {
+        FileUtils.deleteQuietly(versions[i]);
+      }
+    }
+  }
+
   private void ensureLib(String tempdir, String name, String resource) {
     try {
       File outFile = new File(tempdir, name);
@@ -232,7 +232,21 @@ public class DexExecTask {
         String[] dxCommandLine = new String[commandLineList.size()];
         commandLineList.toArray(dxCommandLine);
 
-        boolean dxSuccess = Execution.execute(null, dxCommandLine, System.out, System.err);
+        // dx processes can use a lot of memory. Wait until the machine has room for one more. The
+        // stage logs its wait and run times when it is released.
+        ChildProcessScheduler.Stage dxStage;
+        try {
+            dxStage = ChildProcessScheduler.getInstance().acquire("DX", mChildProcessRamMb);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        boolean dxSuccess;
+        try {
+            dxSuccess = Execution.execute(null, dxCommandLine, System.out, System.err);
+        } finally {
+            dxStage.release();
+        }
         return dxSuccess;
 
     }
@@ -0,0 +1,342 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of warm {@link KawaCompilerWorker} processes.
+ *
+ * <p>Starting a JVM and loading runtime.scm is a large part of every Kawa
+ * compile. The pool keeps idle workers that have already done both, keyed by
+ * their command line (the Kawa classpath and heap size), and hands one to
+ * each compile with a matching command line. Workers are retired after a
+ * fixed number of compiles, when their heap is nearly full, or when they stop
+ * responding, and a replacement is started right away so it warms up while
+ * idle. A compile that fails because of errors in the source is reported to
+ * the caller and does not retire the worker.</p>
+ *
+ * <p>Idle workers hold RAM reservations in the {@link ChildProcessScheduler},
+ * so they count toward the child process RAM budget. A worker is only kept if
+ * the budget has room for it, and the scheduler stops idle workers when a
+ * stage needs their RAM.</p>
+ *
+ * <p>The pool is disabled unless the build server configures it with
+ * {@code --kawaWorkers}. Callers fall back to a one-shot Kawa process when
+ * {@link #compile} returns {@link Result#NOT_RUN}.</p>
+ */
+final class KawaCompilerPool implements ChildProcessScheduler.IdleProcesses {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(KawaCompilerPool.class.getName());
+
+  private static final Joiner JOINER = Joiner.on(' ');
+
+  private static volatile KawaCompilerPool instance;
+
+  /**
+   * The outcome of {@link #compile}.
+   */
+  enum Result {
+    // The worker compiled the files.
+    SUCCEEDED,
+    // The worker found errors in the files and reported them.
+    FAILED,
+    // No worker could compile the files; the caller must use a one-shot Kawa process.
+    NOT_RUN
+  }
+
+  private final ChildProcessScheduler scheduler;
+
+  // The maximum number of idle workers.
+  private final int maxIdleWorkers;
+
+  // The number of compiles after which a worker is retired.
+  private final int maxCompilesPerWorker;
+
+  // Idle workers, least recently used first. Guarded by this.
+  private final LinkedList<Worker> idleWorkers = new LinkedList<Worker>();
+
+  private final AtomicInteger workerCompiles = new AtomicInteger(0);
+  private final AtomicInteger workerStarts = new AtomicInteger(0);
+  private final AtomicInteger failedCompiles = new AtomicInteger(0);
+
+  KawaCompilerPool(int maxIdleWorkers, int maxCompilesPerWorker,
+      ChildProcessScheduler scheduler) {
+    this.maxIdleWorkers = maxIdleWorkers;
+    this.maxCompilesPerWorker = Math.max(1, maxCompilesPerWorker);
+    this.scheduler = scheduler;
+    scheduler.setIdleProcesses(this);
+  }
+
+  /**
+   * Enables the pool. Must be called before the first build starts.
+   *
+   * @param maxIdleWorkers the maximum number of idle workers, 0 to disable
+   *     the pool
+   * @param maxCompilesPerWorker the number of compiles after which a worker
+   *     is replaced
+   */
+  static void configure(int maxIdleWorkers, int maxCompilesPerWorker) {
+    if (maxIdleWorkers <= 0) {
+      instance = null;
+      return;
+    }
+    final KawaCompilerPool pool = new KawaCompilerPool(maxIdleWorkers, maxCompilesPerWorker,
+        ChildProcessScheduler.getInstance());
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        pool.shutdown();
+      }
+    });
+    instance = pool;
+    LOG.info("Kawa compiler workers: at most " + maxIdleWorkers + " idle, "
+        + pool.maxCompilesPerWorker + " compiles each");
+  }
+
+  /**
+   * Returns the pool, or null if it is disabled.
+   */
+  static KawaCompilerPool getInstance() {
+    return instance;
+  }
+
+  /**
+   * Compiles YAIL files with a warm worker. The compile runs as a Kawa stage
+   * of the {@link ChildProcessScheduler}, which this method acquires and
+   * releases itself.
+   *
+   * @param javaCommand the java executable
+   * @param jvmOptions options for the worker JVM, not including the classpath
+   * @param classpath the Kawa classpath
+   * @param yailRuntime the path of runtime.scm
+   * @param compileArgs the Kawa arguments that follow {@code -f runtime.scm}
+   * @param ramMb the RAM the worker may use, in MB
+   * @param out receives the compiler's stdout
+   * @param err receives the compiler's stderr
+   * @return whether the files compiled, or {@link Result#NOT_RUN} if the
+   *     caller must compile them with a one-shot Kawa process instead
+   * @throws InterruptedException if interrupted while waiting for the stage
+   */
+  Result compile(String javaCommand, List<String> jvmOptions, String classpath,
+      String yailRuntime, List<String> compileArgs, long ramMb, PrintStream out,
+      PrintStream err) throws InterruptedException {
+    List<String> command = Lists.newArrayList(javaCommand);
+    command.addAll(jvmOptions);
+    try {
+      command.add("-cp");
+      command.add(classpath + File.pathSeparator + getWorkerClasspath());
+    } catch (URISyntaxException e) {
+      LOG.log(Level.WARNING, "Unable to locate the Kawa compiler worker class", e);
+      return Result.NOT_RUN;
+    }
+    command.add(KawaCompilerWorker.class.getName());
+    command.add(yailRuntime);
+    String key = JOINER.join(command);
+
+    Worker worker = takeIdleWorker(key);
+    ChildProcessScheduler.Stage stage;
+    if (worker != null) {
+      try {
+        stage = scheduler.acquireIdle("Kawa", worker.ramMb);
+      } catch (InterruptedException e) {
+        stop(worker);
+        throw e;
+      }
+    } else {
+      stage = scheduler.acquire("Kawa", ramMb);
+      try {
+        worker = new Worker(key, command, ramMb);
+      } catch (IOException e) {
+        stage.release();
+        LOG.log(Level.WARNING, "Unable to start a Kawa compiler worker", e);
+        return Result.NOT_RUN;
+      }
+    }
+
+    try {
+      worker.toWorker.writeInt(compileArgs.size());
+      for (String arg : compileArgs) {
+        worker.toWorker.writeUTF(arg);
+      }
+      worker.toWorker.flush();
+
+      boolean success = worker.fromWorker.readBoolean();
+      boolean recycle = worker.fromWorker.readBoolean();
+      byte[] stdout = readBytes(worker.fromWorker);
+      byte[] stderr = readBytes(worker.fromWorker);
+      worker.compiles++;
+      if (success) {
+        workerCompiles.incrementAndGet();
+      } else {
+        failedCompiles.incrementAndGet();
+      }
+      out.write(stdout);
+      err.write(stderr);
+      if (recycle || worker.compiles >= maxCompilesPerWorker) {
+        stage.release();
+        worker.destroy();
+        startReplacement(worker);
+      } else {
+        stage.releaseToIdle();
+        giveBack(worker);
+      }
+      return success ? Result.SUCCEEDED : Result.FAILED;
+    } catch (IOException e) {
+      // The worker died or stopped following the protocol.
+      LOG.log(Level.WARNING, "Kawa compiler worker failed", e);
+      stage.release();
+      worker.destroy();
+      startReplacement(worker);
+      return Result.NOT_RUN;
+    }
+  }
+
+  private static String getWorkerClasspath() throws URISyntaxException {
+    return new File(KawaCompilerWorker.class.getProtectionDomain().getCodeSource().getLocation()
+        .toURI()).getPath();
+  }
+
+  private synchronized Worker takeIdleWorker(String key) {
+    Iterator<Worker> iterator = idleWorkers.iterator();
+    while (iterator.hasNext()) {
+      Worker worker = iterator.next();
+      if (worker.key.equals(key)) {
+        iterator.remove();
+        return worker;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Adds a worker whose RAM is reserved as idle to the pool, stopping the
+   * least recently used worker if there are too many.
+   */
+  private void giveBack(Worker worker) {
+    Worker evicted = null;
+    synchronized (this) {
+      idleWorkers.addLast(worker);
+      if (idleWorkers.size() > maxIdleWorkers) {
+        evicted = idleWorkers.removeFirst();
+      }
+    }
+    if (evicted != null) {
+      stop(evicted);
+    }
+  }
+
+  /**
+   * Starts a worker with the same command line as a retired one, if the RAM
+   * budget has room for it while it is idle.
+   */
+  private void startReplacement(Worker retired) {
+    if (!scheduler.reserveIdle(retired.ramMb)) {
+      return;
+    }
+    try {
+      giveBack(new Worker(retired.key, retired.command, retired.ramMb));
+    } catch (IOException e) {
+      scheduler.releaseIdle(retired.ramMb);
+      LOG.log(Level.WARNING, "Unable to start a Kawa compiler worker", e);
+    }
+  }
+
+  /**
+   * Destroys an idle worker and releases its RAM reservation.
+   */
+  private void stop(Worker worker) {
+    worker.destroy();
+    scheduler.releaseIdle(worker.ramMb);
+  }
+
+  @Override
+  public boolean stopOne() {
+    Worker worker;
+    synchronized (this) {
+      worker = idleWorkers.pollFirst();
+    }
+    if (worker == null) {
+      return false;
+    }
+    stop(worker);
+    return true;
+  }
+
+  void shutdown() {
+    while (stopOne()) {
+      // Keep stopping idle workers.
+    }
+  }
+
+  private static byte[] readBytes(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  int getIdleWorkerCount() {
+    synchronized (this) {
+      return idleWorkers.size();
+    }
+  }
+
+  int getWorkerCompileCount() {
+    return workerCompiles.get();
+  }
+
+  int getWorkerStartCount() {
+    return workerStarts.get();
+  }
+
+  int getFailedCompileCount() {
+    return failedCompiles.get();
+  }
+
+  /**
+   * A running worker process.
+   */
+  private final class Worker {
+    private final String key;
+    private final List<String> command;
+    private final long ramMb;
+    private final Process process;
+    private final DataOutputStream toWorker;
+    private final DataInputStream fromWorker;
+    private int compiles = 0;
+
+    private Worker(String key, List<String> command, long ramMb) throws IOException {
+      this.key = key;
+      this.command = command;
+      this.ramMb = ramMb;
+      ProcessBuilder processBuilder = new ProcessBuilder(command);
+      processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+      process = processBuilder.start();
+      toWorker = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      fromWorker = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+      workerStarts.incrementAndGet();
+    }
+
+    private void destroy() {
+      process.destroy();
+    }
+  }
+}
@@ -0,0 +1,205 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.security.Permission;
+
+/**
+ * Entry point of a long-lived Kawa compiler process, managed by
+ * {@link KawaCompilerPool}.
+ *
+ * <p>The worker loads the YAIL runtime once at startup and then compiles
+ * requests read from stdin until stdin is closed. A request is the list of
+ * Kawa arguments that follow {@code -f runtime.scm} on the command line of a
+ * one-shot Kawa compile. For each request the worker writes back whether the
+ * compile succeeded, whether it should be recycled because its heap is nearly
+ * full, and the compiler's stdout and stderr output.</p>
+ *
+ * <p>Kawa calls {@code System.exit} when it finds errors in the source. The
+ * worker installs a security manager that turns that call into an exception,
+ * so the errors are reported like any other failed compile and the worker
+ * stays alive. Where the JVM does not allow a security manager, a shutdown
+ * hook sends the failed result before the worker exits, and the worker asks to
+ * be replaced.</p>
+ *
+ * <p>This class runs in the worker process, whose classpath is the Kawa
+ * classpath of the build plus this class. It must not use anything beyond the
+ * JDK, so Kawa is called through reflection.</p>
+ */
+public final class KawaCompilerWorker {
+  // Recycle the worker once this fraction of its maximum heap is in use after a compile.
+  private static final double MAX_HEAP_USAGE = 0.75;
+
+  // The request being compiled, or null between requests. Only set on the main thread.
+  private static volatile Request currentRequest;
+
+  private KawaCompilerWorker() {
+  }
+
+  /**
+   * Thrown in place of exiting when Kawa calls System.exit during a request.
+   */
+  private static final class ExitException extends SecurityException {
+    private final int status;
+
+    ExitException(int status) {
+      super("System.exit(" + status + ")");
+      this.status = status;
+    }
+  }
+
+  /**
+   * The output of one compile.
+   */
+  private static final class Request {
+    private final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+  }
+
+  /**
+   * Runs the worker.
+   *
+   * @param args the path of the YAIL runtime, runtime.scm
+   */
+  public static void main(String[] args) throws Exception {
+    // The real stdout carries the protocol. Anything Kawa prints outside a request goes to stderr.
+    DataOutputStream toHost = new DataOutputStream(new BufferedOutputStream(System.out));
+    DataInputStream fromHost = new DataInputStream(new BufferedInputStream(System.in));
+    PrintStream log = System.err;
+    System.setOut(log);
+
+    Method processArgs = Class.forName("kawa.repl")
+        .getMethod("processArgs", String[].class, int.class, int.class);
+    Object moduleManager = Class.forName("gnu.expr.ModuleManager")
+        .getMethod("getInstance").invoke(null);
+    Method clearModules = moduleManager.getClass().getMethod("clear");
+
+    String[] loadArgs = { "-f", args[0] };
+    processArgs.invoke(null, loadArgs, 0, loadArgs.length);
+
+    boolean exitTrapped = trapExit();
+    if (!exitTrapped) {
+      addExitReply(toHost);
+    }
+
+    Runtime runtime = Runtime.getRuntime();
+    while (true) {
+      String[] request;
+      try {
+        request = new String[fromHost.readInt()];
+      } catch (EOFException e) {
+        // The build server closed the connection.
+        return;
+      }
+      for (int i = 0; i < request.length; i++) {
+        request[i] = fromHost.readUTF();
+      }
+
+      Request current = new Request();
+      boolean success;
+      System.setOut(new PrintStream(current.stdout, true));
+      System.setErr(new PrintStream(current.stderr, true));
+      currentRequest = current;
+      try {
+        // Forget the modules compiled by earlier requests so that runtime.scm and any screens with
+        // the same path are compiled again into this request's output directory.
+        clearModules.invoke(moduleManager);
+        processArgs.invoke(null, request, 0, request.length);
+        success = true;
+      } catch (InvocationTargetException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof ExitException) {
+          // Kawa has already written the errors to stderr.
+          success = ((ExitException) cause).status == 0;
+        } else {
+          System.err.println("Internal compiler error: " + cause);
+          success = false;
+        }
+      } finally {
+        currentRequest = null;
+        System.setOut(log);
+        System.setErr(log);
+      }
+
+      boolean recycle = runtime.totalMemory() - runtime.freeMemory()
+          > runtime.maxMemory() * MAX_HEAP_USAGE;
+      writeResult(toHost, success, recycle, current);
+    }
+  }
+
+  /*
+   * Installs a security manager that throws ExitException when System.exit is
+   * called during a request. Returns false if the JVM does not allow one.
+   */
+  private static boolean trapExit() {
+    try {
+      System.setSecurityManager(new SecurityManager() {
+        @Override
+        public void checkPermission(Permission permission) {
+          // Everything is allowed.
+        }
+
+        @Override
+        public void checkPermission(Permission permission, Object context) {
+          // Everything is allowed.
+        }
+
+        @Override
+        public void checkExit(int status) {
+          if (currentRequest != null) {
+            throw new ExitException(status);
+          }
+        }
+      });
+      return true;
+    } catch (UnsupportedOperationException e) {
+      return false;
+    }
+  }
+
+  /*
+   * Makes an exit during a request send a failed result, so the build server
+   * reports the compiler's errors instead of seeing the connection close.
+   */
+  private static void addExitReply(final DataOutputStream toHost) {
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        Request current = currentRequest;
+        if (current != null) {
+          try {
+            writeResult(toHost, false, true, current);
+          } catch (IOException e) {
+            // The build server is gone.
+          }
+        }
+      }
+    });
+  }
+
+  private static void writeResult(DataOutputStream toHost, boolean success, boolean recycle,
+      Request request) throws IOException {
+    toHost.writeBoolean(success);
+    toHost.writeBoolean(recycle);
+    writeBytes(toHost, request.stdout.toByteArray());
+    writeBytes(toHost, request.stderr.toByteArray());
+    toHost.flush();
+  }
+
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+}
@@ -198,7 +198,7 @@
 ;;; (get-property 'Label1 'Text)
 (define (get-property component prop-name)
   (let ((component (coerce-to-component-and-verify component)))
-    (sanitize-component-data (invoke component prop-name))))
+    (sanitize-component-data (invoke-component component prop-name '()))))
 
 (define (coerce-to-component-and-verify possible-component)
   (let ((component (coerce-to-component possible-component)))
@@ -217,7 +217,7 @@
                  component-type
                  (*:getSimpleName (*:getClass possible-component)))
          "Problem with application")
-        (sanitize-component-data (invoke component prop-name)))))
+        (sanitize-component-data (invoke-component component prop-name '())))))
 
 (define (set-and-coerce-property-and-check! possible-component comp-type prop-sym property-value property-type)
   (let ((component (coerce-to-component-of-type possible-component comp-type)))
@@ -328,7 +328,8 @@
 
        (define (add-to-form-environment name :: gnu.mapping.Symbol object)
          (android-log-form (format #f "Adding ~A to env ~A with value ~A" name form-environment object))
-         (gnu.mapping.Environment:put form-environment name object))
+         (gnu.mapping.Environment:put form-environment name object)
+         ((this):clearHandlerCache))
 
        (define (lookup-in-form-environment name :: gnu.mapping.Symbol #!optional (default-value #f))
          (if (and (not (eq? form-environment #!null))
@@ -422,60 +423,75 @@
                               registeredComponentName :: java.lang.String
                               eventName :: java.lang.String
                               args :: java.lang.Object[]) :: boolean
-           ;; Check that the component object that generated the event
-           ;; matches the component object associated with the
-           ;; component name that registered the event.  This is
-           ;; necessary, in part, due to the late binding that we want
-           ;; for event handlers and component names.
-           (let ((registeredObject (string->symbol registeredComponentName)))
-                 (if (is-bound-in-form-environment registeredObject)
-                     (if (eq? (lookup-in-form-environment registeredObject) componentObject)
-                        (let ((handler (lookup-handler registeredComponentName eventName)))
-                                ;; Note: This try-catch was originally part of the
-                                ;; generated handler from define-event.  It was moved
-                                ;; here because Kawa seems be unable to eval a
-                                ;; try-catch without compiling it and we can't support
-                                ;; compilation in anything (e.g. define-event) that
-                                ;; might get sent to the REPL!
-                                (try-catch
-                                 (begin
-                                   (apply handler (gnu.lists.LList:makeList args 0))
-                                   #t)
-                                 ;; PermissionException should be caught by a permissions-aware component and
-                                 ;; handled correctly at the point it is caught. However, older extensions
-                                 ;; might not be updated yet for SDK 23's dangerous permissions model, so if
-                                 ;; an exception bubbles all the way up to here we can still catch and report
-                                 ;; it. However, the best context we have for the PermissionDenied event is
-                                 ;; that it occurred in the just-exited event handler code.
-                                 (exception com.google.appinventor.components.runtime.errors.PermissionException
-                                  (begin
-                                    (exception:printStackTrace)
-                                    ;; Test to see if the event we are handling is the
-                                    ;; PermissionDenied of the current form. If so, then we will
-                                    ;; need to avoid re-invoking PermissionDenied.
-                                    (if (and (eq? (this) componentObject)
-                                             (equal? eventName "PermissionNeeded"))
-                                        ;; Error is occurring in the PermissionDenied handler, so we
-                                        ;; use the more general exception handler to prevent going
-                                        ;; into an infinite loop.
-                                        (process-exception exception)
-                                        ((this):PermissionDenied componentObject eventName
-                                                                 (exception:getPermissionNeeded)))
-                                    #f))
-                                 (exception java.lang.Throwable
-                                  (begin
-                                    (android-log-form (exception:getMessage))
+           ;; A cache hit stores the component object that was bound to
+           ;; registeredComponentName together with its handler, so it
+           ;; makes the same check as the code below.
+           (let ((cached (get-cached-handler registeredComponentName eventName)))
+             (if (and (pair? cached) (eq? (car cached) componentObject))
+                 (apply-event-handler componentObject eventName (cdr cached) args)
+                 ;; Check that the component object that generated the event
+                 ;; matches the component object associated with the
+                 ;; component name that registered the event.  This is
+                 ;; necessary, in part, due to the late binding that we want
+                 ;; for event handlers and component names.
+                 (let ((registeredObject (string->symbol registeredComponentName)))
+                   (if (is-bound-in-form-environment registeredObject)
+                       (if (eq? (lookup-in-form-environment registeredObject) componentObject)
+                           (let ((handler (lookup-handler registeredComponentName eventName)))
+                             (when handler
+                               (cache-handler! registeredComponentName eventName
+                                               (cons componentObject handler)))
+                             (apply-event-handler componentObject eventName handler args))
+                           #f)
+                       ;; else unregister event for registeredComponentName
+                       (begin
+                         (com.google.appinventor.components.runtime.EventDispatcher:unregisterEventForDelegation
+                           (as com.google.appinventor.components.runtime.HandlesEventDispatching (this))
+                           registeredComponentName eventName)
+                         #f))))))
+
+       (define (apply-event-handler componentObject :: com.google.appinventor.components.runtime.Component
+                                    eventName :: java.lang.String
+                                    handler
+                                    args :: java.lang.Object[]) :: boolean
+         ;; Note: This try-catch was originally part of the
+         ;; generated handler from define-event.  It was moved
+         ;; here because Kawa seems be unable to eval a
+         ;; try-catch without compiling it and we can't support
+         ;; compilation in anything (e.g. define-event) that
+         ;; might get sent to the REPL!
+         (try-catch
+          (begin
+            (apply handler (gnu.lists.LList:makeList args 0))
+            #t)
+          ;; PermissionException should be caught by a permissions-aware component and
+          ;; handled correctly at the point it is caught. However, older extensions
+          ;; might not be updated yet for SDK 23's dangerous permissions model, so if
+          ;; an exception bubbles all the way up to here we can still catch and report
+          ;; it. However, the best context we have for the PermissionDenied event is
+          ;; that it occurred in the just-exited event handler code.
+          (exception com.google.appinventor.components.runtime.errors.PermissionException
+           (begin
+             (exception:printStackTrace)
+             ;; Test to see if the event we are handling is the
+             ;; PermissionDenied of the current form. If so, then we will
+             ;; need to avoid re-invoking PermissionDenied.
+             (if (and (eq? (this) componentObject)
+                      (equal? eventName "PermissionNeeded"))
+                 ;; Error is occurring in the PermissionDenied handler, so we
+                 ;; use the more general exception handler to prevent going
+                 ;; into an infinite loop.
+                 (process-exception exception)
+                 ((this):PermissionDenied componentObject eventName
+                                          (exception:getPermissionNeeded)))
+             #f))
+          (exception java.lang.Throwable
+           (begin
+             (android-log-form (exception:getMessage))
 ;;; Comment out the line below to inhibit a stack trace on a RunTimeError
-                                    (exception:printStackTrace)
-                                    (process-exception exception)
-                                    #f))))
-                        #f)
-                     ;; else unregister event for registeredComponentName
-                     (begin
-                       (com.google.appinventor.components.runtime.EventDispatcher:unregisterEventForDelegation
-                         (as com.google.appinventor.components.runtime.HandlesEventDispatching (this))
-                         registeredComponentName eventName)
-                       #f))))
+             (exception:printStackTrace)
+             (process-exception exception)
+             #f))))
 
        (define (dispatchGenericEvent componentObject :: com.google.appinventor.components.runtime.Component
                                      eventName :: java.lang.String
@@ -489,8 +505,18 @@
          ; concatenates the strings first and then calls
          ; string->symbol, which is effectively the same thing. Most
          ; of the logic then follows that of dispatchEvent above.
-         (let* ((handler-symbol (string->symbol (string-append "any$" (get-simple-name componentObject) "$" eventName)))
-                (handler (lookup-in-form-environment handler-symbol)))
+         ;;
+         ;; The handler (or #f, if there is none) is cached by component
+         ;; class, so the name is only built the first time an event is seen.
+         (let* ((component-class (*:getClass componentObject))
+                (cached (get-cached-handler component-class eventName))
+                (handler
+                 (if (eq? cached #!null)
+                     (let ((resolved (lookup-in-form-environment
+                                      (string->symbol (string-append "any$" (get-simple-name componentObject) "$" eventName)))))
+                       (cache-handler! component-class eventName resolved)
+                       resolved)
+                     cached)))
            (if handler
                (try-catch
                 (begin
@@ -525,6 +551,14 @@
            (com.google.appinventor.components.runtime.EventDispatcher:makeFullEventName
             componentName eventName))))
 
+       ;; The handler cache lives on the Form, so that the REPL can clear it
+       ;; when it changes the form environment.  A miss returns #!null.
+       (define (get-cached-handler key eventName :: java.lang.String)
+         ((this):getCachedHandler key eventName))
+
+       (define (cache-handler! key eventName :: java.lang.String handler)
+         ((this):cacheHandler key eventName handler))
+
        ;; This defines the Simple Form's abstract $define method. The Simple Form
        ;; implementation will call this to cause initialization.
        (define ($define) :: void
@@ -794,7 +828,9 @@
                     ;                                     (if (not (eq? *this-form* #!null)) (*:.form-environment *this-form*) 'null)
                     ;                                     object))
   (if (not (eq? *this-form* #!null))
-      (gnu.mapping.Environment:put (*:.form-environment *this-form*) name object)
+      (begin
+        (gnu.mapping.Environment:put (*:.form-environment *this-form*) name object)
+        (*:clearHandlerCache *this-form*))
       ;; The following is really for testing.  In normal situations *this-form* should be non-null
       (gnu.mapping.Environment:put *test-environment* name object)))
 
@@ -811,7 +847,9 @@
 
 (define (delete-from-current-form-environment name :: gnu.mapping.Symbol)
   (if (not (eq? *this-form* #!null))
-      (gnu.mapping.Environment:remove (*:.form-environment *this-form*) name)
+      (begin
+        (gnu.mapping.Environment:remove (*:.form-environment *this-form*) name)
+        (*:clearHandlerCache *this-form*))
       ;; The following is really for testing.  In normal situations *this-form* should be non-null
       (gnu.mapping.Environment:remove *test-environment* name)))
 
@@ -965,6 +1003,7 @@
 (module-name com.google.youngandroid.runtime)
 (module-static #t)
 
+(define-alias ComponentInvokers <com.google.appinventor.components.runtime.util.ComponentInvokers>)
 (define-alias CsvUtil <com.google.appinventor.components.runtime.util.CsvUtil>)
 (define-alias Double <java.lang.Double>)
 (define-alias Float <java.lang.Float>)
@@ -1044,15 +1083,23 @@
 ;;; values they will receive.
 
 
+;;; INVOKE-COMPONENT
+;;; Call the method named member-name on component with the list of
+;;; (already coerced) args.  Built-in components have generated invokers that
+;;; call the Java method directly; anything they do not handle, including all
+;;; extension methods, goes through Kawa's reflective invoke as before.
+
+(define (invoke-component component member-name args)
+  (ComponentInvokers:invoke component member-name args))
+
 (define (call-component-method component-name method-name arglist typelist)
   (let ((coerced-args (coerce-args method-name arglist typelist)))
     (let ((result
            (if (all-coercible? coerced-args)
                (try-catch
-                (apply invoke
-                       `(,(lookup-in-current-form-environment component-name)
-                         ,method-name
-                         ,@coerced-args))
+                (invoke-component (lookup-in-current-form-environment component-name)
+                                  method-name
+                                  coerced-args)
                 (exception PermissionException
                            (*:dispatchPermissionDeniedEvent (SimpleForm:getActiveForm) (lookup-in-current-form-environment component-name) method-name exception)))
                (generate-runtime-type-error method-name arglist))))
@@ -1079,10 +1126,7 @@
                                      (list (get-display-representation possible-component)))
         (let ((result
                (if (all-coercible? coerced-args)
-                   (apply invoke
-                          `(,component-value
-                            ,method-name
-                            ,@coerced-args))
+                   (invoke-component component-value method-name coerced-args)
                    (generate-runtime-type-error method-name arglist))))
           ;; TODO(markf): this should probably be generalized but for now this is OK, I think
           (sanitize-component-data result)))))
@@ -1280,7 +1324,7 @@
     (android-log (format #f "coerced property value was: ~A " coerced-arg))
     (if (all-coercible? (list coerced-arg))
         (try-catch
-         (invoke comp prop-name coerced-arg)
+         (invoke-component comp prop-name (list coerced-arg))
          (exception PermissionException
                     (*:dispatchPermissionDeniedEvent (SimpleForm:getActiveForm) comp prop-name exception)))
         (generate-runtime-type-error prop-name (list property-value)))))
@@ -2195,8 +2239,9 @@ list, use the make-yail-list constructor with no arguments.
 
 
 ;; Implements the Blocks length operation
+;; YailList keeps an array of its pairs, so this doesn't walk the list
 (define (yail-list-length yail-list)
-  (length (yail-list-contents yail-list)))
+  (*:size (as YailList yail-list)))
 
 ;; These are removed, to simplify the API to lists
 ;; ;; Implements the Blocks first operation
@@ -2241,7 +2286,7 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "Select list item: List index too large")
-    (list-ref (yail-list-contents yail-list) (- index 1)))))
+    (*:getObject (as YailList yail-list) (- index 1)))))
 
 
 ;; Implements the Blocks set list item operation
@@ -2260,7 +2305,7 @@ list, use the make-yail-list constructor with no arguments.
                  len
                  (get-display-representation yail-list))
          "List index too large")))
-  (set-car! (list-tail (yail-list-contents yail-list) (- index 1)) value))
+  (*:setObject (as YailList yail-list) (- index 1) value))
 
 
 
@@ -2291,8 +2336,7 @@ list, use the make-yail-list constructor with no arguments.
                    len
                    (get-display-representation yail-list))
            "List index too large"))
-      (let ((pair-pointing-to-deletion (list-tail yail-list (- index2 1))))
-        (set-cdr! pair-pointing-to-deletion (cddr pair-pointing-to-deletion))))))
+      (*:removeObject (as YailList yail-list) (- index2 1)))))
 
 
 ;; Implements the Blocks insert list item operation
@@ -2321,11 +2365,7 @@ list, use the make-yail-list constructor with no arguments.
                    (get-display-representation yail-list)
                    len+1)
            "List index too large"))
-      (let ((contents (yail-list-contents yail-list)))
-        (if (= index2 1)
-            (set-yail-list-contents! yail-list (cons item contents))
-            (let ((at-item (list-tail contents (- index2 2))))
-              (set-cdr! at-item (cons item (cdr at-item)))))))))
+      (*:insertObject (as YailList yail-list) (- index2 1) item))))
 
 ;; Extends list A by appending the elements of list B to it
 ;; Modifies list A
@@ -2335,14 +2375,7 @@ list, use the make-yail-list constructor with no arguments.
   ;; between the augmented list and the source of the added elements.
   ;; But like Python, we do a shallow copy, so that substructure is
   ;; shared.
-  (define (list-copy l)
-    (if (null? l)
-    '()
-    (cons (car l) (list-copy (cdr l)))))
-  ;; We have to operate on the yail-list itself, not the contents, because
-  ;; the contents might be empty
-  (set-cdr! (list-tail yail-list-A (length (yail-list-contents yail-list-A)))
-        (list-copy (yail-list-contents yail-list-B))))
+  (*:appendList (as YailList yail-list-A) (as YailList yail-list-B)))
 
 
 ;; Extend list A by appending the items to it
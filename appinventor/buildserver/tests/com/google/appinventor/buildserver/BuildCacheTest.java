@@ -0,0 +1,194 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests BuildCache class.
+ *
+ */
+public class BuildCacheTest extends TestCase {
+  // The size of the artifacts stored by the eviction tests. Two of them are
+  // more than 1 MB.
+  private static final int ARTIFACT_BYTES = 600 * 1024;
+
+  private File tmpDir;
+  private File cacheDir;
+  private File buildDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+    cacheDir = new File(tmpDir, "cache");
+    buildDir = new File(tmpDir, "build");
+    buildDir.mkdirs();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    BuildCache.setMaxSizeMb(0);
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testHashIgnoresFileNames() throws Exception {
+    File first = write("first.txt", "contents");
+    File second = write("second.txt", "contents");
+    assertEquals(hash(first), hash(second));
+    assertFalse(hash(first).equals(BuildCache.hash(Arrays.asList("other"),
+        Collections.singletonList(first))));
+  }
+
+  public void testHashChangesWithContents() throws Exception {
+    File file = write("file.txt", "contents");
+    String before = hash(file);
+    // A different length, so the change is seen even within the same mtime tick.
+    write("file.txt", "changed contents");
+    assertFalse(before.equals(hash(file)));
+  }
+
+  public void testHashIncludesNamesInsideDirectories() throws Exception {
+    File dir = new File(buildDir, "dir");
+    write("dir/a.txt", "contents");
+    String before = hash(dir);
+    assertTrue(new File(dir, "a.txt").renameTo(new File(dir, "b.txt")));
+    assertFalse(before.equals(hash(dir)));
+  }
+
+  public void testStoreAndRestore() throws Exception {
+    BuildCache cache = new BuildCache(cacheDir);
+    File top = write("top.txt", "top");
+    File nested = write("classes/com/example/Screen1.class", "class");
+    cache.store("key", buildDir, Arrays.asList(top, nested));
+
+    File restored = new File(tmpDir, "restored");
+    assertTrue(cache.restore("key", restored));
+    assertEquals("top", read(new File(restored, "top.txt")));
+    assertEquals("class", read(new File(restored, "classes/com/example/Screen1.class")));
+    assertFalse(cache.restore("missing", new File(tmpDir, "missing")));
+  }
+
+  public void testStoreRejectsArtifactsOutsideBaseDir() throws Exception {
+    BuildCache cache = new BuildCache(cacheDir);
+    File outside = new File(tmpDir, "outside.txt");
+    Files.write("outside", outside, Charsets.UTF_8);
+    cache.store("key", buildDir, Collections.singletonList(outside));
+    assertFalse(new File(cacheDir, "key").exists());
+    assertEquals(0, cacheDir.list().length);
+  }
+
+  public void testConcurrentStoreOfSameKey() throws Exception {
+    final BuildCache cache = new BuildCache(cacheDir);
+    final List<File> artifacts = Arrays.asList(write("a.txt", "a"), write("sub/b.txt", "b"));
+    int threads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            cache.store("key", buildDir, artifacts);
+            return null;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    // One entry, and no staging directories left behind.
+    assertEquals(Arrays.asList("key"), Arrays.asList(cacheDir.list()));
+    File restored = new File(tmpDir, "restored");
+    assertTrue(cache.restore("key", restored));
+    assertEquals("a", read(new File(restored, "a.txt")));
+    assertEquals("b", read(new File(restored, "sub/b.txt")));
+  }
+
+  public void testEvictsLeastRecentlyUsedEntries() throws Exception {
+    BuildCache.setMaxSizeMb(1);
+    BuildCache cache = new BuildCache(cacheDir);
+    long old = System.currentTimeMillis() - 2 * BuildCache.EVICTION_GRACE_MILLIS;
+    cache.store("first", buildDir, Collections.singletonList(artifact("first")));
+    cache.store("second", buildDir, Collections.singletonList(artifact("second")));
+    // Both entries fit within the grace period, even though the cache is too large.
+    assertTrue(new File(cacheDir, "first").isDirectory());
+    assertTrue(new File(cacheDir, "second").isDirectory());
+
+    new File(cacheDir, "first").setLastModified(old - 1000);
+    new File(cacheDir, "second").setLastModified(old);
+    cache.store("third", buildDir, Collections.singletonList(artifact("third")));
+    // The oldest entries go until the cache fits.
+    assertFalse(new File(cacheDir, "first").exists());
+    assertFalse(new File(cacheDir, "second").exists());
+    assertTrue(new File(cacheDir, "third").isDirectory());
+
+    // The remembered size is kept up to date, so an entry that fits is kept.
+    BuildCache.setMaxSizeMb(2);
+    new File(cacheDir, "third").setLastModified(old);
+    cache.store("fourth", buildDir, Collections.singletonList(artifact("fourth")));
+    assertTrue(new File(cacheDir, "third").isDirectory());
+    assertTrue(new File(cacheDir, "fourth").isDirectory());
+  }
+
+  public void testRestoreMarksEntryAsUsed() throws Exception {
+    BuildCache.setMaxSizeMb(1);
+    BuildCache cache = new BuildCache(cacheDir);
+    long old = System.currentTimeMillis() - 2 * BuildCache.EVICTION_GRACE_MILLIS;
+    cache.store("first", buildDir, Collections.singletonList(artifact("first")));
+    new File(cacheDir, "first").setLastModified(old);
+    assertTrue(cache.restore("first", new File(tmpDir, "restored")));
+    cache.store("second", buildDir, Collections.singletonList(artifact("second")));
+    // The restore put the first entry back in the grace period.
+    assertTrue(new File(cacheDir, "first").isDirectory());
+    assertTrue(new File(cacheDir, "second").isDirectory());
+  }
+
+  private File write(String path, String contents) throws Exception {
+    File file = new File(buildDir, path);
+    Files.createParentDirs(file);
+    Files.write(contents, file, Charsets.UTF_8);
+    return file;
+  }
+
+  private File artifact(String name) throws Exception {
+    File file = new File(buildDir, name + ".dex");
+    byte[] bytes = new byte[ARTIFACT_BYTES];
+    Arrays.fill(bytes, (byte) name.charAt(0));
+    Files.write(bytes, file);
+    return file;
+  }
+
+  private static String read(File file) throws Exception {
+    return Files.toString(file, Charsets.UTF_8);
+  }
+
+  private static String hash(File file) throws Exception {
+    return BuildCache.hash(Collections.<String>emptyList(), Collections.singletonList(file));
+  }
+}
@@ -0,0 +1,184 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2009-2011 Google, All Rights reserved
+// Copyright 2011-2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildScheduler class.
+ *
+ * @author lizlooney@google.com (Liz Looney)
+ */
+public class BuildSchedulerTest extends TestCase {
+  public void testAdditionalTaskIsRejected() throws Exception {
+    // Create the BuildScheduler with capacity 10 and no queue.
+    int maxCapacity = 10;
+    BuildScheduler executor = new BuildScheduler(maxCapacity, 0, 0);
+
+    // Execute the maximum number of tasks, which will all wait until I notify them via the signal.
+    final Object signal = new Object();
+    for (int i = 0; i < maxCapacity; i++) {
+      executor.execute(new TaskThatWaitsForSignal(signal));
+    }
+
+    // Now the executor should be at maximum capacity.
+    assertEquals(maxCapacity, executor.getActiveTaskCount());
+
+    // Try to execute another task. We expect it to be rejected.
+    try {
+      executor.execute(new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    // Notify the signal so the active tasks can complete.
+    synchronized (signal) {
+      signal.notifyAll();
+    }
+  }
+
+  public void testAdditionalTaskIsQueued() throws Exception {
+    BuildScheduler executor = new BuildScheduler(1, 1, 0);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    executor.execute(new TaskThatWaitsForLatch(release, done));
+    executor.execute(new TaskThatWaitsForLatch(release, done));
+    assertEquals(1, executor.getActiveTaskCount());
+    assertEquals(1, executor.getQueuedTaskCount());
+
+    // The queue is full now.
+    try {
+      executor.execute(new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(0, executor.getQueuedTaskCount());
+  }
+
+  public void testPerUserQueueLimit() throws Exception {
+    BuildScheduler executor = new BuildScheduler(1, 10, 1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(3);
+    executor.execute("alice", false, new TaskThatWaitsForLatch(release, done));
+    executor.execute("alice", false, new TaskThatWaitsForLatch(release, done));
+    try {
+      executor.execute("alice", false, new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    // The limit counts the builds queued in both lanes.
+    try {
+      executor.execute("alice", true, new TaskThatDoesNothing());
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    // Another user can still queue a build.
+    executor.execute("bob", false, new TaskThatWaitsForLatch(release, done));
+    assertEquals(2, executor.getQueuedTaskCount());
+
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+  }
+
+  public void testPriorityAndFairOrder() throws Exception {
+    BuildScheduler executor = new BuildScheduler(1, 10, 0);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(6);
+    List<String> order = Collections.synchronizedList(new ArrayList<String>());
+    executor.execute("first", false, new TaskThatWaitsForLatch(release, done));
+    executor.execute("alice", false, new TaskThatRecords(order, "alice1", done));
+    executor.execute("alice", false, new TaskThatRecords(order, "alice2", done));
+    executor.execute("bob", false, new TaskThatRecords(order, "bob1", done));
+    executor.execute("carol", true, new TaskThatRecords(order, "priority", done));
+    executor.execute("bob", false, new TaskThatRecords(order, "bob2", done));
+    assertEquals(1, executor.getQueuedPriorityTaskCount());
+
+    release.countDown();
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertEquals(5, order.size());
+    assertEquals("priority", order.get(0));
+    assertEquals("alice1", order.get(1));
+    assertEquals("bob1", order.get(2));
+    assertEquals("alice2", order.get(3));
+    assertEquals("bob2", order.get(4));
+    assertTrue(executor.getWaitTimePercentile(100) >= 0);
+  }
+
+  private static class TaskThatWaitsForSignal implements Runnable {
+    private final Object signal;
+    private TaskThatWaitsForSignal(Object signal) {
+      this.signal = signal;
+    }
+
+    @Override
+    public void run() {
+      synchronized (signal) {
+        try {
+          // Wait for the signal.
+          signal.wait();
+        } catch (InterruptedException e) {
+          // ignored
+        }
+      }
+    }
+  }
+
+  private static class TaskThatWaitsForLatch implements Runnable {
+    private final CountDownLatch release;
+    private final CountDownLatch done;
+    private TaskThatWaitsForLatch(CountDownLatch release, CountDownLatch done) {
+      this.release = release;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        // ignored
+      }
+      done.countDown();
+    }
+  }
+
+  private static class TaskThatRecords implements Runnable {
+    private final List<String> order;
+    private final String name;
+    private final CountDownLatch done;
+    private TaskThatRecords(List<String> order, String name, CountDownLatch done) {
+      this.order = order;
+      this.name = name;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      order.add(name);
+      done.countDown();
+    }
+  }
+
+  private static class TaskThatDoesNothing implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+}
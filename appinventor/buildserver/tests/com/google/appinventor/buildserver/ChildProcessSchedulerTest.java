@@ -0,0 +1,136 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ChildProcessScheduler class.
+ */
+public class ChildProcessSchedulerTest extends TestCase {
+  public void testStagesAreAdmittedUpToMaxStages() throws Exception {
+    ChildProcessScheduler scheduler = new ChildProcessScheduler(2, 10000);
+    ChildProcessScheduler.Stage first = scheduler.acquire("first", 100);
+    ChildProcessScheduler.Stage second = scheduler.acquire("second", 100);
+    assertEquals(2, scheduler.getRunningStages());
+    assertEquals(200, scheduler.getReservedRamMb());
+
+    // A third stage waits for a free slot.
+    StageThatWaits third = new StageThatWaits(scheduler, "third", 100);
+    third.start();
+    assertFalse(third.acquired.await(200, TimeUnit.MILLISECONDS));
+    assertEquals(2, scheduler.getRunningStages());
+
+    first.release();
+    assertTrue(third.acquired.await(10, TimeUnit.SECONDS));
+    assertEquals(2, scheduler.getRunningStages());
+
+    second.release();
+    third.release.countDown();
+    third.join(10000);
+    assertEquals(0, scheduler.getRunningStages());
+    assertEquals(0, scheduler.getReservedRamMb());
+  }
+
+  public void testStagesAreAdmittedWithinRamBudget() throws Exception {
+    ChildProcessScheduler scheduler = new ChildProcessScheduler(10, 1000);
+    ChildProcessScheduler.Stage first = scheduler.acquire("first", 600);
+
+    // The second stage fits in a free slot but not in the remaining RAM.
+    StageThatWaits second = new StageThatWaits(scheduler, "second", 600);
+    second.start();
+    assertFalse(second.acquired.await(200, TimeUnit.MILLISECONDS));
+    assertEquals(600, scheduler.getReservedRamMb());
+
+    // A smaller stage that fits is not held up by the waiting one.
+    ChildProcessScheduler.Stage small = scheduler.acquire("small", 400);
+    assertEquals(1000, scheduler.getReservedRamMb());
+    small.release();
+
+    first.release();
+    assertTrue(second.acquired.await(10, TimeUnit.SECONDS));
+    assertEquals(600, scheduler.getReservedRamMb());
+    second.release.countDown();
+    second.join(10000);
+    assertEquals(0, scheduler.getReservedRamMb());
+  }
+
+  public void testStageLargerThanBudgetRunsAlone() throws Exception {
+    ChildProcessScheduler scheduler = new ChildProcessScheduler(4, 1000);
+    ChildProcessScheduler.Stage large = scheduler.acquire("large", 4000);
+    assertEquals(1, scheduler.getRunningStages());
+    assertEquals(4000, scheduler.getReservedRamMb());
+
+    StageThatWaits next = new StageThatWaits(scheduler, "next", 100);
+    next.start();
+    assertFalse(next.acquired.await(200, TimeUnit.MILLISECONDS));
+
+    large.release();
+    assertTrue(next.acquired.await(10, TimeUnit.SECONDS));
+    next.release.countDown();
+    next.join(10000);
+  }
+
+  public void testReleaseTwiceHasNoEffect() throws Exception {
+    ChildProcessScheduler scheduler = new ChildProcessScheduler(2, 1000);
+    ChildProcessScheduler.Stage first = scheduler.acquire("first", 300);
+    ChildProcessScheduler.Stage second = scheduler.acquire("second", 300);
+    first.release();
+    first.release();
+    assertEquals(1, scheduler.getRunningStages());
+    assertEquals(300, scheduler.getReservedRamMb());
+    assertTrue(first.getTimeMessage().contains("run time"));
+    second.release();
+    assertEquals(0, scheduler.getRunningStages());
+  }
+
+  public void testWaitingStageIsInterrupted() throws Exception {
+    ChildProcessScheduler scheduler = new ChildProcessScheduler(1, 1000);
+    ChildProcessScheduler.Stage first = scheduler.acquire("first", 100);
+    StageThatWaits second = new StageThatWaits(scheduler, "second", 100);
+    second.start();
+    assertFalse(second.acquired.await(200, TimeUnit.MILLISECONDS));
+    second.interrupt();
+    second.join(10000);
+    assertTrue(second.interrupted);
+    assertEquals(1, scheduler.getRunningStages());
+    assertEquals(100, scheduler.getReservedRamMb());
+    first.release();
+    assertEquals(0, scheduler.getRunningStages());
+  }
+
+  /**
+   * Acquires a stage on its own thread and holds it until released.
+   */
+  private static class StageThatWaits extends Thread {
+    private final ChildProcessScheduler scheduler;
+    private final String name;
+    private final long ramMb;
+    private final CountDownLatch acquired = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean interrupted = false;
+
+    StageThatWaits(ChildProcessScheduler scheduler, String name, long ramMb) {
+      this.scheduler = scheduler;
+      this.name = name;
+      this.ramMb = ramMb;
+    }
+
+    @Override
+    public void run() {
+      try {
+        ChildProcessScheduler.Stage stage = scheduler.acquire(name, ramMb);
+        acquired.countDown();
+        release.await();
+        stage.release();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+  }
+}
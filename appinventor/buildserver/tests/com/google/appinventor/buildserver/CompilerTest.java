@@ -8,9 +8,14 @@ package com.google.appinventor.buildserver;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
 import java.util.Map;
 import java.util.Set;
 
@@ -19,6 +24,20 @@ import java.util.Set;
  *
  */
 public class CompilerTest extends TestCase {
+  private String savedResourceDir;
+  private File tmpDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    savedResourceDir = Compiler.getResourceDir();
+    tmpDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    Compiler.setResourceDir(savedResourceDir);
+    FileUtils.deleteDirectory(tmpDir);
+  }
 
   public void testGeneratePermissions() throws Exception {
     Set<String> noComponents = Sets.newHashSet();
@@ -130,4 +149,41 @@ public class CompilerTest extends TestCase {
     // Finally, test for the name attribute of the <intent-filter>'s <action> subelement
     assertTrue(activityElementString.contains("name=\"android.intent.action.MAIN\""));
   }
+
+  public void testGetResourceExtractsToContentAddressedDir() throws Exception {
+    File resourceDir = tmpDir;
+    Compiler.setResourceDir(resourceDir.getAbsolutePath());
+    String resourcePath = "/com/google/appinventor/buildserver/CompilerTest.class";
+    String path = Compiler.getResource(resourcePath);
+    assertEquals(path, Compiler.getResource(resourcePath));
+    File file = new File(path);
+    assertTrue(file.isFile());
+    assertEquals("CompilerTest.class", file.getName());
+    assertEquals(Files.hash(file, Hashing.sha1()).toString(), file.getParentFile().getName());
+    assertTrue(path.startsWith(resourceDir.getAbsolutePath()));
+  }
+
+  public void testDeleteOldResourceVersionsKeepsRecentlyUsedVersions() throws Exception {
+    long now = System.currentTimeMillis();
+    long gracePeriod = Compiler.RESOURCE_GRACE_PERIOD_MILLIS;
+    File newest = makeVersion("newest", now);
+    File previous = makeVersion("previous", now - gracePeriod / 4);
+    // Older than the versions kept, but another build server may still be using it.
+    File inUse = makeVersion("inuse", now - gracePeriod / 2);
+    File unused = makeVersion("unused", now - gracePeriod - 60000);
+    Compiler.deleteOldResourceVersions(tmpDir);
+    assertTrue(newest.exists());
+    assertTrue(previous.exists());
+    assertTrue(inUse.exists());
+    assertFalse(unused.exists());
+  }
+
+  private File makeVersion(String hash, long lastUsed) throws Exception {
+    File version = new File(tmpDir, hash);
+    File resource = new File(version, "resource");
+    Files.createParentDirs(resource);
+    Files.write("x".getBytes(), resource);
+    assertTrue(version.setLastModified(lastUsed));
+    return version;
+  }
 }
@@ -0,0 +1,118 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests KawaCompilerPool class, using real Kawa worker processes.
+ */
+public class KawaCompilerPoolTest extends TestCase {
+  private static final long RAM_MB = 256;
+
+  private File tmpDir;
+  private String javaCommand;
+  private String kawaClasspath;
+  private File runtime;
+  private ChildProcessScheduler scheduler;
+  private KawaCompilerPool pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+    javaCommand = System.getProperty("java.home") + "/bin/java";
+    kawaClasspath = new File(kawa.repl.class.getProtectionDomain().getCodeSource().getLocation()
+        .toURI()).getPath();
+    runtime = writeFile("runtime.scm",
+        "(define-syntax twice (syntax-rules () ((_ x) (* 2 x))))\n");
+    // Room for exactly one worker.
+    scheduler = new ChildProcessScheduler(2, RAM_MB);
+    pool = new KawaCompilerPool(1, 10, scheduler);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    pool.shutdown();
+    FileUtils.deleteDirectory(tmpDir);
+  }
+
+  public void testCompileReusesWorker() throws Exception {
+    File source = writeFile("a.scm", "(define (f y) (twice y))\n");
+    assertEquals(KawaCompilerPool.Result.SUCCEEDED, compile("out1", source));
+    assertTrue(new File(tmpDir, "out1/p/a.class").exists());
+    assertEquals(1, pool.getIdleWorkerCount());
+    assertEquals(RAM_MB, scheduler.getIdleRamMb());
+    assertEquals(0, scheduler.getRunningStages());
+
+    assertEquals(KawaCompilerPool.Result.SUCCEEDED, compile("out2", source));
+    assertTrue(new File(tmpDir, "out2/p/a.class").exists());
+    assertEquals(1, pool.getWorkerStartCount());
+    assertEquals(2, pool.getWorkerCompileCount());
+  }
+
+  public void testCompileErrorIsReportedAndWorkerKept() throws Exception {
+    File bad = writeFile("bad.scm", "(define (f y) (twice y)\n");
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    assertEquals(KawaCompilerPool.Result.FAILED, compile("out1", bad, err));
+    assertTrue(err.toString().contains("bad.scm"));
+    assertEquals(1, pool.getFailedCompileCount());
+
+    // The same worker compiles the next request.
+    File good = writeFile("good.scm", "(define (g y) (twice y))\n");
+    assertEquals(KawaCompilerPool.Result.SUCCEEDED, compile("out2", good));
+    assertTrue(new File(tmpDir, "out2/p/good.class").exists());
+    assertEquals(1, pool.getWorkerStartCount());
+  }
+
+  public void testIdleWorkerIsStoppedWhenStageNeedsItsRam() throws Exception {
+    File source = writeFile("a.scm", "(define (f y) (twice y))\n");
+    assertEquals(KawaCompilerPool.Result.SUCCEEDED, compile("out1", source));
+    assertEquals(RAM_MB, scheduler.getIdleRamMb());
+
+    // Another stage is already running, so the new one only fits without the idle worker.
+    ChildProcessScheduler.Stage other = scheduler.acquire("other", 1);
+    assertEquals(1, pool.getIdleWorkerCount());
+    ChildProcessScheduler.Stage dx = scheduler.acquire("dx", RAM_MB - 1);
+    assertEquals(0, pool.getIdleWorkerCount());
+    assertEquals(0, scheduler.getIdleRamMb());
+    dx.release();
+    other.release();
+  }
+
+  private KawaCompilerPool.Result compile(String outDir, File source) throws Exception {
+    return compile(outDir, source, new ByteArrayOutputStream());
+  }
+
+  private KawaCompilerPool.Result compile(String outDir, File source, ByteArrayOutputStream err)
+      throws Exception {
+    List<String> compileArgs = Lists.newArrayList();
+    Collections.addAll(compileArgs,
+        "-d", new File(tmpDir, outDir).getPath(),
+        "-P", "p.",
+        "-C", source.getPath());
+    return pool.compile(javaCommand, Lists.newArrayList("-mx" + RAM_MB + "M"), kawaClasspath,
+        runtime.getPath(), compileArgs, RAM_MB, new PrintStream(new ByteArrayOutputStream()),
+        new PrintStream(err));
+  }
+
+  private File writeFile(String name, String contents) throws IOException {
+    File file = new File(tmpDir, name);
+    Files.write(contents, file, Charsets.UTF_8);
+    return file;
+  }
+}
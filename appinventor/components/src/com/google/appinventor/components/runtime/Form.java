@@ -233,6 +233,10 @@ public class Form extends AppInventorCompatActivity
 
   private final Random permissionRandom = new Random(); // Used for generating nonces
 
+  // Event handlers found by dispatchEvent and dispatchGenericEvent, by registered component
+  // name or component class and then by event name. Cleared when the form environment changes.
+  private final Map<Object, Map<String, Object>> handlerCache = Maps.newHashMap();
+
   // Set to the optional String-valued Extra passed in via an Intent on startup.
   // This is passed directly in the Repl.
   protected String startupValue = "";
@@ -680,6 +684,43 @@ public class Form extends AppInventorCompatActivity
     }
   }
 
+  /**
+   * Returns the event handler cached for the given key and event name, or null if there is none.
+   * Used by the dispatchEvent and dispatchGenericEvent methods defined in runtime.scm.
+   *
+   * @param key the registered component name or the component class
+   * @param eventName the name of the event
+   * @return the cached handler, or null
+   */
+  public Object getCachedHandler(Object key, String eventName) {
+    Map<String, Object> handlers = handlerCache.get(key);
+    return handlers == null ? null : handlers.get(eventName);
+  }
+
+  /**
+   * Caches an event handler for the given key and event name.
+   *
+   * @param key the registered component name or the component class
+   * @param eventName the name of the event
+   * @param handler the handler to cache
+   */
+  public void cacheHandler(Object key, String eventName, Object handler) {
+    Map<String, Object> handlers = handlerCache.get(key);
+    if (handlers == null) {
+      handlers = Maps.newHashMap();
+      handlerCache.put(key, handlers);
+    }
+    handlers.put(eventName, handler);
+  }
+
+  /**
+   * Drops all cached event handlers. This must be called whenever the form environment changes,
+   * for example when the REPL defines or deletes an event handler or a component.
+   */
+  public void clearHandlerCache() {
+    handlerCache.clear();
+  }
+
   void ReplayFormOrientation() {
     // We first make a copy of the existing dimChanges list
     // because while we are replaying it, it is being appended to
@@ -0,0 +1,160 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import com.google.appinventor.components.annotations.DesignerComponent;
+
+import gnu.kawa.reflect.Invoke;
+import gnu.lists.LList;
+import gnu.mapping.Symbol;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dispatches component method calls and property accesses from YAIL.
+ *
+ * <p>For every built-in component the annotation processor generates a class
+ * named {@code <Component>Invoker} in the component's package that switches on
+ * the member name and argument count and calls the matching Java method
+ * directly. Members that the generated class does not handle (for example
+ * overloaded names, or any member of an extension, which has no generated
+ * invoker) fall back to Kawa's reflective {@code invoke}, so the observable
+ * behavior is the same either way.
+ *
+ * <p>The argument conversions below mirror the ones Kawa applies when it
+ * invokes a method reflectively. Results are returned boxed, or as
+ * {@code Values.empty} for void methods, again as Kawa returns them.
+ */
+public final class ComponentInvokers {
+
+  /**
+   * Direct-dispatch entry point implemented by the generated invoker classes.
+   */
+  public interface Invoker {
+    /**
+     * Calls the member {@code name} on {@code component} with {@code args}.
+     *
+     * @return the converted result, or {@link #NOT_HANDLED} if this invoker
+     *     has no unambiguous member with the given name and argument count
+     */
+    Object invoke(Object component, String name, Object[] args) throws Throwable;
+  }
+
+  /**
+   * Returned by an {@link Invoker} for members that must go through reflection.
+   */
+  public static final Object NOT_HANDLED = new Object();
+
+  private static final String INVOKER_SUFFIX = "Invoker";
+
+  // Placeholder cached for classes without a generated invoker, since
+  // ConcurrentHashMap cannot hold null values.
+  private static final Invoker NO_INVOKER = new Invoker() {
+    @Override
+    public Object invoke(Object component, String name, Object[] args) {
+      return NOT_HANDLED;
+    }
+  };
+
+  private static final ConcurrentHashMap<Class<?>, Invoker> INVOKERS =
+      new ConcurrentHashMap<Class<?>, Invoker>();
+
+  private ComponentInvokers() {
+  }
+
+  /**
+   * Calls the member {@code name} on {@code component} with the (already
+   * coerced) arguments in {@code args}.
+   *
+   * @param component the receiver, normally a component
+   * @param name the member name, either a symbol or a string
+   * @param args the arguments as a Scheme list
+   * @return the result of the call, converted as Kawa would convert it
+   */
+  public static Object invoke(Object component, Object name, LList args) throws Throwable {
+    Object[] argArray = args.toArray();
+    if (component != null) {
+      String memberName = name instanceof Symbol ? ((Symbol) name).getName() : name.toString();
+      Object result = invokerFor(component.getClass()).invoke(component, memberName, argArray);
+      if (result != NOT_HANDLED) {
+        return result;
+      }
+    }
+    Object[] invokeArgs = new Object[argArray.length + 2];
+    invokeArgs[0] = component;
+    invokeArgs[1] = name;
+    System.arraycopy(argArray, 0, invokeArgs, 2, argArray.length);
+    return Invoke.invoke.applyN(invokeArgs);
+  }
+
+  /**
+   * Returns the generated invoker for {@code cls}. Classes that are not
+   * designer components themselves, such as the class generated for each
+   * screen, use the invoker of their nearest designer component ancestor.
+   */
+  private static Invoker invokerFor(Class<?> cls) {
+    Invoker invoker = INVOKERS.get(cls);
+    if (invoker == null) {
+      invoker = findInvoker(cls);
+      INVOKERS.putIfAbsent(cls, invoker);
+    }
+    return invoker;
+  }
+
+  private static Invoker findInvoker(Class<?> cls) {
+    for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+      if (c.isAnnotationPresent(DesignerComponent.class)) {
+        try {
+          Class<?> invokerClass = Class.forName(c.getName() + INVOKER_SUFFIX, true,
+              c.getClassLoader());
+          return (Invoker) invokerClass.newInstance();
+        } catch (ClassNotFoundException e) {
+          // Extensions do not have generated invokers.
+          return NO_INVOKER;
+        } catch (InstantiationException e) {
+          return NO_INVOKER;
+        } catch (IllegalAccessException e) {
+          return NO_INVOKER;
+        }
+      }
+    }
+    return NO_INVOKER;
+  }
+
+  // Argument conversions used by the generated invokers.
+
+  public static int asInt(Object arg) {
+    return ((Number) arg).intValue();
+  }
+
+  public static long asLong(Object arg) {
+    return ((Number) arg).longValue();
+  }
+
+  public static short asShort(Object arg) {
+    return ((Number) arg).shortValue();
+  }
+
+  public static byte asByte(Object arg) {
+    return ((Number) arg).byteValue();
+  }
+
+  public static float asFloat(Object arg) {
+    return ((Number) arg).floatValue();
+  }
+
+  public static double asDouble(Object arg) {
+    return ((Number) arg).doubleValue();
+  }
+
+  public static boolean asBoolean(Object arg) {
+    return !Boolean.FALSE.equals(arg);
+  }
+
+  public static String asString(Object arg) {
+    return arg == null ? null : arg.toString();
+  }
+}
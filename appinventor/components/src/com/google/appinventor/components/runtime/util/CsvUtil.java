@@ -8,9 +8,12 @@ package com.google.appinventor.components.runtime.util;
 
 import com.google.appinventor.components.runtime.collect.Lists;
 
+import gnu.lists.Pair;
+
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -19,21 +22,79 @@ import java.util.regex.Pattern;
 /**
  * Static methods to convert between CSV-formatted strings and YailLists.
  *
+ * <p>Besides the string-based methods, tables can be read from a
+ * {@link Reader}, either whole or in batches of rows, and written to a
+ * {@link Writer}, so that large tables such as logs stored in files do not
+ * have to be held in memory as one string.
+ *
  * @author sharon@google.com (Sharon Perl)
  */
 public final class CsvUtil {
 
+  /**
+   * Receives the rows of a CSV table from
+   * {@link CsvUtil#readCsvTable(Reader, int, CsvRowHandler)} as they are parsed.
+   */
+  public interface CsvRowHandler {
+    /**
+     * Called with each batch of parsed rows, in order.
+     *
+     * @param rows a YailList of rows, each of which is a YailList of strings
+     */
+    void onRows(YailList rows) throws Exception;
+  }
+
   private CsvUtil() {
   }
 
   public static YailList fromCsvTable(String csvString) throws Exception {
-    CsvParser csvParser = new CsvParser(new StringReader(csvString));
-    ArrayList<YailList> csvList = new ArrayList<YailList>();
+    return fromCsvTable(new StringReader(csvString));
+  }
+
+  /**
+   * Parses the CSV table read from {@code in} into a YailList of rows. The
+   * rows are linked into the result as they are parsed rather than collected
+   * in a separate list first. The reader is not closed.
+   */
+  public static YailList fromCsvTable(Reader in) throws Exception {
+    CsvParser csvParser = new CsvParser(in);
+    YailList csvList = new YailList();
     while (csvParser.hasNext()) {
-      csvList.add(YailList.makeList(csvParser.next()));
+      csvList.insertObject(csvList.size(), YailList.makeList(csvParser.next()));
+    }
+    csvParser.throwAnyProblem();
+    return csvList;
+  }
+
+  /**
+   * Parses the CSV table read from {@code in}, passing the rows to
+   * {@code handler} in batches of at most {@code batchSize} rows. Only one
+   * batch is held in memory at a time. If the table turns out to be
+   * malformed, the rows before the error have already been delivered when the
+   * error is thrown. The reader is not closed.
+   *
+   * @param in the reader to parse
+   * @param batchSize the largest number of rows to deliver at once
+   * @param handler the receiver of the rows
+   */
+  public static void readCsvTable(Reader in, int batchSize, CsvRowHandler handler)
+      throws Exception {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1.");
+    }
+    CsvParser csvParser = new CsvParser(in);
+    ArrayList<YailList> batch = new ArrayList<YailList>(batchSize);
+    while (csvParser.hasNext()) {
+      batch.add(YailList.makeList(csvParser.next()));
+      if (batch.size() == batchSize) {
+        handler.onRows(YailList.makeList(batch));
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      handler.onRows(YailList.makeList(batch));
     }
     csvParser.throwAnyProblem();
-    return YailList.makeList(csvList);
   }
 
   public static YailList fromCsvRow(String csvString) throws Exception {
@@ -62,8 +123,8 @@ public final class CsvUtil {
   // all rows have same number of elements?
   public static String toCsvTable(YailList csvList) {
     StringBuilder csvStringBuilder = new StringBuilder();
-    for (Object rowObj : csvList.toArray()) {
-      makeCsvRow((YailList) rowObj, csvStringBuilder);
+    for (Object rest = csvList.getCdr(); rest instanceof Pair; rest = ((Pair) rest).getCdr()) {
+      makeCsvRow((YailList) ((Pair) rest).getCar(), csvStringBuilder);
       // http://tools.ietf.org/html/rfc4180 suggests that CSV lines should be
       // terminated
       // by CRLF, hence the \r\n.
@@ -72,12 +133,36 @@ public final class CsvUtil {
     return csvStringBuilder.toString();
   }
 
+  /**
+   * Writes {@code csvList} to {@code out} in the same format as
+   * {@link #toCsvTable(YailList)}, one row at a time. The writer is not
+   * closed.
+   */
+  public static void writeCsvTable(YailList csvList, Writer out) throws IOException {
+    StringBuilder csvStringBuilder = new StringBuilder();
+    for (Object rest = csvList.getCdr(); rest instanceof Pair; rest = ((Pair) rest).getCdr()) {
+      csvStringBuilder.setLength(0);
+      makeCsvRow((YailList) ((Pair) rest).getCar(), csvStringBuilder);
+      csvStringBuilder.append("\r\n");
+      out.append(csvStringBuilder);
+    }
+    out.flush();
+  }
+
   private static void makeCsvRow(YailList row, StringBuilder csvStringBuilder) {
     String fieldDelim = "";
-    for (Object fieldObj : row.toArray()) {
-      String field = fieldObj.toString();
-      field = field.replaceAll("\"", "\"\"");
-      csvStringBuilder.append(fieldDelim).append("\"").append(field).append("\"");
+    for (Object rest = row.getCdr(); rest instanceof Pair; rest = ((Pair) rest).getCdr()) {
+      String field = ((Pair) rest).getCar().toString();
+      csvStringBuilder.append(fieldDelim).append('"');
+      // Double any embedded quotes.
+      for (int i = 0; i < field.length(); i++) {
+        char c = field.charAt(i);
+        if (c == '"') {
+          csvStringBuilder.append('"');
+        }
+        csvStringBuilder.append(c);
+      }
+      csvStringBuilder.append('"');
       fieldDelim = ",";
     }
   }
@@ -0,0 +1,377 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONException;
+
+/**
+ * Single-pass JSON parser used by {@link JsonUtil#getObjectFromJson(String, boolean)}.
+ *
+ * <p>Rather than building an {@code org.json} tree and then converting it, the
+ * parser produces the YAIL representation directly: JSON arrays become lists
+ * (YailLists when nested and {@code useDicts} is set), and JSON objects become
+ * YailDictionaries or associative lists sorted by key. It accepts the same
+ * input as Android's {@code JSONTokener}, including its leniencies (comments,
+ * single-quoted and unquoted strings, {@code =} and {@code ;} as separators),
+ * and converts values the same way {@link JsonUtil#convertJsonItem(Object,
+ * boolean)} does.
+ */
+final class JsonParser {
+
+  // Stands in for JSON null while a value is being read.
+  private static final Object NULL = new Object();
+
+  private final String in;
+  private final boolean useDicts;
+  private int pos;
+
+  private JsonParser(String in, boolean useDicts) {
+    this.in = in;
+    this.useDicts = useDicts;
+  }
+
+  /**
+   * Parses the first JSON value in {@code json}.
+   *
+   * <p>A top level string, number or boolean is returned unconverted, JSON
+   * null is returned as {@code null}, and a top level array is returned as a
+   * plain {@link List}, as {@link JsonUtil#getObjectFromJson(String, boolean)}
+   * always has.
+   *
+   * @param json the JSON text to parse
+   * @param useDicts true if JSON objects should become YailDictionary, false
+   *     for associative lists
+   * @return the parsed value
+   * @throws JSONException if the JSON is malformed
+   */
+  static Object parse(String json, boolean useDicts) throws JSONException {
+    Object value = new JsonParser(json, useDicts).nextValue();
+    return value == NULL ? null : value;
+  }
+
+  /*
+   * Reads the next value. Strings, numbers and booleans are returned as read;
+   * arrays and objects are returned already converted.
+   */
+  private Object nextValue() throws JSONException {
+    int c = nextCleanInternal();
+    switch (c) {
+      case -1:
+        throw syntaxError("End of input");
+      case '{':
+        return readObject();
+      case '[':
+        return readArray();
+      case '\'':
+      case '"':
+        return nextString((char) c);
+      default:
+        pos--;
+        return readLiteral();
+    }
+  }
+
+  /*
+   * Converts a value nested inside an array or object, following
+   * JsonUtil.convertJsonItem.
+   */
+  private Object convertItem(Object value) {
+    if (value == NULL) {
+      return "null";
+    } else if (value instanceof String) {
+      String s = (String) value;
+      if (s.equalsIgnoreCase("false")) {
+        return false;
+      } else if (s.equalsIgnoreCase("true")) {
+        return true;
+      }
+    } else if (useDicts && value instanceof List) {
+      return YailList.makeList((List<?>) value);
+    }
+    return value;
+  }
+
+  private int nextCleanInternal() throws JSONException {
+    while (pos < in.length()) {
+      int c = in.charAt(pos++);
+      switch (c) {
+        case '\t':
+        case ' ':
+        case '\n':
+        case '\r':
+          continue;
+
+        case '/':
+          if (pos == in.length()) {
+            return c;
+          }
+          char peek = in.charAt(pos);
+          switch (peek) {
+            case '*':
+              pos++;
+              int commentEnd = in.indexOf("*/", pos);
+              if (commentEnd == -1) {
+                throw syntaxError("Unterminated comment");
+              }
+              pos = commentEnd + 2;
+              continue;
+            case '/':
+              pos++;
+              skipToEndOfLine();
+              continue;
+            default:
+              return c;
+          }
+
+        case '#':
+          skipToEndOfLine();
+          continue;
+
+        default:
+          return c;
+      }
+    }
+    return -1;
+  }
+
+  private void skipToEndOfLine() {
+    for (; pos < in.length(); pos++) {
+      char c = in.charAt(pos);
+      if (c == '\r' || c == '\n') {
+        pos++;
+        break;
+      }
+    }
+  }
+
+  private String nextString(char quote) throws JSONException {
+    // Most strings have no escapes, so only copy through a builder when one is found.
+    StringBuilder builder = null;
+    int start = pos;
+    while (pos < in.length()) {
+      char c = in.charAt(pos++);
+      if (c == quote) {
+        if (builder == null) {
+          return in.substring(start, pos - 1);
+        }
+        builder.append(in, start, pos - 1);
+        return builder.toString();
+      }
+      if (c == '\\') {
+        if (pos == in.length()) {
+          throw syntaxError("Unterminated escape sequence");
+        }
+        if (builder == null) {
+          builder = new StringBuilder();
+        }
+        builder.append(in, start, pos - 1);
+        builder.append(readEscapeCharacter());
+        start = pos;
+      }
+    }
+    throw syntaxError("Unterminated string");
+  }
+
+  private char readEscapeCharacter() throws JSONException {
+    char escaped = in.charAt(pos++);
+    switch (escaped) {
+      case 'u':
+        if (pos + 4 > in.length()) {
+          throw syntaxError("Unterminated escape sequence");
+        }
+        String hex = in.substring(pos, pos + 4);
+        pos += 4;
+        try {
+          return (char) Integer.parseInt(hex, 16);
+        } catch (NumberFormatException e) {
+          throw syntaxError("Invalid escape sequence: " + hex);
+        }
+      case 't':
+        return '\t';
+      case 'b':
+        return '\b';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 'f':
+        return '\f';
+      default:
+        // Covers \', \", \\ and \/ along with any other escaped character.
+        return escaped;
+    }
+  }
+
+  private Object readLiteral() throws JSONException {
+    String literal = nextToInternal("{}[]/\\:,=;# \t\f");
+
+    if (literal.length() == 0) {
+      throw syntaxError("Expected literal value");
+    } else if ("null".equalsIgnoreCase(literal)) {
+      return NULL;
+    } else if ("true".equalsIgnoreCase(literal)) {
+      return Boolean.TRUE;
+    } else if ("false".equalsIgnoreCase(literal)) {
+      return Boolean.FALSE;
+    }
+
+    // Try to parse as an integral type, as int if it fits.
+    if (literal.indexOf('.') == -1) {
+      int base = 10;
+      String number = literal;
+      if (number.startsWith("0x") || number.startsWith("0X")) {
+        number = number.substring(2);
+        base = 16;
+      } else if (number.startsWith("0") && number.length() > 1) {
+        number = number.substring(1);
+        base = 8;
+      }
+      try {
+        long longValue = Long.parseLong(number, base);
+        if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+          return (int) longValue;
+        } else {
+          return longValue;
+        }
+      } catch (NumberFormatException e) {
+        // Integers larger than a long, exponents and unquoted strings fall through.
+      }
+    }
+
+    // Next try floating point.
+    try {
+      return Double.valueOf(literal);
+    } catch (NumberFormatException e) {
+      // Fall through to an unquoted string.
+    }
+
+    return literal;
+  }
+
+  private String nextToInternal(String excluded) {
+    int start = pos;
+    for (; pos < in.length(); pos++) {
+      char c = in.charAt(pos);
+      if (c == '\r' || c == '\n' || excluded.indexOf(c) != -1) {
+        return in.substring(start, pos);
+      }
+    }
+    return in.substring(start);
+  }
+
+  /*
+   * Reads an object, returning a YailDictionary or an associative list with
+   * the keys in sorted order. As with JSONObject, a repeated key keeps its
+   * last value.
+   */
+  private Object readObject() throws JSONException {
+    TreeMap<String, Object> entries = new TreeMap<String, Object>();
+
+    int first = nextCleanInternal();
+    if (first != '}') {
+      if (first != -1) {
+        pos--;
+      }
+      while (true) {
+        Object name = nextValue();
+        if (!(name instanceof String)) {
+          throw syntaxError("Names must be strings, but " + (name == NULL ? "null" : name)
+              + " is of type " + (name == NULL ? "null" : name.getClass().getName()));
+        }
+
+        int separator = nextCleanInternal();
+        if (separator != ':' && separator != '=') {
+          throw syntaxError("Expected ':' after " + name);
+        }
+        if (pos < in.length() && in.charAt(pos) == '>') {
+          pos++;
+        }
+
+        Object value = nextValue();
+        if (value instanceof Number) {
+          double d = ((Number) value).doubleValue();
+          if (Double.isInfinite(d) || Double.isNaN(d)) {
+            throw new JSONException("Forbidden numeric value: " + d);
+          }
+        }
+        entries.put((String) name, convertItem(value));
+
+        int c = nextCleanInternal();
+        if (c == '}') {
+          break;
+        } else if (c != ';' && c != ',') {
+          throw syntaxError("Unterminated object");
+        }
+      }
+    }
+
+    if (useDicts) {
+      YailDictionary result = new YailDictionary();
+      for (Map.Entry<String, Object> entry : entries.entrySet()) {
+        result.put(entry.getKey(), entry.getValue());
+      }
+      return result;
+    } else {
+      List<Object> result = new ArrayList<Object>(entries.size());
+      for (Map.Entry<String, Object> entry : entries.entrySet()) {
+        List<Object> pair = new ArrayList<Object>(2);
+        pair.add(entry.getKey());
+        pair.add(entry.getValue());
+        result.add(pair);
+      }
+      return result;
+    }
+  }
+
+  /*
+   * Reads an array into a plain list; convertItem turns nested arrays into
+   * YailLists when needed. JSONTokener reads an omitted element, as in [1,,2],
+   * as a Java null, which JSONArray.get then rejects, so it is an error here.
+   */
+  private List<Object> readArray() throws JSONException {
+    List<Object> result = new ArrayList<Object>();
+    boolean hasTrailingSeparator = false;
+
+    while (true) {
+      switch (nextCleanInternal()) {
+        case -1:
+          throw syntaxError("Unterminated array");
+        case ']':
+          if (hasTrailingSeparator) {
+            throw new JSONException("Value at " + result.size() + " is null.");
+          }
+          return result;
+        case ',':
+        case ';':
+          throw new JSONException("Value at " + result.size() + " is null.");
+        default:
+          pos--;
+      }
+
+      result.add(convertItem(nextValue()));
+
+      switch (nextCleanInternal()) {
+        case ']':
+          return result;
+        case ',':
+        case ';':
+          hasTrailingSeparator = true;
+          continue;
+        default:
+          throw syntaxError("Unterminated array");
+      }
+    }
+  }
+
+  private JSONException syntaxError(String message) {
+    return new JSONException(message + " at character " + pos + " of " + in);
+  }
+}
@@ -13,6 +13,7 @@ import com.google.appinventor.components.runtime.Form;
 import com.google.appinventor.components.runtime.errors.YailRuntimeError;
 
 import gnu.lists.FString;
+import gnu.lists.Pair;
 
 import gnu.math.IntFraction;
 
@@ -32,7 +33,6 @@ import java.util.TreeSet;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
-import org.json.JSONTokener;
 
 /**
  * Provides utility functions to convert between Java object and JSON.
@@ -244,14 +244,32 @@ public class JsonUtil {
   }
 
   public static String getJsonRepresentation(Object value) throws JSONException {
+    StringBuilder sb = new StringBuilder();
+    appendJsonRepresentation(sb, value);
+    return sb.toString();
+  }
+
+  /**
+   * Appends the JSON representation of {@code value} to {@code sb}. Nested
+   * lists and dictionaries are written into the same buffer rather than
+   * being built up as separate strings at each level.
+   *
+   * @param sb the buffer to append to
+   * @param value the value to encode
+   * @throws JSONException if value contains a number that cannot be encoded
+   */
+  static void appendJsonRepresentation(StringBuilder sb, Object value) throws JSONException {
     if (value == null || value.equals(null)) {
-      return "null";
+      sb.append("null");
+      return;
     }
     if (value instanceof FString) {
-      return JSONObject.quote(value.toString());
+      sb.append(JSONObject.quote(value.toString()));
+      return;
     }
     if (value instanceof YailList) {
-      return ((YailList) value).toJSONString();
+      appendYailList(sb, (YailList) value);
+      return;
     }
     // The Json tokener used in getObjectFromJson cannot handle
     // fractions.  So we Json encode fractions by first converting
@@ -261,19 +279,29 @@ public class JsonUtil {
     // StoreValue.  See the "warning" comment in runtime.scm at
     // call-component-method.
     if (value instanceof IntFraction) {
-      return JSONObject.numberToString((Number) ((IntFraction)value).doubleValue());
+      sb.append(JSONObject.numberToString((Number) ((IntFraction)value).doubleValue()));
+      return;
     }
     if (value instanceof Number) {
-      return JSONObject.numberToString((Number) value);
+      sb.append(JSONObject.numberToString((Number) value));
+      return;
     }
     if (value instanceof Boolean) {
-      return value.toString();
+      sb.append(value.toString());
+      return;
     }
     if (value instanceof List) {
-      value = ((List)value).toArray();
+      sb.append('[');
+      String separator = "";
+      for (Object o : (List<?>) value) {
+        sb.append(separator);
+        appendJsonRepresentation(sb, o);
+        separator = ",";
+      }
+      sb.append(']');
+      return;
     }
     if (value instanceof YailDictionary) {
-      StringBuilder sb = new StringBuilder();
       YailDictionary dict = (YailDictionary) value;
       String sep = "";
       sb.append('{');
@@ -281,24 +309,44 @@ public class JsonUtil {
         sb.append(sep);
         sb.append(JSONObject.quote(entry.getKey().toString()));
         sb.append(':');
-        sb.append(getJsonRepresentation(entry.getValue()));
+        appendJsonRepresentation(sb, entry.getValue());
         sep = ",";
       }
       sb.append('}');
-      return sb.toString();
+      return;
     }
     if (value.getClass().isArray()) {
-      StringBuilder sb = new StringBuilder();
-      sb.append("[");
+      sb.append('[');
       String separator = "";
       for (Object o: (Object[]) value) {
-        sb.append(separator).append(getJsonRepresentation(o));
+        sb.append(separator);
+        appendJsonRepresentation(sb, o);
+        separator = ",";
+      }
+      sb.append(']');
+      return;
+    }
+    sb.append(JSONObject.quote(value.toString()));
+  }
+
+  /*
+   * Appends the items of a YailList, skipping its header. As with
+   * YailList.toJSONString, a failure inside the list is reported as a
+   * YailRuntimeError.
+   */
+  private static void appendYailList(StringBuilder sb, YailList list) {
+    try {
+      sb.append('[');
+      String separator = "";
+      for (Object rest = list.getCdr(); rest instanceof Pair; rest = ((Pair) rest).getCdr()) {
+        sb.append(separator);
+        appendJsonRepresentation(sb, ((Pair) rest).getCar());
         separator = ",";
       }
-      sb.append("]");
-      return sb.toString();
+      sb.append(']');
+    } catch (JSONException e) {
+      throw new YailRuntimeError("List failed to convert to JSON.", "JSON Creation Error.");
     }
-    return JSONObject.quote(value.toString());
   }
 
   /**
@@ -337,24 +385,8 @@ public class JsonUtil {
       // when given the empty string.
       return "";
     } else {
-      final Object value = (new JSONTokener(jsonString)).nextValue();
-      // Note that the JSONTokener may return a value equals() to null.
-      if (value == null || value.equals(JSONObject.NULL)) {
-        return null;
-      } else if ((value instanceof String) ||
-          (value instanceof Number) ||
-          (value instanceof Boolean)) {
-        return value;
-      } else if (value instanceof JSONArray) {
-        return getListFromJsonArray((JSONArray)value, useDicts);
-      } else if (value instanceof JSONObject) {
-        if (useDicts) {
-          return getDictionaryFromJsonObject((JSONObject) value);
-        } else {
-          return getListFromJsonObject((JSONObject) value);
-        }
-      }
-      throw new JSONException("Invalid JSON string.");
+      // JsonParser builds the YAIL values directly in one pass over the text.
+      return JsonParser.parse(jsonString, useDicts);
     }
   }
 
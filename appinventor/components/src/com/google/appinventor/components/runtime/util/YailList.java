@@ -11,6 +11,7 @@ import gnu.lists.LList;
 import gnu.lists.Pair;
 import gnu.math.IntNum;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -21,6 +22,15 @@ import org.json.JSONException;
  * by the Kawa framework. YailList is the main list primitive used
  * by App Inventor components.
  *
+ * <p>Besides the chain of pairs that Kawa code sees, a YailList keeps an
+ * array of those pairs, so that its size and the item at an index can be
+ * found without walking the chain. The array is built the first time it is
+ * needed. The pairs a YailList creates belong to it, and changing the cdr of
+ * one of them, or of the list itself, through the Pair API drops the array.
+ * The array is only kept while every pair in the chain belongs to the list;
+ * a chain that contains other pairs, for example after the contents were set
+ * to a Kawa list, is walked on each use.
+ *
  */
 @SuppressWarnings("rawtypes")
 public class YailList extends Pair implements YailObject {
@@ -35,6 +45,10 @@ public class YailList extends Pair implements YailObject {
   // legitimate Yail data types.  See the definition of sanitization
   // in runtime.scm.
 
+  // The pairs of the contents of this list, in order. Built when first needed, and only kept
+  // while all of them are ItemPairs of this list.
+  private transient ArrayList<Pair> pairs;
+
   /**
    * Create an empty YailList.
    */
@@ -42,10 +56,6 @@ public class YailList extends Pair implements YailObject {
     super(YailConstants.YAIL_HEADER, LList.Empty);
   }
 
-  private YailList(Object cdrval) {
-    super(YailConstants.YAIL_HEADER, cdrval);
-  }
-
   /**
    * Create an empty YailList YailList from an array.
    */
@@ -57,37 +67,39 @@ public class YailList extends Pair implements YailObject {
    * Create a YailList from an array.
    */
   public static YailList makeList(Object[] objects) {
-    LList newCdr = Pair.makeList(objects, 0);
-    return new YailList(newCdr);
+    return fromItems(Arrays.asList(objects));
   }
 
   /**
    * Create a YailList from a List.
    */
   public static YailList makeList(List vals) {
-    LList newCdr = Pair.makeList(vals);
-    return new YailList(newCdr);
+    return fromItems(vals);
   }
 
   /**
    * Create a YailList from a Collection.
    */
   public static YailList makeList(Collection vals) {
-    List valsList = new ArrayList(vals);
-
-    LList newCdr = Pair.makeList(valsList);
-    return new YailList(newCdr);
+    return fromItems(vals);
   }
 
   /**
    * Create a YailList from a Set.
    */
   public static YailList makeList(Set vals) {
-    // LList newCdr = Pair.makeList(vals.toArray(new Object[vals.size()]), 0);
-    List valsList = new ArrayList(vals);
+    return fromItems(vals);
+  }
 
-    LList newCdr = Pair.makeList(valsList);
-    return new YailList(newCdr);
+  private static YailList fromItems(Iterable<?> items) {
+    YailList list = new YailList();
+    Pair last = list;
+    for (Object item : items) {
+      Pair pair = new ItemPair(list, item, LList.Empty);
+      list.link(last, pair);
+      last = pair;
+    }
+    return list;
   }
 
   /**
@@ -148,16 +160,7 @@ public class YailList extends Pair implements YailObject {
   public String toJSONString() {
     try {
       StringBuilder json = new StringBuilder();
-      String separator = "";
-      json.append('[');
-      int size = this.size();
-      for (int i = 1; i <= size; i++) {
-        Object value = get(i);
-        json.append(separator).append(JsonUtil.getJsonRepresentation(value));
-        separator = ",";
-      }
-      json.append(']');
-
+      JsonUtil.appendJsonRepresentation(json, this);
       return json.toString();
 
     } catch (JSONException e) {
@@ -170,7 +173,29 @@ public class YailList extends Pair implements YailObject {
    */
   @Override
   public int size() {
-    return super.size() - 1;
+    return pairs().size();
+  }
+
+  /**
+   * Return the element at the given index, where index 0 is the list
+   * header and index 1 is the first item.
+   */
+  @Override
+  public Object get(int index) {
+    if (index == 0) {
+      return car;
+    }
+    ArrayList<Pair> pairs = pairs();
+    if (index < 0 || index > pairs.size()) {
+      throw new IndexOutOfBoundsException("index " + index + " of list of size " + pairs.size());
+    }
+    return pairs.get(index - 1).getCar();
+  }
+
+  @Override
+  public void setCdr(Object cdr) {
+    super.setCdr(cdr);
+    pairs = null;
   }
 
   /**
@@ -200,4 +225,137 @@ public class YailList extends Pair implements YailObject {
   public Object getObject(int index) {
     return get(index + 1);
   }
+
+  /**
+   * Replace the Object at the given index.
+   */
+  public void setObject(int index, Object value) {
+    pairAt(index).setCar(value);
+  }
+
+  /**
+   * Insert an Object so that it ends up at the given index, which may be
+   * the size of the list to add it at the end.
+   */
+  public void insertObject(int index, Object value) {
+    ArrayList<Pair> pairs = pairs();
+    if (index < 0 || index > pairs.size()) {
+      throw new IndexOutOfBoundsException("index " + index + " of list of size " + pairs.size());
+    }
+    Pair previous = index == 0 ? this : pairs.get(index - 1);
+    Pair pair = new ItemPair(this, value, previous.getCdr());
+    link(previous, pair);
+    pairs.add(index, pair);
+  }
+
+  /**
+   * Remove the Object at the given index.
+   */
+  public void removeObject(int index) {
+    ArrayList<Pair> pairs = pairs();
+    Pair pair = pairAt(index);
+    link(index == 0 ? this : pairs.get(index - 1), pair.getCdr());
+    pairs.remove(index);
+  }
+
+  /**
+   * Add the items of another YailList at the end of this one. The other
+   * list's items are shared, but not its pairs, so later changes to either
+   * list don't affect the other.
+   */
+  public void appendList(YailList other) {
+    // Copy the items first, in case other is this list.
+    Object[] items = other.toArray();
+    ArrayList<Pair> pairs = pairs();
+    Pair last = pairs.isEmpty() ? this : pairs.get(pairs.size() - 1);
+    for (Object item : items) {
+      Pair pair = new ItemPair(this, item, LList.Empty);
+      link(last, pair);
+      pairs.add(pair);
+      last = pair;
+    }
+  }
+
+  private Pair pairAt(int index) {
+    ArrayList<Pair> pairs = pairs();
+    if (index < 0 || index >= pairs.size()) {
+      throw new IndexOutOfBoundsException("index " + index + " of list of size " + pairs.size());
+    }
+    return pairs.get(index);
+  }
+
+  /*
+   * Sets the cdr of this list or of one of its pairs. The array of pairs is
+   * kept, so the caller must update it. A pair of another list is changed
+   * through setCdr, which drops that list's array.
+   */
+  private void link(Pair pair, Object cdr) {
+    if (pair == this) {
+      super.setCdr(cdr);
+    } else if (pair instanceof ItemPair && ((ItemPair) pair).owner == this) {
+      ((ItemPair) pair).link(cdr);
+    } else {
+      pair.setCdr(cdr);
+    }
+  }
+
+  /*
+   * Returns the pairs of the contents of this list. The array is kept only if
+   * every pair belongs to this list, since otherwise a change to the chain
+   * could go unnoticed. The first and last pairs are checked as well, in case
+   * the chain was changed without calling setCdr.
+   */
+  private ArrayList<Pair> pairs() {
+    ArrayList<Pair> pairs = this.pairs;
+    if (pairs != null) {
+      boolean current = pairs.isEmpty()
+          ? cdr == LList.Empty
+          : pairs.get(0) == cdr && pairs.get(pairs.size() - 1).getCdr() == LList.Empty;
+      if (current) {
+        return pairs;
+      }
+    }
+    pairs = new ArrayList<Pair>();
+    boolean owned = true;
+    Object rest = cdr;
+    while (rest instanceof Pair) {
+      Pair pair = (Pair) rest;
+      owned = owned && pair instanceof ItemPair && ((ItemPair) pair).owner == this;
+      pairs.add(pair);
+      rest = pair.getCdr();
+    }
+    this.pairs = owned ? pairs : null;
+    return pairs;
+  }
+
+  /**
+   * A pair created by a YailList for its contents. Changing its cdr through
+   * the Pair API drops the array of pairs of the list it belongs to.
+   */
+  private static final class ItemPair extends Pair {
+    private final transient YailList owner;
+
+    // For Externalizable. A deserialized pair belongs to no list.
+    public ItemPair() {
+      owner = null;
+    }
+
+    ItemPair(YailList owner, Object car, Object cdr) {
+      super(car, cdr);
+      this.owner = owner;
+    }
+
+    @Override
+    public void setCdr(Object cdr) {
+      super.setCdr(cdr);
+      if (owner != null) {
+        owner.pairs = null;
+      }
+    }
+
+    // Sets the cdr for the owning list, which updates its array itself.
+    void link(Object cdr) {
+      super.setCdr(cdr);
+    }
+  }
 }
@@ -0,0 +1,222 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.scripts;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates, for each component, a class named {@code <Component>Invoker} that
+ * implements {@code ComponentInvokers.Invoker} by switching on the member name
+ * and argument count and calling the component's method directly. The YAIL
+ * runtime uses these classes in place of Kawa's reflective {@code invoke} for
+ * component method calls and property accesses.
+ *
+ * <p>Only members that are unambiguous for a given name and argument count,
+ * and whose parameter types can be converted the way Kawa converts them, are
+ * generated. Everything else is left to the reflective fallback.
+ *
+ * @see com.google.appinventor.components.runtime.util.ComponentInvokers
+ */
+public final class ComponentInvokerGenerator extends ComponentProcessor {
+  private static final String INVOKER_SUFFIX = "Invoker";
+  private static final String INVOKERS_CLASS =
+      "com.google.appinventor.components.runtime.util.ComponentInvokers";
+
+  @Override
+  protected void outputResults() throws IOException {
+    for (ComponentInfo component : components.values()) {
+      if (component.external) {
+        continue;
+      }
+      TypeElement element = processingEnv.getElementUtils().getTypeElement(component.type);
+      if (element == null) {
+        continue;
+      }
+      String invokerName = component.type + INVOKER_SUFFIX;
+      JavaFileObject src = processingEnv.getFiler().createSourceFile(invokerName, element);
+      Writer writer = src.openWriter();
+      try {
+        writer.write(generateInvoker(component, element));
+        writer.flush();
+      } finally {
+        writer.close();
+      }
+      messager.printMessage(Diagnostic.Kind.NOTE, "Wrote file " + src.toUri());
+    }
+  }
+
+  private String generateInvoker(ComponentInfo component, TypeElement element) {
+    String packageName =
+        processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+    SortedMap<String, SortedMap<Integer, ExecutableElement>> members = collectMembers(component,
+        element);
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("// Generated by ComponentInvokerGenerator. Do not edit.\n\n");
+    sb.append("package ").append(packageName).append(";\n\n");
+    sb.append("@SuppressWarnings({\"deprecation\", \"unchecked\", \"rawtypes\"})\n");
+    sb.append("public final class ").append(component.name).append(INVOKER_SUFFIX)
+        .append(" implements ").append(INVOKERS_CLASS).append(".Invoker {\n");
+    sb.append("  @Override\n");
+    sb.append("  public Object invoke(Object component, String name, Object[] args)"
+        + " throws Throwable {\n");
+    sb.append("    ").append(component.type).append(" target = (").append(component.type)
+        .append(") component;\n");
+    sb.append("    switch (name) {\n");
+    for (Map.Entry<String, SortedMap<Integer, ExecutableElement>> entry : members.entrySet()) {
+      sb.append("      case \"").append(entry.getKey()).append("\":\n");
+      sb.append("        switch (args.length) {\n");
+      for (Map.Entry<Integer, ExecutableElement> overload : entry.getValue().entrySet()) {
+        sb.append("          case ").append(overload.getKey()).append(":\n");
+        appendCall(sb, overload.getValue());
+      }
+      sb.append("        }\n");
+      sb.append("        break;\n");
+    }
+    sb.append("    }\n");
+    sb.append("    return ").append(INVOKERS_CLASS).append(".NOT_HANDLED;\n");
+    sb.append("  }\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  /*
+   * Collects the public instance methods of the component that back its
+   * properties and methods, keyed by name and then by argument count. Names
+   * with more than one candidate for the same argument count are dropped so
+   * that Kawa's overload resolution still decides them.
+   */
+  private SortedMap<String, SortedMap<Integer, ExecutableElement>> collectMembers(
+      ComponentInfo component, TypeElement element) {
+    Set<String> names = new HashSet<>(component.properties.keySet());
+    names.addAll(component.methods.keySet());
+
+    SortedMap<String, SortedMap<Integer, ExecutableElement>> members = new TreeMap<>();
+    Set<String> ambiguous = new HashSet<>();
+    Elements elementUtils = processingEnv.getElementUtils();
+    for (ExecutableElement method : ElementFilter.methodsIn(elementUtils.getAllMembers(element))) {
+      String name = method.getSimpleName().toString();
+      if (!names.contains(name) || !method.getModifiers().contains(Modifier.PUBLIC)
+          || method.getModifiers().contains(Modifier.STATIC)) {
+        continue;
+      }
+      String key = name + "/" + method.getParameters().size();
+      SortedMap<Integer, ExecutableElement> byArity = members.get(name);
+      if (byArity == null) {
+        byArity = new TreeMap<>();
+        members.put(name, byArity);
+      }
+      if (ambiguous.contains(key)) {
+        continue;
+      } else if (byArity.containsKey(method.getParameters().size()) || !isSupported(method)) {
+        ambiguous.add(key);
+        byArity.remove(method.getParameters().size());
+      } else {
+        byArity.put(method.getParameters().size(), method);
+      }
+    }
+
+    List<String> empty = new ArrayList<>();
+    for (Map.Entry<String, SortedMap<Integer, ExecutableElement>> entry : members.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        empty.add(entry.getKey());
+      }
+    }
+    members.keySet().removeAll(empty);
+    return members;
+  }
+
+  /*
+   * Parameters of these kinds would need conversions that only Kawa knows how
+   * to make, such as unboxing a number into a java.lang.Integer.
+   */
+  private boolean isSupported(ExecutableElement method) {
+    if (!method.getTypeParameters().isEmpty()) {
+      return false;
+    }
+    Types typeUtils = processingEnv.getTypeUtils();
+    for (VariableElement parameter : method.getParameters()) {
+      TypeKind kind = parameter.asType().getKind();
+      if (kind == TypeKind.CHAR || kind == TypeKind.ARRAY || kind == TypeKind.TYPEVAR) {
+        return false;
+      }
+      if (kind == TypeKind.DECLARED) {
+        String erased = typeUtils.erasure(parameter.asType()).toString();
+        if (erased.startsWith("java.lang.") && !erased.equals("java.lang.String")
+            && !erased.equals("java.lang.Object")) {
+          return false;
+        }
+      }
+    }
+    return method.getReturnType().getKind() != TypeKind.CHAR;
+  }
+
+  private void appendCall(StringBuilder sb, ExecutableElement method) {
+    StringBuilder call = new StringBuilder();
+    call.append("target.").append(method.getSimpleName()).append("(");
+    List<? extends VariableElement> parameters = method.getParameters();
+    for (int i = 0; i < parameters.size(); i++) {
+      if (i > 0) {
+        call.append(", ");
+      }
+      call.append(convertArgument(parameters.get(i).asType(), "args[" + i + "]"));
+    }
+    call.append(")");
+    if (method.getReturnType().getKind() == TypeKind.VOID) {
+      sb.append("            ").append(call).append(";\n");
+      sb.append("            return gnu.mapping.Values.empty;\n");
+    } else {
+      sb.append("            return ").append(call).append(";\n");
+    }
+  }
+
+  private String convertArgument(TypeMirror type, String arg) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+        return INVOKERS_CLASS + ".asBoolean(" + arg + ")";
+      case BYTE:
+        return INVOKERS_CLASS + ".asByte(" + arg + ")";
+      case SHORT:
+        return INVOKERS_CLASS + ".asShort(" + arg + ")";
+      case INT:
+        return INVOKERS_CLASS + ".asInt(" + arg + ")";
+      case LONG:
+        return INVOKERS_CLASS + ".asLong(" + arg + ")";
+      case FLOAT:
+        return INVOKERS_CLASS + ".asFloat(" + arg + ")";
+      case DOUBLE:
+        return INVOKERS_CLASS + ".asDouble(" + arg + ")";
+      default:
+        Types typeUtils = processingEnv.getTypeUtils();
+        String erased = typeUtils.erasure(type).toString();
+        if (erased.equals("java.lang.String")) {
+          return INVOKERS_CLASS + ".asString(" + arg + ")";
+        } else if (erased.equals("java.lang.Object")) {
+          return arg;
+        }
+        return "(" + erased + ") " + arg;
+    }
+  }
+}
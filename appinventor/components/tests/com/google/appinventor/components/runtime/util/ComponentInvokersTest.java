@@ -0,0 +1,66 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import gnu.lists.FString;
+import gnu.lists.LList;
+import gnu.mapping.SimpleSymbol;
+import gnu.math.DFloNum;
+import gnu.math.IntNum;
+
+import kawa.standard.Scheme;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the argument conversions and reflective fallback in
+ * {@link ComponentInvokers}.
+ */
+public class ComponentInvokersTest {
+
+  @BeforeClass
+  public static void setUpScheme() {
+    // Kawa's reflective invoke needs a current language, as it has in an app.
+    Scheme.registerEnvironment();
+  }
+
+  @Test
+  public void testNumberConversions() {
+    assertEquals(3, ComponentInvokers.asInt(IntNum.make(3)));
+    assertEquals(3, ComponentInvokers.asInt(DFloNum.make(3.7)));
+    assertEquals(1L << 40, ComponentInvokers.asLong(IntNum.make(1L << 40)));
+    assertEquals(2.5, ComponentInvokers.asDouble(DFloNum.make(2.5)), 0);
+    assertEquals(2.0f, ComponentInvokers.asFloat(IntNum.make(2)), 0);
+  }
+
+  @Test
+  public void testBooleanConversion() {
+    assertFalse(ComponentInvokers.asBoolean(Boolean.FALSE));
+    assertTrue(ComponentInvokers.asBoolean(Boolean.TRUE));
+    // As in Scheme, anything other than false is true.
+    assertTrue(ComponentInvokers.asBoolean(IntNum.make(0)));
+  }
+
+  @Test
+  public void testStringConversion() {
+    assertEquals("abc", ComponentInvokers.asString(new FString("abc")));
+    assertNull(ComponentInvokers.asString(null));
+  }
+
+  @Test
+  public void testFallsBackToReflection() throws Throwable {
+    // Strings have no generated invoker, so these go through Kawa's invoke.
+    assertEquals(3, ComponentInvokers.invoke("abc", new SimpleSymbol("length"), LList.Empty));
+    assertEquals("b", ComponentInvokers.invoke("abc", "substring",
+        LList.list2(IntNum.make(1), IntNum.make(2))));
+  }
+}
@@ -0,0 +1,134 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Compares reading and writing a large CSV file through strings, as the
+ * File component and the list-from-csv-table block do, with the streaming
+ * methods in {@link CsvUtil}.
+ *
+ * <p>This is not run with the unit tests. Run it by hand with the components
+ * test classpath, optionally passing the number of rows (50000 by default):
+ * <pre>
+ *   java -cp ... com.google.appinventor.components.runtime.util.CsvUtilBenchmark 50000
+ * </pre>
+ */
+public final class CsvUtilBenchmark {
+  private static final int ITERATIONS = 5;
+  private static final int BATCH_SIZE = 1000;
+
+  private CsvUtilBenchmark() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    File input = File.createTempFile("csvbench", ".csv");
+    File output = File.createTempFile("csvbench", ".out.csv");
+    try {
+      writeSensorLog(input, rows);
+      System.out.println("Rows: " + rows + ", file size: " + input.length() + " bytes");
+      for (int i = 0; i < ITERATIONS; i++) {
+        long start = System.nanoTime();
+        YailList table = CsvUtil.fromCsvTable(readFile(input));
+        long read = System.nanoTime();
+        writeFile(output, CsvUtil.toCsvTable(table));
+        long written = System.nanoTime();
+        System.out.printf("string:    read %4d ms, write %4d ms%n",
+            (read - start) / 1000000, (written - read) / 1000000);
+
+        start = System.nanoTime();
+        Reader reader = new BufferedReader(new FileReader(input));
+        try {
+          table = CsvUtil.fromCsvTable(reader);
+        } finally {
+          reader.close();
+        }
+        read = System.nanoTime();
+        Writer writer = new BufferedWriter(new FileWriter(output));
+        try {
+          CsvUtil.writeCsvTable(table, writer);
+        } finally {
+          writer.close();
+        }
+        written = System.nanoTime();
+        System.out.printf("streaming: read %4d ms, write %4d ms%n",
+            (read - start) / 1000000, (written - read) / 1000000);
+
+        final int[] count = new int[1];
+        start = System.nanoTime();
+        reader = new BufferedReader(new FileReader(input));
+        try {
+          CsvUtil.readCsvTable(reader, BATCH_SIZE, new CsvUtil.CsvRowHandler() {
+            @Override
+            public void onRows(YailList batch) {
+              count[0] += batch.size();
+            }
+          });
+        } finally {
+          reader.close();
+        }
+        read = System.nanoTime();
+        System.out.printf("batches:   read %4d ms (%d rows, %d at a time)%n",
+            (read - start) / 1000000, count[0], BATCH_SIZE);
+      }
+    } finally {
+      input.delete();
+      output.delete();
+    }
+  }
+
+  private static void writeSensorLog(File file, int rows) throws IOException {
+    Writer writer = new BufferedWriter(new FileWriter(file));
+    try {
+      writer.write("timestamp,x,y,z,note\r\n");
+      for (int i = 0; i < rows; i++) {
+        writer.write(Long.toString(1600000000000L + i * 20L));
+        writer.write(',');
+        writer.write(Double.toString(Math.sin(i)));
+        writer.write(',');
+        writer.write(Double.toString(Math.cos(i)));
+        writer.write(',');
+        writer.write(Double.toString(9.81 + (i % 7) * 0.01));
+        writer.write(i % 10 == 0 ? ",\"calibrated, \"\"ok\"\"\"\r\n" : ",\r\n");
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  private static String readFile(File file) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    char[] buf = new char[8192];
+    Reader reader = new FileReader(file);
+    try {
+      int n;
+      while ((n = reader.read(buf)) != -1) {
+        sb.append(buf, 0, n);
+      }
+    } finally {
+      reader.close();
+    }
+    return sb.toString();
+  }
+
+  private static void writeFile(File file, String contents) throws IOException {
+    Writer writer = new FileWriter(file);
+    try {
+      writer.write(contents);
+    } finally {
+      writer.close();
+    }
+  }
+}
@@ -10,7 +10,10 @@ import com.google.appinventor.components.runtime.util.YailList;
 
 import junit.framework.TestCase;
 
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Test CsvUtil methods (converting between YailLists and CSV-formatted strings.
@@ -171,4 +174,64 @@ public class CsvUtilTest extends TestCase {
     String expectedCSVString = "\"field0\",\"field1\",\"field2\"";
     assertEquals(expectedCSVString, CsvUtil.toCsvRow(YailList.makeList(row)));
   }
+
+  public void testFromCSVTableReader() throws Exception {
+    String testString = "a,\"b\"\"c\"\r\nd,e\r\n";
+    YailList fromReader = CsvUtil.fromCsvTable(new StringReader(testString));
+    assertEquals(CsvUtil.fromCsvTable(testString), fromReader);
+    assertEquals(2, fromReader.size());
+    assertEquals("b\"c", ((YailList) fromReader.get(1)).getString(1));
+  }
+
+  public void testReadCSVTableInBatches() throws Exception {
+    StringBuilder csv = new StringBuilder();
+    for (int i = 0; i < 7; ++i) {
+      csv.append("row").append(i).append(",x\r\n");
+    }
+    final List<YailList> batches = new ArrayList<YailList>();
+    CsvUtil.readCsvTable(new StringReader(csv.toString()), 3, new CsvUtil.CsvRowHandler() {
+      @Override
+      public void onRows(YailList rows) {
+        batches.add(rows);
+      }
+    });
+    assertEquals(3, batches.size());
+    assertEquals(3, batches.get(0).size());
+    assertEquals(3, batches.get(1).size());
+    assertEquals(1, batches.get(2).size());
+    assertEquals("(row6 x)", batches.get(2).get(1).toString());
+  }
+
+  public void testReadCSVTableReportsErrorAfterDeliveringRows() {
+    final List<YailList> batches = new ArrayList<YailList>();
+    try {
+      CsvUtil.readCsvTable(new StringReader("a,b\r\n\"c,d\r\n"), 10,
+          new CsvUtil.CsvRowHandler() {
+            @Override
+            public void onRows(YailList rows) {
+              batches.add(rows);
+            }
+          });
+      fail();
+    } catch (Exception e) {
+      // expected
+    }
+    assertEquals(1, batches.size());
+    assertEquals(1, batches.get(0).size());
+  }
+
+  public void testWriteCSVTableMatchesToCSVTable() throws Exception {
+    ArrayList<YailList> list = new ArrayList<YailList>();
+    for (int i = 0; i < 3; ++i) {
+      ArrayList<String> row = new ArrayList<String>();
+      row.add("field" + i);
+      row.add("say \"hi\"");
+      list.add(YailList.makeList(row));
+    }
+    YailList table = YailList.makeList(list);
+    StringWriter writer = new StringWriter();
+    CsvUtil.writeCsvTable(table, writer);
+    assertEquals(CsvUtil.toCsvTable(table), writer.toString());
+    assertTrue(writer.toString().startsWith("\"field0\",\"say \"\"hi\"\"\"\r\n"));
+  }
 }
@@ -133,4 +133,52 @@ public class JsonUtilTest {
     Object shouldBeEmpty = JsonUtil.getObjectFromJson("");
     assertEquals("", JsonUtil.getObjectFromJson(""));
   }
+
+  @Test
+  public void testGetObjectFromJsonWithDicts() throws JSONException {
+    Object result = JsonUtil.getObjectFromJson(
+        "{\"b\": [1, [\"x\", null]], \"a\": {\"c\": \"TRUE\"}}", true);
+    YailDictionary expected = new YailDictionary();
+    expected.put("a", YailDictionary.makeDictionary("c", true));
+    expected.put("b", YailList.makeList(Arrays.asList(1,
+        YailList.makeList(Arrays.asList("x", "null")))));
+    assertEquals(expected, result);
+    assertEquals(Arrays.asList("a", "b"),
+        new ArrayList<Object>(((YailDictionary) result).keySet()));
+  }
+
+  @Test
+  public void testGetObjectFromJsonWithAssociationLists() throws JSONException {
+    Object result = JsonUtil.getObjectFromJson("{\"b\": 2, \"a\": [1.5]}", false);
+    List<Object> expected = new ArrayList<Object>();
+    expected.add(Arrays.asList("a", Arrays.asList(1.5)));
+    expected.add(Arrays.asList("b", 2));
+    assertEquals(expected, result);
+  }
+
+  @Test
+  public void testGetObjectFromJsonTopLevelValues() throws JSONException {
+    // Only nested strings are converted to booleans.
+    assertEquals("true", JsonUtil.getObjectFromJson("\"true\"", true));
+    assertEquals(true, JsonUtil.getObjectFromJson("true", true));
+    assertEquals(null, JsonUtil.getObjectFromJson("null", true));
+    assertEquals("a\nb", JsonUtil.getObjectFromJson("\"a\\nb\"", true));
+    assertEquals(Arrays.asList(15, 123456789101112L),
+        JsonUtil.getObjectFromJson("[0xF, 123456789101112]", true));
+  }
+
+  @Test(expected = JSONException.class)
+  public void testGetObjectFromJsonMalformed() throws JSONException {
+    JsonUtil.getObjectFromJson("[1, {\"a\": ]", true);
+  }
+
+  @Test
+  public void testGetJsonRepresentationNested() throws JSONException {
+    YailDictionary dict = new YailDictionary();
+    dict.put("a", YailList.makeList(Arrays.asList(1, "x", YailList.makeList(Arrays.asList(true)))));
+    dict.put("b", Arrays.asList(2.5, "y"));
+    String json = JsonUtil.getJsonRepresentation(dict);
+    assertEquals("{\"a\":[1,\"x\",[true]],\"b\":[2.5,\"y\"]}", json);
+    assertEquals(dict.get("a"), ((YailDictionary) JsonUtil.getObjectFromJson(json, true)).get("a"));
+  }
 }
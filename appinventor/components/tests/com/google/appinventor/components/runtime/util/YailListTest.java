@@ -7,6 +7,8 @@
 package com.google.appinventor.components.runtime.util;
 
 import gnu.lists.FString;
+import gnu.lists.LList;
+import gnu.lists.Pair;
 import gnu.math.IntNum;
 
 import org.junit.Test;
@@ -235,4 +237,97 @@ public class YailListTest {
     assertEquals(Long.toString(Long.MAX_VALUE), strings[0]);
     assertEquals(Long.toString(Long.MAX_VALUE), strings[1]);
   }
+
+  @Test
+  public void testGetAndSetObject() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    assertEquals(3, yailList.size());
+    assertEquals("b", yailList.getObject(1));
+    yailList.setObject(1, "x");
+    assertEquals("x", yailList.getObject(1));
+    assertEquals("(a x c)", yailList.toString());
+    try {
+      yailList.setObject(3, "d");
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+  }
+
+  @Test
+  public void testInsertAndRemoveObject() {
+    YailList yailList = YailList.makeList(new Object[] {"b", "d"});
+    yailList.insertObject(0, "a");
+    yailList.insertObject(2, "c");
+    yailList.insertObject(4, "e");
+    assertEquals("(a b c d e)", yailList.toString());
+    assertEquals(5, yailList.size());
+    assertEquals("e", yailList.getObject(4));
+    yailList.removeObject(0);
+    yailList.removeObject(3);
+    yailList.removeObject(1);
+    assertEquals("(b d)", yailList.toString());
+    assertEquals(2, yailList.size());
+    assertEquals("d", yailList.getObject(1));
+  }
+
+  @Test
+  public void testAppendList() {
+    YailList yailList = YailList.makeList(new Object[] {"a"});
+    YailList other = YailList.makeList(new Object[] {"b", "c"});
+    yailList.appendList(other);
+    assertEquals("(a b c)", yailList.toString());
+    // The pairs are copied, so changing one list leaves the other alone
+    other.setObject(0, "x");
+    assertEquals("b", yailList.getObject(1));
+    yailList.appendList(yailList);
+    assertEquals("(a b c a b c)", yailList.toString());
+    assertEquals(6, yailList.size());
+    YailList empty = new YailList();
+    empty.appendList(other);
+    assertEquals("(x c)", empty.toString());
+  }
+
+  @Test
+  public void testChangesToTheChainAreNoticed() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b"});
+    assertEquals(2, yailList.size());
+    yailList.setCdr(LList.list3("x", "y", "z"));
+    assertEquals(3, yailList.size());
+    assertEquals("z", yailList.getObject(2));
+    ((Pair) LList.listTail(yailList.getCdr(), 2)).setCdr(LList.list1("w"));
+    assertEquals(4, yailList.size());
+    assertEquals("w", yailList.getObject(3));
+  }
+
+  @Test
+  public void testChangesInsideTheChainAreNoticed() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c", "d", "e", "f"});
+    assertEquals(6, yailList.size());
+    // Cut the chain after the second pair, leaving its first and last pairs alone
+    ((Pair) LList.listTail(yailList.getCdr(), 1)).setCdr(LList.Empty);
+    assertEquals(2, yailList.size());
+    assertEquals("(a b)", yailList.toString());
+    try {
+      yailList.getObject(2);
+      fail();
+    } catch (IndexOutOfBoundsException e) {
+      // this is the intended behavior
+    }
+    ((Pair) yailList.getCdr()).setCdr(LList.list2("x", "y"));
+    assertEquals(3, yailList.size());
+    assertEquals("y", yailList.getObject(2));
+  }
+
+  @Test
+  public void testListsSharingPairs() {
+    YailList yailList = YailList.makeList(new Object[] {"a", "b", "c"});
+    YailList other = new YailList();
+    other.setCdr(yailList.getCdr());
+    assertEquals(3, yailList.size());
+    other.removeObject(1);
+    assertEquals("(a c)", yailList.toString());
+    assertEquals(2, yailList.size());
+    assertEquals("c", yailList.getObject(1));
+  }
 }
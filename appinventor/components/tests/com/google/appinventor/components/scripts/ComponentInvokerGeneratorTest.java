@@ -0,0 +1,220 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2020 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.scripts;
+
+import com.google.appinventor.common.testutils.TestUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import gnu.lists.FString;
+import gnu.mapping.Values;
+import gnu.math.DFloNum;
+import gnu.math.IntNum;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ComponentInvokerGenerator}. The generator is run on a
+ * sample component, and the invoker it writes is compiled against the real
+ * {@code ComponentInvokers} and called.
+ */
+public class ComponentInvokerGeneratorTest {
+
+  private static final String COMPONENT_INVOKERS = TestUtils.APP_INVENTOR_ROOT_DIR
+      + "/components/src/com/google/appinventor/components/runtime/util/ComponentInvokers.java";
+
+  private static final String SAMPLE_BASE =
+      "package com.example;\n"
+      + "import com.google.appinventor.components.annotations.SimpleObject;\n"
+      + "import com.google.appinventor.components.annotations.SimpleProperty;\n"
+      + "@SimpleObject\n"
+      + "public abstract class SampleBase {\n"
+      + "  private boolean visible = true;\n"
+      + "  @SimpleProperty public boolean Visible() { return visible; }\n"
+      + "  @SimpleProperty public void Visible(boolean visible) { this.visible = visible; }\n"
+      + "}\n";
+
+  // The plain overloads come before the functions, since the component
+  // processor takes a method without @SimpleFunction that follows one of the
+  // same name for an override that hides it.
+  private static final String SAMPLE =
+      "package com.example;\n"
+      + "import com.google.appinventor.components.annotations.DesignerComponent;\n"
+      + "import com.google.appinventor.components.annotations.SimpleFunction;\n"
+      + "import com.google.appinventor.components.annotations.SimpleObject;\n"
+      + "import com.google.appinventor.components.annotations.SimpleProperty;\n"
+      + "import com.google.appinventor.components.common.ComponentCategory;\n"
+      + "@DesignerComponent(version = 1, category = ComponentCategory.INTERNAL)\n"
+      + "@SimpleObject\n"
+      + "public class Sample extends SampleBase {\n"
+      + "  public String calls = \"\";\n"
+      + "  private int size;\n"
+      + "  private String label = \"\";\n"
+      + "  @SimpleProperty public int Size() { return size; }\n"
+      + "  @SimpleProperty public void Size(int size) { this.size = size; }\n"
+      + "  @SimpleProperty public String Label() { return label; }\n"
+      + "  @SimpleProperty public void Label(String label) { this.label = label; }\n"
+      + "  @SimpleFunction public double Scale(double factor, boolean twice) {\n"
+      + "    return twice ? factor * 2 : factor;\n"
+      + "  }\n"
+      + "  public void Reset(long seed) { calls += \"Reset(\" + seed + \");\"; }\n"
+      + "  @SimpleFunction public void Reset() { calls += \"Reset();\"; }\n"
+      + "  public void Show(Object value) {}\n"
+      + "  @SimpleFunction public void Show(String text) {}\n"
+      + "  public void Move(char direction) {}\n"
+      + "  @SimpleFunction public void Move(int x, int y) {\n"
+      + "    calls += \"Move(\" + x + \",\" + y + \");\";\n"
+      + "  }\n"
+      + "  public void Helper() {}\n"
+      + "}\n";
+
+  private File tmpDir;
+  private Object sample;
+  private Object invoker;
+  private Object notHandled;
+
+  @Before
+  public void setUp() throws Exception {
+    tmpDir = Files.createTempDir();
+    ClassLoader loader = generateAndCompile();
+    sample = loader.loadClass("com.example.Sample").newInstance();
+    invoker = loader.loadClass("com.example.SampleInvoker").newInstance();
+    notHandled = loader.loadClass(
+        "com.google.appinventor.components.runtime.util.ComponentInvokers")
+        .getField("NOT_HANDLED").get(null);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    deleteRecursively(tmpDir);
+  }
+
+  @Test
+  public void testGeneratesInvokerForDesignerComponentsOnly() throws Exception {
+    assertTrue(new File(tmpDir, "gen/com/example/SampleInvoker.java").isFile());
+    // The abstract base class is not a designer component.
+    assertFalse(new File(tmpDir, "gen/com/example/SampleBaseInvoker.java").exists());
+  }
+
+  @Test
+  public void testPropertyGettersAndSetters() throws Throwable {
+    assertSame(Values.empty, invoke("Size", IntNum.make(3)));
+    assertEquals(3, invoke("Size"));
+    assertSame(Values.empty, invoke("Label", new FString("hello")));
+    assertEquals("hello", invoke("Label"));
+    // Properties inherited from a component superclass are included.
+    assertSame(Values.empty, invoke("Visible", Boolean.FALSE));
+    assertEquals(false, invoke("Visible"));
+  }
+
+  @Test
+  public void testMethods() throws Throwable {
+    assertEquals(5.0, invoke("Scale", DFloNum.make(2.5), Boolean.TRUE));
+    // As in Scheme, anything other than false is true.
+    assertEquals(6.0, invoke("Scale", IntNum.make(3), IntNum.make(0)));
+    // Public methods that are neither properties nor functions are left out.
+    assertSame(notHandled, invoke("Helper"));
+    assertSame(notHandled, invoke("Unknown"));
+  }
+
+  @Test
+  public void testOverloads() throws Throwable {
+    // Overloads with different argument counts each get a case.
+    invoke("Reset");
+    invoke("Reset", IntNum.make(7));
+    assertEquals("Reset();Reset(7);", calls());
+    // Overloads with the same argument count are left to Kawa.
+    assertSame(notHandled, invoke("Show", new FString("x")));
+    // So is an overload with a parameter type that only Kawa converts, but
+    // not the other overloads of the same name.
+    assertSame(notHandled, invoke("Move", new FString("n")));
+    invoke("Move", IntNum.make(1), IntNum.make(2));
+    assertEquals("Reset();Reset(7);Move(1,2);", calls());
+  }
+
+  private Object invoke(String name, Object... args) throws Throwable {
+    Method method = invoker.getClass().getMethod("invoke", Object.class, String.class,
+        Object[].class);
+    try {
+      return method.invoke(invoker, sample, name, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private String calls() throws Exception {
+    return (String) sample.getClass().getField("calls").get(sample);
+  }
+
+  /*
+   * Runs the generator on the sample component, compiles the sample and the
+   * generated invoker, and returns a class loader for them.
+   */
+  private ClassLoader generateAndCompile() throws Exception {
+    File src = new File(tmpDir, "src/com/example");
+    File gen = new File(tmpDir, "gen");
+    File classes = new File(tmpDir, "classes");
+    for (File dir : Arrays.asList(src, gen, classes)) {
+      assertTrue(dir.mkdirs());
+    }
+    File base = new File(src, "SampleBase.java");
+    File sample = new File(src, "Sample.java");
+    Files.write(SAMPLE_BASE, base, Charsets.UTF_8);
+    Files.write(SAMPLE, sample, Charsets.UTF_8);
+
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    try {
+      List<String> options = Arrays.asList(
+          "-classpath", System.getProperty("java.class.path"),
+          "-s", gen.getPath(),
+          "-d", classes.getPath());
+      JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics,
+          options, null, fileManager.getJavaFileObjects(base, sample,
+              new File(COMPONENT_INVOKERS)));
+      task.setProcessors(Collections.singletonList(new ComponentInvokerGenerator()));
+      boolean succeeded = task.call();
+      assertTrue(diagnostics.getDiagnostics().toString(), succeeded);
+    } finally {
+      fileManager.close();
+    }
+    return new URLClassLoader(new URL[] { classes.toURI().toURL() },
+        getClass().getClassLoader());
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+}